@@ -43,6 +43,9 @@ public class BuildTriageCorpusFromPdfDir {
 		@Option(name = "-noSkip", usage = "No skipping existing database entries?", required = false, metaVar  = "NOSKIP")
 		public boolean noSkip = false;
 
+		@Option(name = "-upsert", usage = "Update the codes of documents already in the corpus instead of adding them again", required = false)
+		public boolean upsert = false;
+
 		@Option(name = "-wd", usage = "Working directory", required = true, metaVar  = "WDIR")
 		public String workingDirectory = "";
 
@@ -82,6 +85,8 @@ public class BuildTriageCorpusFromPdfDir {
 				te.setRuleFile( options.pdfRuleFile );
 			} 		
 			
+			te.setUpsertScores(options.upsert);
+
 			coreDao.connectToDb();
 			
 			TriageCorpus tc = te.findTriageCorpusByNameInTrans(options.corpusName);
@@ -1,5 +1,7 @@
 package edu.isi.bmkeg.skm.triage.bin;
 
+import java.util.Map;
+
 import org.apache.log4j.Logger;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
@@ -7,6 +9,7 @@ import org.kohsuke.args4j.Option;
 
 import edu.isi.bmkeg.digitalLibrary.controller.DigitalLibraryEngine;
 import edu.isi.bmkeg.skm.triage.cleartk.utils.Options_ImplBase;
+import edu.isi.bmkeg.skm.triage.dao.vpdmf.TriageScoreDeleter;
 import edu.isi.bmkeg.vpdmf.controller.queryEngineTools.ChangeEngineImpl;
 import edu.isi.bmkeg.vpdmf.dao.CoreDao;
 import edu.isi.bmkeg.vpdmf.model.definitions.VPDMf;
@@ -29,6 +32,12 @@ public class DeleteTargetCorpus {
 
 		@Option(name = "-wd", usage = "Working directory", required = true, metaVar  = "WDIR")
 		public String workingDirectory = "";
+		
+		@Option(name = "-chunkSize", usage = "Number of scores deleted per transaction", required = false, metaVar = "N")
+		public int chunkSize = TriageScoreDeleter.DEFAULT_CHUNK_SIZE;
+
+		@Option(name = "-pauseMs", usage = "Pause between two transactions (in ms)", required = false, metaVar = "MS")
+		public long pauseMs = 0;
 
 	}
 
@@ -77,19 +86,23 @@ public class DeleteTargetCorpus {
 			ce.connectToDB();
 			ce.turnOffAutoCommit();
 
-			// Really bare-bones implementation of this.
-			String sql = "DELETE ts.*, vt.* " +
-					"FROM TriageScore AS ts, " + 
-					" ViewTable AS vt, " +
-					" Corpus AS targetc " +
-					"WHERE vt.vpdmfId = ts.vpdmfId " +	
-					"  AND ts.targetCorpus_id = targetc.vpdmfId " +
-					"  AND targetc.name = '" + options.targetCorpus + "';";
-	
-			ce.executeRawUpdateQuery(sql);
-			ce.prettyPrintSQL(sql);
+			//
+			// scores are deleted in short transactions, if this is 
+			// interrupted running it again deletes the remaining ones.
+			//
+			TriageScoreDeleter deleter = new TriageScoreDeleter(ce, 
+					options.chunkSize);
+			deleter.setPauseMs(options.pauseMs);
+
+			long corpusId = deleter.findCorpusId(options.targetCorpus);
+			if (corpusId < 0)
+				throw new Exception("Corpus " + options.targetCorpus + " does not exist.");
+
+			Map<String, Integer> counts = deleter.deleteScores(-1, corpusId);
+			for (Map.Entry<String, Integer> e : counts.entrySet())
+				System.out.println(e.getKey() + ": " + e.getValue() + " rows deleted");
 
-			sql = "DELETE targetc.*, vt.* " +
+			String sql = "DELETE targetc.*, vt.* " +
 					 "FROM ViewTable AS vt, " +
 						" Corpus AS targetc " +
 					 "WHERE vt.vpdmfId = targetc.vpdmfId " +
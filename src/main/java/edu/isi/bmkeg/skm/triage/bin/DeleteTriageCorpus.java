@@ -1,5 +1,7 @@
 package edu.isi.bmkeg.skm.triage.bin;
 
+import java.util.Map;
+
 import org.apache.log4j.Logger;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
@@ -7,6 +9,7 @@ import org.kohsuke.args4j.Option;
 
 import edu.isi.bmkeg.digitalLibrary.controller.DigitalLibraryEngine;
 import edu.isi.bmkeg.skm.triage.cleartk.utils.Options_ImplBase;
+import edu.isi.bmkeg.skm.triage.dao.vpdmf.TriageScoreDeleter;
 import edu.isi.bmkeg.vpdmf.controller.queryEngineTools.ChangeEngineImpl;
 import edu.isi.bmkeg.vpdmf.dao.CoreDao;
 import edu.isi.bmkeg.vpdmf.model.definitions.VPDMf;
@@ -30,6 +33,12 @@ public class DeleteTriageCorpus {
 		@Option(name = "-wd", usage = "Working directory", required = true, metaVar  = "WDIR")
 		public String workingDirectory = "";
 		
+		@Option(name = "-chunkSize", usage = "Number of scores deleted per transaction", required = false, metaVar = "N")
+		public int chunkSize = TriageScoreDeleter.DEFAULT_CHUNK_SIZE;
+
+		@Option(name = "-pauseMs", usage = "Pause between two transactions (in ms)", required = false, metaVar = "MS")
+		public long pauseMs = 0;
+
 	}
 
 	private static Logger logger = Logger.getLogger(DeleteTriageCorpus.class);
@@ -77,22 +86,25 @@ public class DeleteTriageCorpus {
 			ce.connectToDB();
 			ce.turnOffAutoCommit();
 
-			// Really bare-bones implementation of this.
-			
-			String sql = "DELETE ts.*, vt.* " +
-					"FROM TriageScore AS ts, " + 
-					" ViewTable AS vt, " +
-					" Corpus AS triagec " +
-					"WHERE vt.vpdmfId = ts.vpdmfId " +
-					"  AND ts.triageCorpus_id = triagec.vpdmfId " +
-					"  AND triagec.name = '" + options.triageCorpus + "';";
-
-			ce.executeRawUpdateQuery(sql);
-			ce.prettyPrintSQL(sql);
+			//
+			// scores are deleted in short transactions, if this is 
+			// interrupted running it again deletes the remaining ones.
+			//
+			TriageScoreDeleter deleter = new TriageScoreDeleter(ce, 
+					options.chunkSize);
+			deleter.setPauseMs(options.pauseMs);
+
+			long corpusId = deleter.findCorpusId(options.triageCorpus);
+			if (corpusId < 0)
+				throw new Exception("Corpus " + options.triageCorpus + " does not exist.");
+
+			Map<String, Integer> counts = deleter.deleteScores(corpusId, -1);
+			for (Map.Entry<String, Integer> e : counts.entrySet())
+				System.out.println(e.getKey() + ": " + e.getValue() + " rows deleted");
 			
 			// Weird error, seems to run into a foreign key 
 			// constraint error between the Corpus and TriageCorpus
-			sql = "DELETE tc.* " +
+			String sql = "DELETE tc.* " +
 					 "FROM Corpus AS c, " +
 					 " TriageCorpus AS tc " +
 					 "WHERE tc.vpdmfId = c.vpdmfId " +
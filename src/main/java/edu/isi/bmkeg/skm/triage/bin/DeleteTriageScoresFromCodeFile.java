@@ -79,7 +79,10 @@ public class DeleteTriageScoresFromCodeFile {
 				throw new Exception("TriageCorpus " + options.corpusName + " does not exist.");
 			}
 			
-			te.deleteArticlesFromTriageCorpusBasedOnCodeFile(tc, options.codeList);
+			Map<String, Integer> counts = te.deleteArticlesFromTriageCorpusBasedOnCodeFile(
+					tc, options.codeList);
+			for (Map.Entry<String, Integer> e : counts.entrySet())
+				System.out.println(e.getKey() + ": " + e.getValue() + " rows deleted");
 			
 			te.getDigLibDao().getCoreDao().commitTransaction();
 			
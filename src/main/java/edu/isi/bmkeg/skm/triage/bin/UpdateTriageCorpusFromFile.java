@@ -52,6 +52,9 @@ public class UpdateTriageCorpusFromFile {
 		@Option(name = "-wd", usage = "Working directory", required = true, metaVar  = "WDIR")
 		public String workingDirectory = "";
 
+		@Option(name = "-upsert", usage = "Update the codes of documents already in the corpus instead of adding them again", required = false)
+		public boolean upsert = false;
+
 	}
 
 	/**
@@ -71,6 +74,7 @@ public class UpdateTriageCorpusFromFile {
 			te.initializeVpdmfDao(
 					options.login, options.password, 
 					options.dbName, options.workingDirectory);
+			te.setUpsertScores(options.upsert);
 			
 			TriageCorpus tc = te.findTriageCorpusByNameInTrans(options.corpusName);
 			if( tc == null ) {
@@ -78,25 +78,37 @@ public class BigramCountAnnotator extends CategorizedFtdAnnotator {
 		//
 		DocumentAnnotation doc = (DocumentAnnotation) jCas
 				.getDocumentAnnotationFs();
-		List<Feature> features = this.extractor.extract(jCas, doc);
 		
-		Map<String, Integer> countFeatures = new HashMap<String, Integer>();
-		for( Feature f : features ) {
-			String fKey = f.getName() + "_" + f.getValue();
-			if( !countFeatures.containsKey( fKey ) ) {
-				countFeatures.put(fKey, 1);				
-			} else {
-				countFeatures.put(fKey, countFeatures.get(fKey)+1);								
+		List<Feature> features;
+		if (this.usesVocabulary()) {
+			
+			features = this.countNgrams(jCas, false, true);
+		
+		} else {
+		
+			features = this.extractor.extract(jCas, doc);
+		
+			Map<String, Integer> countFeatures = new HashMap<String, Integer>();
+			for( Feature f : features ) {
+				String fKey = f.getName() + "_" + f.getValue();
+				if( !countFeatures.containsKey( fKey ) ) {
+					countFeatures.put(fKey, 1);				
+				} else {
+					countFeatures.put(fKey, countFeatures.get(fKey)+1);								
+				}
 			}
-		}
 		
-		features = new ArrayList<Feature>();
-		for( String fKey : countFeatures.keySet() ) {
-			Feature f = new Feature();
-			f.setName(fKey);
-			f.setValue(countFeatures.get(fKey));
-			features.add(f);
+			features = new ArrayList<Feature>();
+			for( String fKey : countFeatures.keySet() ) {
+				Feature f = new Feature();
+				f.setName(fKey);
+				f.setValue(countFeatures.get(fKey));
+				features.add(f);
+			}
+			
 		}
+		
+		features.addAll(this.countPatterns(jCas));
 				
 		if (isTraining()) {
 			
@@ -0,0 +1,107 @@
+package edu.isi.bmkeg.skm.triage.cleartk.annotators;
+
+import org.apache.log4j.Logger;
+import org.apache.uima.UimaContext;
+import org.apache.uima.analysis_engine.AnalysisEngineDescription;
+import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.cleartk.token.type.Token;
+import org.tartarus.snowball.SnowballProgram;
+import org.uimafit.component.JCasAnnotator_ImplBase;
+import org.uimafit.descriptor.ConfigurationParameter;
+import org.uimafit.factory.AnalysisEngineFactory;
+import org.uimafit.factory.ConfigurationParameterFactory;
+import org.uimafit.util.JCasUtil;
+
+import edu.isi.bmkeg.skm.triage.cleartk.utils.StemCache;
+
+/**
+ * Sets the stem of every Token like ClearTK's DefaultSnowballStemmer, but
+ * looks words up in a {@link StemCache} first. The cache is shared by all
+ * the instances (and pipelines) of a JVM that use the same stemmer and
+ * lowercasing, so frequent words are only stemmed once per run.
+ */
+public class CachingSnowballStemmer extends JCasAnnotator_ImplBase {
+
+	private static Logger logger = Logger.getLogger(CachingSnowballStemmer.class);
+
+	public static final String PARAM_STEMMER_NAME = ConfigurationParameterFactory
+			.createConfigurationParameterName(CachingSnowballStemmer.class,
+					"stemmerName");
+	@ConfigurationParameter(mandatory = false, description = "Snowball stemmer, e.g. English",
+			defaultValue = "English")
+	private String stemmerName;
+
+	public static final String PARAM_LOWERCASE = ConfigurationParameterFactory
+			.createConfigurationParameterName(CachingSnowballStemmer.class,
+					"lowercase");
+	@ConfigurationParameter(mandatory = false, description = "Lowercase words before stemming",
+			defaultValue = "true")
+	private boolean lowercase;
+
+	public static final String PARAM_CACHE_SIZE = ConfigurationParameterFactory
+			.createConfigurationParameterName(CachingSnowballStemmer.class,
+					"cacheSize");
+	@ConfigurationParameter(mandatory = false, description = "Maximum number of cached stems",
+			defaultValue = "100000")
+	private int cacheSize;
+
+	private SnowballProgram stemmer;
+
+	private StemCache cache;
+
+	public static AnalysisEngineDescription getDescription(String stemmerName)
+			throws ResourceInitializationException {
+		return AnalysisEngineFactory.createPrimitiveDescription(
+				CachingSnowballStemmer.class,
+				PARAM_STEMMER_NAME, stemmerName);
+	}
+
+	public void initialize(UimaContext context)
+			throws ResourceInitializationException {
+
+		super.initialize(context);
+
+		try {
+			// stemmers are stateful, each instance gets its own
+			this.stemmer = (SnowballProgram) Class.forName(
+					"org.tartarus.snowball.ext." + this.stemmerName + "Stemmer")
+					.newInstance();
+		} catch (Exception e) {
+			throw new ResourceInitializationException(e);
+		}
+
+		this.cache = StemCache.getShared(this.stemmerName
+				+ (this.lowercase ? ".lowercase" : ""), this.cacheSize);
+
+	}
+
+	public void process(JCas jCas) throws AnalysisEngineProcessException {
+
+		for (Token token : JCasUtil.select(jCas, Token.class)) {
+
+			String word = token.getCoveredText();
+			if (this.lowercase)
+				word = word.toLowerCase();
+
+			String stem = this.cache.get(word);
+			if (stem == null) {
+				this.stemmer.setCurrent(word);
+				this.stemmer.stem();
+				stem = this.stemmer.getCurrent();
+				this.cache.put(word, stem);
+			}
+			token.setStem(stem);
+
+		}
+
+	}
+
+	public void collectionProcessComplete()
+			throws AnalysisEngineProcessException {
+		super.collectionProcessComplete();
+		logger.info("Stem cache: " + this.cache);
+	}
+
+}
@@ -1,24 +1,346 @@
 package edu.isi.bmkeg.skm.triage.cleartk.annotators;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.log4j.Logger;
+import org.apache.uima.UimaContext;
+import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.jcas.tcas.DocumentAnnotation;
+import org.apache.uima.resource.ResourceInitializationException;
 import org.cleartk.ml.CleartkAnnotator;
 import org.cleartk.ml.CleartkProcessingException;
 import org.cleartk.ml.Feature;
 import org.cleartk.ml.Instance;
 import org.cleartk.ml.feature.transform.extractor.TfidfExtractor;
+import org.cleartk.ml.jar.GenericJarClassifierFactory;
+import org.cleartk.token.type.Sentence;
+import org.cleartk.token.type.Token;
+import org.uimafit.descriptor.ConfigurationParameter;
+import org.uimafit.factory.ConfigurationParameterFactory;
 import org.uimafit.util.JCasUtil;
 
 import edu.isi.bmkeg.skm.cleartk.type.CatorgorizedFtdText;
+import edu.isi.bmkeg.skm.cleartk.type.ExplanationFeature;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.FastTokenizer;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.IntIntCounter;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.LinearSvmScorer;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.MultiPatternMatcher;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.NgramHashing;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.NgramVocabulary;
 
 public abstract class CategorizedFtdAnnotator extends CleartkAnnotator<Boolean> {
 
+	private static Logger logger = Logger.getLogger(CategorizedFtdAnnotator.class);
+
+	public static final String PARAM_LINEAR_SCORING = ConfigurationParameterFactory
+			.createConfigurationParameterName(CategorizedFtdAnnotator.class,
+					"linearScoring");
+	@ConfigurationParameter(mandatory = false, description = "When classifying with a linear " +
+			"libsvm model, compute scores with a LinearSvmScorer instead of libsvm", defaultValue = "false")
+	protected boolean linearScoring;
+
+	public static final String PARAM_VOCABULARY_FILE = ConfigurationParameterFactory
+			.createConfigurationParameterName(CategorizedFtdAnnotator.class,
+					"vocabularyFile");
+	@ConfigurationParameter(mandatory = false, description = "If set, n-gram counting annotators " +
+			"count vocabulary ids instead of feature name strings. The vocabulary is written to " +
+			"this file when training and memory-mapped from it when classifying.")
+	protected String vocabularyFile;
+
+	public static final String PARAM_FAST_TOKENIZER = ConfigurationParameterFactory
+			.createConfigurationParameterName(CategorizedFtdAnnotator.class,
+					"fastTokenizer");
+	@ConfigurationParameter(mandatory = false, description = "Annotators counting n-grams from " +
+			"token offsets (with a vocabulary or hashed) tokenize the Sentence annotations with a " +
+			"FastTokenizer, which finds the same tokens as TokenAnnotator, instead of reading " +
+			"Token annotations", defaultValue = "false")
+	protected boolean fastTokenizer;
+
+	public static final String PARAM_VERIFY_TOKENIZER = ConfigurationParameterFactory
+			.createConfigurationParameterName(CategorizedFtdAnnotator.class,
+					"verifyTokenizer");
+	@ConfigurationParameter(mandatory = false, description = "With fastTokenizer, also compare " +
+			"its tokens with the Token annotations and fail on the first document where they differ", 
+			defaultValue = "false")
+	protected boolean verifyTokenizer;
+
+	public static final String PARAM_EXPLANATION_SIZE = ConfigurationParameterFactory
+			.createConfigurationParameterName(CategorizedFtdAnnotator.class,
+					"explanationSize");
+	@ConfigurationParameter(mandatory = false, description = "When classifying with a linear " +
+			"libsvm model, annotate the document with this many ExplanationFeatures: the features " +
+			"with the largest weight x count terms in its score", defaultValue = "0")
+	protected int explanationSize;
+
+	public static final String PARAM_PATTERN_DICTIONARY = ConfigurationParameterFactory
+			.createConfigurationParameterName(CategorizedFtdAnnotator.class,
+					"patternDictionary");
+	@ConfigurationParameter(mandatory = false, description = "A dictionary of named patterns " +
+			"(file or classpath resource, see MultiPatternMatcher) whose counts in the text are " +
+			"added to the features of the annotators that support it")
+	protected String patternDictionary;
+
+	/**
+	 * Matcher of the pattern dictionary, if any.
+	 */
+	protected MultiPatternMatcher patternMatcher;
+
+	/**
+	 * Number of documents scored both ways before the LinearSvmScorer is 
+	 * trusted on its own.
+	 */
+	private static final int PARITY_CHECKS = 25;
+
+	private LinearSvmScorer linearScorer;
+
+	/**
+	 * Explains the scores, whether or not they are computed by linearScorer.
+	 */
+	private LinearSvmScorer explanationScorer;
+
+	/**
+	 * The n-grams of the vocabulary by id, to name explanation features.
+	 */
+	private List<String> vocabularyTerms;
+
+	private int parityChecked = 0;
+
+	private NgramVocabulary vocabulary;
+
+	private NgramVocabulary.Builder vocabularyBuilder;
+
+	private IntIntCounter ngramCounts;
+
+	/**
+	 * Feature names by vocabulary id, created the first time an id is seen.
+	 */
+	private String[] ngramFeatureNames;
+
+	private FastTokenizer tokens = new FastTokenizer();
+
+	private int tokenizerVerified = 0;
+
+	public void initialize(UimaContext context)
+			throws ResourceInitializationException {
+
+		super.initialize(context);
+
+		if (this.linearScoring && !this.isTraining()) {
+
+			Object jarPath = context.getConfigParameterValue(
+					GenericJarClassifierFactory.PARAM_CLASSIFIER_JAR_PATH);
+			try {
+				this.linearScorer = LinearSvmScorer.load(
+						new File(String.valueOf(jarPath)).getParentFile());
+			} catch (Exception e) {
+				logger.warn("Linear scoring disabled, can't load a linear model for " 
+						+ jarPath + ": " + e.getMessage());
+			}
+
+		}
+
+		if (this.usesVocabulary()) {
+
+			if (this.isTraining()) {
+				this.vocabularyBuilder = new NgramVocabulary.Builder();
+			} else {
+				try {
+					this.vocabulary = NgramVocabulary.open(new File(this.vocabularyFile));
+				} catch (IOException e) {
+					throw new ResourceInitializationException(e);
+				}
+			}
+			this.ngramCounts = new IntIntCounter(4096);
+			this.ngramFeatureNames = new String[1024];
+
+		}
+
+		if (this.patternDictionary != null && this.patternDictionary.length() > 0) {
+			try {
+				this.patternMatcher = MultiPatternMatcher.open(this.patternDictionary);
+			} catch (IOException e) {
+				throw new ResourceInitializationException(e);
+			}
+		}
+
+		if (this.explanationSize > 0 && !this.isTraining()) {
+
+			Object jarPath = context.getConfigParameterValue(
+					GenericJarClassifierFactory.PARAM_CLASSIFIER_JAR_PATH);
+			try {
+				this.explanationScorer = this.linearScorer != null ? this.linearScorer
+						: LinearSvmScorer.load(new File(String.valueOf(jarPath))
+								.getParentFile());
+				if (this.usesVocabulary())
+					this.vocabularyTerms = NgramVocabulary.readTerms(new File(
+							this.vocabularyFile));
+			} catch (Exception e) {
+				throw new ResourceInitializationException(e);
+			}
+
+		}
+
+	}
+
+	public void collectionProcessComplete()
+			throws AnalysisEngineProcessException {
+
+		super.collectionProcessComplete();
+
+		if (this.vocabularyBuilder != null) {
+			try {
+				this.vocabularyBuilder.write(new File(this.vocabularyFile));
+			} catch (IOException e) {
+				throw new AnalysisEngineProcessException(e);
+			}
+			logger.info("Wrote " + this.vocabularyBuilder.size() 
+					+ " n-grams to " + this.vocabularyFile);
+		}
+
+		if (this.tokenizerVerified > 0)
+			logger.info("FastTokenizer matched TokenAnnotator on " 
+					+ this.tokenizerVerified + " documents");
+
+	}
+
+	/**
+	 * Returns the token offsets of the document, either from the Token
+	 * annotations or, with fastTokenizer, by tokenizing its sentences. The
+	 * result is reused for the next document.
+	 */
+	protected FastTokenizer getTokens(JCas jCas)
+			throws AnalysisEngineProcessException {
+
+		this.tokens.clear();
+
+		if (!this.fastTokenizer) {
+			for (Token token : JCasUtil.select(jCas, Token.class))
+				this.tokens.add(token.getBegin(), token.getEnd());
+			return this.tokens;
+		}
+
+		String text = jCas.getDocumentText();
+		for (Sentence sentence : JCasUtil.select(jCas, Sentence.class))
+			this.tokens.tokenize(text, sentence.getBegin(), sentence.getEnd());
+
+		if (this.verifyTokenizer) {
+			int i = 0;
+			int n = this.tokens.size();
+			int firstDiff = -1;
+			for (Token token : JCasUtil.select(jCas, Token.class)) {
+				if (i >= n || token.getBegin() != this.tokens.getBegin(i)
+						|| token.getEnd() != this.tokens.getEnd(i)) {
+					firstDiff = token.getBegin();
+					break;
+				}
+				i++;
+			}
+			if (firstDiff == -1 && i < n)
+				firstDiff = this.tokens.getBegin(i);
+			if (firstDiff != -1)
+				throw new AnalysisEngineProcessException(new Exception(
+						"FastTokenizer differs from TokenAnnotator at: " 
+						+ text.substring(firstDiff, Math.min(text.length(), firstDiff + 40))));
+			this.tokenizerVerified++;
+		}
+
+		return this.tokens;
+
+	}
+
+	protected boolean usesVocabulary() {
+		return this.vocabularyFile != null && this.vocabularyFile.length() > 0;
+	}
+
+	/**
+	 * Counts the unigrams and/or bigrams of the document's tokens by
+	 * vocabulary id and returns one feature per distinct id. Tokens are 
+	 * fingerprinted straight from the document text; strings are only 
+	 * created for n-grams added to the vocabulary while training, and 
+	 * n-grams missing from the vocabulary are ignored when classifying. 
+	 * 
+	 * Like the CleartkExtractors it replaces, tokens are case-sensitive and
+	 * bigrams run over consecutive tokens of the whole document.
+	 */
+	protected List<Feature> countNgrams(JCas jCas, boolean unigrams,
+			boolean bigrams) throws AnalysisEngineProcessException {
+
+		String text = jCas.getDocumentText();
+		IntIntCounter counts = this.ngramCounts;
+		counts.clear();
+
+		FastTokenizer tokens = this.getTokens(jCas);
+
+		long prev = 0;
+		int prevBegin = -1, prevEnd = -1;
+		for (int t = 0; t < tokens.size(); t++) {
+
+			int begin = tokens.getBegin(t), end = tokens.getEnd(t);
+			long f = NgramHashing.fingerprint(text, begin, end);
+
+			if (unigrams) {
+				int id = this.lookupNgram(f);
+				if (id == -1 && this.vocabularyBuilder != null)
+					id = this.vocabularyBuilder.add(f, text.substring(begin, end));
+				if (id != -1)
+					counts.increment(id);
+			}
+
+			if (bigrams && prevBegin != -1) {
+				long bf = NgramHashing.combineFingerprints(prev, f);
+				int id = this.lookupNgram(bf);
+				if (id == -1 && this.vocabularyBuilder != null)
+					id = this.vocabularyBuilder.add(bf, text.substring(prevBegin,
+							prevEnd) + " " + text.substring(begin, end));
+				if (id != -1)
+					counts.increment(id);
+			}
+
+			prev = f;
+			prevBegin = begin;
+			prevEnd = end;
+
+		}
+
+		List<Feature> features = new ArrayList<Feature>(counts.size());
+		for (int i = 0; i < counts.size(); i++) {
+			int id = counts.keyAt(i);
+			if (id >= this.ngramFeatureNames.length)
+				this.ngramFeatureNames = Arrays.copyOf(this.ngramFeatureNames,
+						Math.max(id + 1, this.ngramFeatureNames.length * 2));
+			String name = this.ngramFeatureNames[id];
+			if (name == null)
+				name = this.ngramFeatureNames[id] = "Ngram_" + id;
+			features.add(new Feature(name, counts.countAt(i)));
+		}
+		return features;
+
+	}
+
+	/**
+	 * Counts the patterns of the dictionary in the document text, in one scan,
+	 * returning one feature per pattern name found (none without a 
+	 * dictionary).
+	 */
+	protected List<Feature> countPatterns(JCas jCas) {
+		if (this.patternMatcher == null)
+			return new ArrayList<Feature>();
+		return this.patternMatcher.countFeatures(jCas.getDocumentText());
+	}
+
+	private int lookupNgram(long fingerprint) {
+		return this.vocabulary != null ? this.vocabulary.getId(fingerprint)
+				: this.vocabularyBuilder.getId(fingerprint);
+	}
+
 	static protected void scoredOutcomeToCategorizedFtdText(
 			boolean outcome,
 			Double score, 
@@ -49,21 +371,78 @@ public abstract class CategorizedFtdAnnotator extends CleartkAnnotator<Boolean>
 	protected void createCategorizedFtdAnnotation(JCas jCas, List<Feature> features)
 			throws CleartkProcessingException {
 		
+		CatorgorizedFtdText document = new CatorgorizedFtdText(jCas, 0,
+				jCas.getDocumentText().length());
+
+		if (this.explanationScorer != null)
+			this.addExplanationFeatures(jCas, features);
+
+		if (this.linearScorer != null && this.parityChecked >= PARITY_CHECKS) {
+
+			double inScore = this.linearScorer.score(features);
+			scoredOutcomeToCategorizedFtdText(inScore > 0, inScore, document);
+			document.addToIndexes();
+			return;
+
+		}
+
 		//
 		// this is where we need to run the transformation loop 
 		// for this instance based on our training data tf-idf values
 		//
 		Boolean outcome = this.classifier.classify(features);
 		Map<Boolean, Double> score = this.classifier.score(features);
-		CatorgorizedFtdText document = new CatorgorizedFtdText(jCas, 0,
-				jCas.getDocumentText().length());
 	
 		scoredOutcomeToCategorizedFtdText(outcome, score.get(true), document);
+
+		//
+		// check that the linear scorer agrees with libsvm on the first
+		// documents, and fall back to libsvm for good if it does not.
+		//
+		if (this.linearScorer != null) {
+			double inScore = this.linearScorer.score(features);
+			double expected = score.get(true);
+			if ((inScore > 0) != outcome.booleanValue()
+					|| Math.abs(inScore - expected) > 1e-6 * Math.max(1.0, Math.abs(expected))) {
+				logger.warn("Linear scoring disabled, it computed " + inScore 
+						+ " where libsvm computed " + expected);
+				this.linearScorer = null;
+			} else {
+				this.parityChecked++;
+			}
+		}
 		
 		document.addToIndexes();
 
 	}
 
+	/**
+	 * Annotates the document with the explanationSize features that weigh
+	 * most on its score, naming vocabulary ids by their n-grams.
+	 */
+	private void addExplanationFeatures(JCas jCas, List<Feature> features)
+			throws CleartkProcessingException {
+
+		for (LinearSvmScorer.Contribution c : this.explanationScorer.explain(
+				features, this.explanationSize)) {
+
+			String name = c.getName();
+			if (this.vocabularyTerms != null && name.startsWith("Ngram_")) {
+				int id = Integer.parseInt(name.substring(6));
+				if (id < this.vocabularyTerms.size())
+					name = this.vocabularyTerms.get(id);
+			}
+
+			ExplanationFeature ef = new ExplanationFeature(jCas, 0, 0);
+			ef.setName(name);
+			ef.setCount(c.getValue());
+			ef.setContribution(c.getContribution());
+			ef.addToIndexes();
+
+		}
+
+	}
+
 	protected void writeInstance(JCas jCas, List<Feature> features)
 			throws CleartkProcessingException {
 		
@@ -0,0 +1,142 @@
+package edu.isi.bmkeg.skm.triage.cleartk.annotators;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.uima.UimaContext;
+import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.cleartk.ml.Feature;
+import org.uimafit.descriptor.ConfigurationParameter;
+import org.uimafit.factory.ConfigurationParameterFactory;
+
+import edu.isi.bmkeg.skm.triage.cleartk.utils.FastTokenizer;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.NgramHashing;
+
+/**
+ * Hashing-trick version of {@link Uni_and_BigramCountAnnotator}. Every
+ * unigram and bigram of the document's tokens is hashed straight from the
+ * document text into one of 2^hashBits buckets, with a +1/-1 sign, and
+ * counted in a primitive array. Only the non-zero buckets become features,
+ * so the model has at most 2^hashBits features whatever the vocabulary.
+ *
+ * Like Uni_and_BigramCountAnnotator, tokens are case-sensitive and bigrams
+ * run over consecutive tokens of the whole document.
+ *
+ * Each instance keeps two arrays of 2^hashBits entries, and pipelines run one
+ * instance per thread, so hashBits is capped at MAX_HASH_BITS.
+ */
+public class HashedUni_and_BigramCountAnnotator extends CategorizedFtdAnnotator {
+
+	public static final int MAX_HASH_BITS = 24;
+
+	public static final String PARAM_HASH_BITS = ConfigurationParameterFactory
+			.createConfigurationParameterName(
+					HashedUni_and_BigramCountAnnotator.class, "hashBits");
+	@ConfigurationParameter(mandatory = false, description = "log2 of the number of hash buckets (1-24)",
+			defaultValue = "20")
+	private int hashBits;
+
+	private int[] counts;
+
+	/**
+	 * Buckets with a non-zero count in the current document.
+	 */
+	private int[] touched;
+
+	private int nTouched;
+
+	/**
+	 * Feature names of the buckets, created the first time a bucket is seen.
+	 */
+	private String[] names;
+
+	public void initialize(UimaContext context)
+			throws ResourceInitializationException {
+		super.initialize(context);
+
+		if (hashBits < 1 || hashBits > MAX_HASH_BITS)
+			throw new ResourceInitializationException(
+					new IllegalArgumentException("hashBits must be between 1 and " 
+							+ MAX_HASH_BITS));
+
+		this.counts = new int[1 << hashBits];
+		this.names = new String[1 << hashBits];
+		this.touched = new int[1024];
+
+	}
+
+	public void process(JCas jCas) throws AnalysisEngineProcessException {
+
+		String text = jCas.getDocumentText();
+
+		this.nTouched = 0;
+
+		FastTokenizer tokens = this.getTokens(jCas);
+
+		int prev = 0;
+		boolean first = true;
+		for (int t = 0; t < tokens.size(); t++) {
+
+			int h = NgramHashing.hash(text, tokens.getBegin(t), tokens.getEnd(t),
+					NgramHashing.UNIGRAM_SEED);
+			this.count(h);
+
+			if (!first)
+				this.count(NgramHashing.combine(prev, h, NgramHashing.BIGRAM_SEED));
+
+			prev = h;
+			first = false;
+
+		}
+
+		List<Feature> features = new ArrayList<Feature>(nTouched);
+		for (int i = 0; i < nTouched; i++) {
+			int b = touched[i];
+			if (counts[b] != 0) {
+				if (names[b] == null)
+					names[b] = "Hash_" + b;
+				features.add(new Feature(names[b], counts[b]));
+				counts[b] = 0;
+			}
+		}
+
+		features.addAll(this.countPatterns(jCas));
+
+		if (isTraining()) {
+
+			// during training, get the label for this
+			// document from the CAS
+			writeInstance(jCas, features);
+
+		}
+
+		else {
+
+			// during classification, use the classifier's output
+			// to create a CAS annotation
+			createCategorizedFtdAnnotation(jCas, features);
+
+		}
+
+	}
+
+	private void count(int hash) {
+
+		int b = NgramHashing.bucket(hash, hashBits);
+		if (counts[b] == 0) {
+			// a bucket may come back to 0 and be touched again, the
+			// duplicate entry is skipped when features are built
+			if (nTouched == touched.length) {
+				int[] t = new int[touched.length * 2];
+				System.arraycopy(touched, 0, t, 0, nTouched);
+				touched = t;
+			}
+			touched[nTouched++] = b;
+		}
+		counts[b] += NgramHashing.sign(hash);
+
+	}
+
+}
@@ -24,96 +24,96 @@
 package edu.isi.bmkeg.skm.triage.cleartk.annotators;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 import org.apache.uima.UimaContext;
 import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
 import org.apache.uima.jcas.JCas;
-import org.apache.uima.jcas.tcas.DocumentAnnotation;
 import org.apache.uima.resource.ResourceInitializationException;
 import org.cleartk.ml.Feature;
-import org.cleartk.ml.feature.extractor.CleartkExtractor;
-import org.cleartk.ml.feature.extractor.CleartkExtractor.Count;
-import org.cleartk.ml.feature.extractor.CleartkExtractor.Covered;
-import org.cleartk.ml.feature.extractor.CoveredTextExtractor;
-import org.cleartk.ml.feature.extractor.FeatureExtractor1;
-import org.cleartk.ml.feature.function.FeatureFunctionExtractor;
-import org.cleartk.ml.feature.function.LowerCaseFeatureFunction;
-import org.cleartk.ml.feature.selection.MutualInformationFeatureSelectionExtractor;
-import org.cleartk.token.type.Token;
 import org.uimafit.component.JCasAnnotator_ImplBase;
 import org.uimafit.descriptor.ConfigurationParameter;
+import org.uimafit.descriptor.ExternalResource;
 import org.uimafit.factory.ConfigurationParameterFactory;
 import org.uimafit.util.JCasUtil;
 
+import edu.isi.bmkeg.skm.cleartk.type.ExplanationFeature;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.MultiPatternMatcher;
 import edu.isi.bmkeg.skm.triage.controller.TriageEngine;
+import edu.isi.bmkeg.skm.triage.dao.vpdmf.TriageFeatureBatchWriter;
+import edu.isi.bmkeg.skm.triage.dao.vpdmf.TriageSession;
 import edu.isi.bmkeg.triage.model.TriageFeature;
 import edu.isi.bmkeg.triage.uimaTypes.TriageScore;
 
 /**
  * Very simple annotator to read the JCas for mentions of the words 'mouse',
- * 'mice' or 'murine'
+ * 'mice' or 'murine', counted in one scan of the text by a 
+ * MultiPatternMatcher (see WORD_DICTIONARY).
+ * 
+ * The database is reached through the TriageEngine bound under 
+ * TriageEngine.RESOURCE_KEY; each instance (replica) of the annotator 
+ * writes on its own TriageSession. Features are written by a 
+ * TriageFeatureBatchWriter, batchDocuments documents at a time, and flushed
+ * before every commit.
+ * 
+ * If the document was classified with explanations (see 
+ * CategorizedFtdAnnotator.PARAM_EXPLANATION_SIZE), its ExplanationFeatures 
+ * are saved instead of the word counts.
  */
 public class SaveFeaturesToDbAnnotator extends JCasAnnotator_ImplBase {
 
-	public static final String PARAM_VPDMf_LOGIN = ConfigurationParameterFactory
-			.createConfigurationParameterName(
-					SaveFeaturesToDbAnnotator.class, "vpdmfLogin");
+	public static final String WORD_DICTIONARY = 
+			"edu/isi/bmkeg/skm/triage/cleartk/annotators/explanationWords.txt";
 
-	@ConfigurationParameter(mandatory = true, description = "vpdmfLogin")
-	private String vpdmfLogin;
+	@ExternalResource(key = TriageEngine.RESOURCE_KEY)
+	private TriageEngine triageEngine;
 
-	public static final String PARAM_VPDMf_PASSWORD = ConfigurationParameterFactory
+	public static final String PARAM_COMMIT_EVERY = ConfigurationParameterFactory
 			.createConfigurationParameterName(
-					SaveFeaturesToDbAnnotator.class, "vpdmfPassword");
+					SaveFeaturesToDbAnnotator.class, "commitEvery");
 
-	@ConfigurationParameter(mandatory = true, description = "vpdmfPassword")
-	private String vpdmfPassword;
+	@ConfigurationParameter(mandatory = false, description = "Commit every N documents. "
+			+ "If 0, everything is committed in collectionProcessComplete()", defaultValue = "0")
+	private int commitEvery;
 
-	public static final String PARAM_VPDMf_DBNAME = ConfigurationParameterFactory
+	public static final String PARAM_BATCH_DOCUMENTS = ConfigurationParameterFactory
 			.createConfigurationParameterName(
-					SaveFeaturesToDbAnnotator.class, "vpdmfDbName");
+					SaveFeaturesToDbAnnotator.class, "batchDocuments");
 
-	@ConfigurationParameter(mandatory = true, description = "vpdmfDbName")
-	private String vpdmfDbName;
+	@ConfigurationParameter(mandatory = false, description = "Number of documents "
+			+ "whose features are written together", defaultValue = "100")
+	private int batchDocuments;
 
-	public static final String PARAM_VPDMf_WORKINGDIR = ConfigurationParameterFactory
-			.createConfigurationParameterName(
-					SaveFeaturesToDbAnnotator.class, "vpdmfDbName");
+	private int sinceCommit = 0;
+	
+	private MultiPatternMatcher words;
 
-	@ConfigurationParameter(mandatory = true, description = "vpdmfWorkingDir")
-	private String vpdmfWorkingDir;
+	private TriageSession session;
 
-	
-	private FeatureExtractor1 extractor;
+	private TriageFeatureBatchWriter featureWriter;
 
-	private TriageEngine triageEngine;
+	private boolean retained = false;
 
 	public void initialize(UimaContext context)
 			throws ResourceInitializationException {
 
 		super.initialize(context);
 
-		//
-		// Create an extractor that gives word counts for a document
-		//
-		FeatureExtractor1 ex1 = new FeatureFunctionExtractor(
-				new CoveredTextExtractor(), new LowerCaseFeatureFunction());
-
-		this.extractor = new CleartkExtractor(Token.class, ex1, new Count(
-				new Covered()));
-
 		try {
 
-			this.triageEngine = new TriageEngine();
-			this.triageEngine.initializeVpdmfDao(this.vpdmfLogin,
-					this.vpdmfPassword, this.vpdmfDbName,
-					this.vpdmfWorkingDir);
+			//
+			// Create a matcher that gives word counts for a document
+			//
+			this.words = MultiPatternMatcher.open(WORD_DICTIONARY);
 
-			this.triageEngine.getExTriageDao().getCoreDao().getCe()
-					.connectToDB();
-			this.triageEngine.getExTriageDao().getCoreDao().getCe()
-					.turnOffAutoCommit();
+			this.triageEngine.retain();
+			this.retained = true;
+			this.session = this.triageEngine.openSession();
+			this.featureWriter = this.session.createFeatureWriter(
+					this.batchDocuments,
+					TriageFeatureBatchWriter.DEFAULT_ROWS_PER_INSERT);
 
 		} catch (Exception e) {
 
@@ -125,58 +125,42 @@ public class SaveFeaturesToDbAnnotator extends JCasAnnotator_ImplBase {
 
 	public void process(JCas jCas) throws AnalysisEngineProcessException {
 
-		DocumentAnnotation doc = (DocumentAnnotation) jCas
-				.getDocumentAnnotationFs();
-
 		TriageScore ts = JCasUtil.selectSingle(jCas, TriageScore.class);
 		long tsId = ts.getVpdmfId();
 
-		if (tsId == -1)
+		if (tsId == -1) {
+			this.commitIfDue();
 			return;
+		}
 
-		List<TriageFeature> fList = new ArrayList<TriageFeature>();
+		List<TriageFeature> fList = getExplanationFeatures(jCas);
 
-		// for each token, extract features and the outcome
+		// without explanations, count the words in the text
 		List<Feature> features = new ArrayList<Feature>();
-		features.addAll(this.extractor.extract(jCas, doc));
+		if (fList.isEmpty())
+			features.addAll(this.words.countFeatures(jCas.getDocumentText()));
 
 		for (Feature f : features) {
 
-			if (f.getName().equals("Count_Covered_LowerCase_mouse")
-					|| f.getName().equals("Count_Covered_LowerCase_mice")
-					|| f.getName().equals("Count_Covered_LowerCase_murine")) {
-
-				TriageFeature tf = new TriageFeature();
-
-				String s = f.getName();
-				String stem = s.substring(s.lastIndexOf("_") + 1, s.length());
-				stem = "Count of word: '" + stem + "'";
-
-				tf.setFeatName(stem);
-				tf.setFeatValue(f.getValue().toString());
-				fList.add(tf);
-			}
+			TriageFeature tf = new TriageFeature();
+			tf.setFeatName("Count of word: '" + f.getName() + "'");
+			tf.setFeatValue(f.getValue().toString());
+			fList.add(tf);
 
 		}
 
 		try {
 			
-			triageEngine.removeAllExplanationFeatures(tsId);
-			
-			for (TriageFeature tf : fList) {
-
-				triageEngine.insertExplanationFeatures(tsId, tf);
+			this.featureWriter.replaceFeatures(tsId, fList);
 
-			}
+			this.commitIfDue();
 
 		} catch (Exception e) {
 
 			try {
 
-				this.triageEngine.getExTriageDao().getCoreDao().getCe()
-						.rollbackTransaction();
-				this.triageEngine.getExTriageDao().getCoreDao().getCe()
-						.closeDbConnection();
+				this.featureWriter.clear();
+				this.session.rollback();
 
 			} catch (Exception e2) {
 
@@ -189,22 +173,95 @@ public class SaveFeaturesToDbAnnotator extends JCasAnnotator_ImplBase {
 
 	}
 
+	/**
+	 * Returns the ExplanationFeatures of the document as TriageFeatures, 
+	 * from the one that weighs most on its score.
+	 */
+	public static List<TriageFeature> getExplanationFeatures(JCas jCas) {
+
+		// ExplanationFeatures are indexed by offset, all 0
+		List<ExplanationFeature> efList = new ArrayList<ExplanationFeature>(
+				JCasUtil.select(jCas, ExplanationFeature.class));
+		Collections.sort(efList, new Comparator<ExplanationFeature>() {
+			public int compare(ExplanationFeature a, ExplanationFeature b) {
+				return Double.compare(Math.abs(b.getContribution()),
+						Math.abs(a.getContribution()));
+			}
+		});
+
+		List<TriageFeature> fList = new ArrayList<TriageFeature>();
+		for (ExplanationFeature ef : efList) {
+
+			double count = ef.getCount();
+			TriageFeature tf = new TriageFeature();
+			tf.setFeatName("Weight of '" + ef.getName() + "' x "
+					+ (count == Math.rint(count) ? String.valueOf((long) count)
+							: String.valueOf(count)));
+			tf.setFeatValue(String.valueOf(
+					Math.round(ef.getContribution() * 10000) / 10000.0));
+			fList.add(tf);
+
+		}
+		return fList;
+
+	}
+
+	/**
+	 * Counts the document just processed and commits if commitEvery documents
+	 * have been processed since the last commit. 
+	 */
+	private void commitIfDue() throws AnalysisEngineProcessException {
+
+		if (this.commitEvery <= 0 || ++this.sinceCommit < this.commitEvery)
+			return;
+
+		try {
+
+			this.featureWriter.flush();
+			this.session.commit();
+			this.sinceCommit = 0;
+
+		} catch (Exception e) {
+
+			throw new AnalysisEngineProcessException(e);
+
+		}
+
+	}
+
 	public void collectionProcessComplete()
 			throws AnalysisEngineProcessException {
 
 		try {
 
-			this.triageEngine.getExTriageDao().getCoreDao().getCe()
-					.commitTransaction();
-			this.triageEngine.getExTriageDao().getCoreDao().getCe()
-					.closeDbConnection();
+			this.featureWriter.flush();
+			this.session.commit();
 
 		} catch (Exception e) {
 
 			throw new AnalysisEngineProcessException(e);
 
+		} finally {
+
+			this.featureWriter.close();
+			this.session.close();
+
 		}
 
 	}
 
+	public void destroy() {
+		
+		// releases the session if the collection was not completed
+		if (this.session != null) {
+			this.featureWriter.close();
+			this.session.close();
+		}
+		if (this.retained)
+			this.triageEngine.release();
+		this.retained = false;
+		super.destroy();
+	
+	}
+
 }
@@ -86,27 +86,38 @@ public class Uni_and_BigramCountAnnotator extends CategorizedFtdAnnotator {
 		DocumentAnnotation doc = (DocumentAnnotation) jCas
 				.getDocumentAnnotationFs();
 
-		List<Feature> features = this.biExtractor.extract(jCas, doc);
+		List<Feature> features;
+		if (this.usesVocabulary()) {
+			
+			features = this.countNgrams(jCas, true, true);
+		
+		} else {
 		
-		Map<String, Integer> countFeatures = new HashMap<String, Integer>();
-		for( Feature f : features ) {
-			String fKey = f.getName() + "_" + f.getValue();
-			if( !countFeatures.containsKey( fKey ) ) {
-				countFeatures.put(fKey, 1);				
-			} else {
-				countFeatures.put(fKey, countFeatures.get(fKey)+1);								
+			features = this.biExtractor.extract(jCas, doc);
+		
+			Map<String, Integer> countFeatures = new HashMap<String, Integer>();
+			for( Feature f : features ) {
+				String fKey = f.getName() + "_" + f.getValue();
+				if( !countFeatures.containsKey( fKey ) ) {
+					countFeatures.put(fKey, 1);				
+				} else {
+					countFeatures.put(fKey, countFeatures.get(fKey)+1);								
+				}
 			}
-		}
 		
-		features = new ArrayList<Feature>();
-		for( String fKey : countFeatures.keySet() ) {
-			Feature f = new Feature();
-			f.setName(fKey);
-			f.setValue(countFeatures.get(fKey));
-			features.add(f);
+			features = new ArrayList<Feature>();
+			for( String fKey : countFeatures.keySet() ) {
+				Feature f = new Feature();
+				f.setName(fKey);
+				f.setValue(countFeatures.get(fKey));
+				features.add(f);
+			}
+		
+			features.addAll( this.uniExtractor.extract(jCas, doc) );
+			
 		}
 		
-		features.addAll( this.uniExtractor.extract(jCas, doc) );
+		features.addAll(this.countPatterns(jCas));
 				
 		if (isTraining()) {
 			
@@ -73,7 +73,10 @@ public class UnigramCountAnnotator extends CategorizedFtdAnnotator {
 		//
 		DocumentAnnotation doc = (DocumentAnnotation) jCas
 				.getDocumentAnnotationFs();
-		List<Feature> features = this.extractor.extract(jCas, doc);
+		List<Feature> features = this.usesVocabulary() ? 
+				this.countNgrams(jCas, true, false) : 
+				this.extractor.extract(jCas, doc);
+		features.addAll(this.countPatterns(jCas));
 
 		if (isTraining()) {
 			
@@ -23,11 +23,8 @@
  */
 package edu.isi.bmkeg.skm.triage.cleartk.annotators.mgi;
 
-import java.util.HashMap;
+import java.io.IOException;
 import java.util.List;
-import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.uima.UimaContext;
 import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
@@ -42,6 +39,7 @@ import org.cleartk.ml.feature.extractor.CoveredTextExtractor;
 import org.cleartk.token.type.Token;
 
 import edu.isi.bmkeg.skm.triage.cleartk.annotators.CategorizedFtdAnnotator;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.MultiPatternMatcher;
 
 /**
  * <br>
@@ -51,21 +49,35 @@ import edu.isi.bmkeg.skm.triage.cleartk.annotators.CategorizedFtdAnnotator;
  * 
  * Simple annotator to look for 'geneName (+/-)' patterns.
  * 
+ * The patterns are found by a MultiPatternMatcher, from the 
+ * patternDictionary if set or else from DEFAULT_PATTERN_DICTIONARY. Each
+ * pattern name is a binary feature: 1 if one of its patterns occurs in the 
+ * text, 0 otherwise.
+ * 
  * @author Gully Burns
  * 
  */
 public class AlleleMutantPatternAnnotator extends CategorizedFtdAnnotator {
 
+	/**
+	 * Patterns counted when no patternDictionary is set.
+	 */
+	public static final String DEFAULT_PATTERN_DICTIONARY = 
+			"edu/isi/bmkeg/skm/triage/cleartk/annotators/mgi/allelePatterns.txt";
+
 	private CleartkExtractor<DocumentAnnotation, Token> extractor;
 	
-	Map<String,Pattern> pattHash = new HashMap<String,Pattern>();
-
 	public void initialize(UimaContext context)
 			throws ResourceInitializationException {
 		super.initialize(context);
 
-		pattHash.put("gentoype_allele_pattern", Pattern.compile("[\\+\\-]_{0,1}\\/_{0,1}[\\-\\+]") );		
-		pattHash.put("mouseMiceMurine_pattern", Pattern.compile("[mM](ice|ouse|urine)") );		
+		if (this.patternMatcher == null) {
+			try {
+				this.patternMatcher = MultiPatternMatcher.open(DEFAULT_PATTERN_DICTIONARY);
+			} catch (IOException e) {
+				throw new ResourceInitializationException(e);
+			}
+		}
 
 		//
 		// Create an extractor that counts 3-grams
@@ -80,43 +92,22 @@ public class AlleleMutantPatternAnnotator extends CategorizedFtdAnnotator {
 	public void process(JCas jCas) throws AnalysisEngineProcessException {
 		
 		//
-		// use the extractor to count number of genotype allele combinations in document
+		// the bigrams of the document, and whether genotype allele 
+		// combinations (and other patterns) are found in one scan of its text
 		//
 		DocumentAnnotation doc = (DocumentAnnotation) jCas
 				.getDocumentAnnotationFs();
 		List<Feature> features = this.extractor.extract(jCas, doc);
-		List<Feature> f2 = this.extractor.extract(jCas, doc);
-		
-		for(String key : pattHash.keySet()) {
-			Pattern patt = pattHash.get(key);
-			boolean goFlag = false;
-			
-			Map<String, Integer> geneotypeFeature = new HashMap<String, Integer>();
-			LOOP: for( Feature f : features ) {
-				String fKey = f.getName() + "_" + f.getValue();
-			
-				Matcher m = patt.matcher((CharSequence) f.getValue());
-				if( m.find() ) {
-					goFlag = true;
-					break LOOP;
-				}
-			}
-		
-			Feature f = new Feature();
-			f2.add(f);
-			f.setName(key);
-			if( goFlag ) {
-				f.setValue(1);
-			} else {
-				f.setValue(0);			
-			}
-		}	
+		int[] counts = this.patternMatcher.count(jCas.getDocumentText());
+		for (int i = 0; i < counts.length; i++)
+			features.add(new Feature(this.patternMatcher.getName(i), 
+					counts[i] > 0 ? 1 : 0));
 		
 		if (isTraining()) {
 			
 			// during training, get the label for this 
 			// document from the CAS
-			writeInstance(jCas, f2);
+			writeInstance(jCas, features);
 			
 		}
 
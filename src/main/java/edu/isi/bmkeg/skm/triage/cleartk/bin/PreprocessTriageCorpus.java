@@ -1,7 +1,11 @@
 package edu.isi.bmkeg.skm.triage.cleartk.bin;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+import org.apache.uima.analysis_engine.AnalysisEngineDescription;
 import org.apache.uima.collection.CollectionReader;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
 import org.cleartk.opennlp.tools.SentenceAnnotator;
@@ -11,11 +15,11 @@ import org.uimafit.factory.AggregateBuilder;
 import org.uimafit.factory.AnalysisEngineFactory;
 import org.uimafit.factory.CollectionReaderFactory;
 import org.uimafit.factory.TypeSystemDescriptionFactory;
-import org.uimafit.pipeline.SimplePipeline;
 
 import edu.isi.bmkeg.skm.triage.cleartk.annotators.SimpleOneLinePerDocWriter;
 import edu.isi.bmkeg.skm.triage.cleartk.cr.TriageScoreCollectionReader;
 import edu.isi.bmkeg.skm.triage.cleartk.utils.Options_ImplBase;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.ParallelPipelineRunner;
 
 public class PreprocessTriageCorpus {
 	
@@ -41,6 +45,18 @@ public class PreprocessTriageCorpus {
 		@Option(name = "-wd", usage = "Working Directory")
 		public File workingDirectory;
 
+		@Option(name = "-textCache", usage = "Directory of a persistent cache of document text")
+		public File textCache;
+
+		@Option(name = "-textExtractor", usage = "PMC XML to text conversion: xslt (default) or stax")
+		public String textExtractor;
+
+		@Option(name = "-stream", usage = "Stream documents from the database instead of buffering the whole query result")
+		public boolean streamResults = false;
+
+		@Option(name = "-threads", usage = "Number of threads sentences and tokens are found on")
+		public int threads = 1;
+
 	}
 
 	public static void main(String[] args) throws Exception {
@@ -52,15 +68,33 @@ public class PreprocessTriageCorpus {
 				.createTypeSystemDescription("uimaTypes.vpdmf-triage",
 						"edu.isi.bmkeg.skm.cleartk.TypeSystem");
 		
-		CollectionReader cr = CollectionReaderFactory.createCollectionReader(
-				TriageScoreCollectionReader.class, typeSystem, 
+		List<Object> readerParams = new ArrayList<Object>(Arrays.asList(
 				TriageScoreCollectionReader.TRIAGE_CORPUS_NAME, options.triageCorpus,
 				TriageScoreCollectionReader.TARGET_CORPUS_NAME, options.targetCorpus,
 				TriageScoreCollectionReader.LOGIN, options.login, 
 				TriageScoreCollectionReader.PASSWORD, options.password, 
 				TriageScoreCollectionReader.DB_URL, options.dbName,
 				TriageScoreCollectionReader.WORKING_DIRECTORY, options.workingDirectory,
-				TriageScoreCollectionReader.SKIP_UNKNOWNS, true);		
+				TriageScoreCollectionReader.SKIP_UNKNOWNS, true));
+		
+		if (options.textCache != null) {
+			readerParams.add(TriageScoreCollectionReader.TEXT_CACHE_DIRECTORY);
+			readerParams.add(options.textCache.getPath());
+		}
+		
+		if (options.textExtractor != null) {
+			readerParams.add(TriageScoreCollectionReader.TEXT_EXTRACTOR);
+			readerParams.add(options.textExtractor);
+		}
+		
+		if (options.streamResults) {
+			readerParams.add(TriageScoreCollectionReader.STREAM_RESULTS);
+			readerParams.add(true);
+		}
+		
+		CollectionReader cr = CollectionReaderFactory.createCollectionReader(
+				TriageScoreCollectionReader.class, typeSystem, 
+				readerParams.toArray());		
 
 	    AggregateBuilder builder = new AggregateBuilder();
 
@@ -87,15 +121,21 @@ public class PreprocessTriageCorpus {
 	    String dirPath = options.dir.getPath()  + "/baseDir/" 
 	    			+ targetCorpusName + "/" 
 	    			+ triageCorpusName;
-	    builder.add(AnalysisEngineFactory.createPrimitiveDescription(
+	    AnalysisEngineDescription writer = AnalysisEngineFactory.createPrimitiveDescription(
 	    		SimpleOneLinePerDocWriter.class,
-	    		SimpleOneLinePerDocWriter.PARAM_DIR_PATH, dirPath));
+	    		SimpleOneLinePerDocWriter.PARAM_DIR_PATH, dirPath);
 	    
 	    // ///////////////////////////////////////////
 	    // Run pipeline to create training data file
 	    // ///////////////////////////////////////////
 	    try {
-		    SimplePipeline.runPipeline(cr, builder.createAggregateDescription());	    	
+	    	// sentences and tokens on several threads, the output is
+	    	// written in reader order
+	    	ParallelPipelineRunner pipeline = new ParallelPipelineRunner(cr,
+	    			options.threads);
+	    	pipeline.add(builder.createAggregateDescription());
+	    	pipeline.add(writer);
+	    	pipeline.run();
 	    } catch (Exception e) {
 	    	e.printStackTrace();
 	    }
@@ -2,6 +2,7 @@ package edu.isi.bmkeg.skm.triage.cleartk.bin;
 
 import java.io.File;
 
+import org.apache.uima.analysis_engine.AnalysisEngineDescription;
 import org.apache.uima.collection.CollectionReader;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
 import org.cleartk.opennlp.tools.SentenceAnnotator;
@@ -11,11 +12,11 @@ import org.uimafit.factory.AggregateBuilder;
 import org.uimafit.factory.AnalysisEngineFactory;
 import org.uimafit.factory.CollectionReaderFactory;
 import org.uimafit.factory.TypeSystemDescriptionFactory;
-import org.uimafit.pipeline.SimplePipeline;
 
 import edu.isi.bmkeg.skm.triage.cleartk.annotators.EvaluationPreparer;
 import edu.isi.bmkeg.skm.triage.cleartk.cr.filteredLineReader.UnfilteredLineReader;
 import edu.isi.bmkeg.skm.triage.cleartk.utils.Options_ImplBase;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.ParallelPipelineRunner;
 
 public class SetUpClassificationExperiment {
 
@@ -36,6 +37,9 @@ public class SetUpClassificationExperiment {
 		@Option(name = "-baseData", required = true, usage = "Base Data Directory")
 		public File baseData;
 
+		@Option(name = "-threads", usage = "Number of threads sentences and tokens are found on")
+		public int threads = 1;
+
 	}
 
 	public static void main(String[] args) throws Exception {
@@ -79,18 +83,24 @@ public class SetUpClassificationExperiment {
 //	    builder.add(DefaultSnowballStemmer.getDescription("English")); // Stemming
 
 	    // The simple document classification annotator
-	    builder.add(AnalysisEngineFactory.createPrimitiveDescription(
+	    AnalysisEngineDescription writer = AnalysisEngineFactory.createPrimitiveDescription(
 	    		EvaluationPreparer.class,
 	    		EvaluationPreparer.PARAM_TRIAGE_CORPUS_NAME, options.triageCorpus,
 	    		EvaluationPreparer.PARAM_TARGET_CORPUS_NAME, options.targetCorpus,
 	    		EvaluationPreparer.PARAM_P_HOLDOUT, options.prop,
-	    		EvaluationPreparer.PARAM_TOP_DIR_PATH, options.dir.getPath() + "/data"));
+	    		EvaluationPreparer.PARAM_TOP_DIR_PATH, options.dir.getPath() + "/data");
 	    
 	    // ///////////////////////////////////////////
 	    // Run pipeline to create training data file
 	    // ///////////////////////////////////////////
 	    try {
-		    SimplePipeline.runPipeline(cr, builder.createAggregateDescription());	    	
+	    	// sentences and tokens on several threads, the output is
+	    	// written in reader order
+	    	ParallelPipelineRunner pipeline = new ParallelPipelineRunner(cr,
+	    			options.threads);
+	    	pipeline.add(builder.createAggregateDescription());
+	    	pipeline.add(writer);
+	    	pipeline.run();
 	    } catch (Exception e) {
 	    	e.printStackTrace();
 	    }
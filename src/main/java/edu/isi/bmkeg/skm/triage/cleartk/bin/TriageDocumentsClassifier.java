@@ -1,12 +1,25 @@
 package edu.isi.bmkeg.skm.triage.cleartk.bin;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Properties;
 
-import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.UIMAFramework;
+import org.apache.uima.analysis_engine.AnalysisEngineDescription;
 import org.apache.uima.collection.CollectionReader;
+import org.apache.uima.collection.CollectionReaderDescription;
 import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.ExternalResourceDescription;
+import org.apache.uima.resource.ResourceManager;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
 import org.apache.uima.util.Progress;
 import org.cleartk.ml.CleartkAnnotator;
@@ -14,29 +27,38 @@ import org.cleartk.ml.jar.DefaultDataWriterFactory;
 import org.cleartk.ml.jar.DirectoryDataWriterFactory;
 import org.cleartk.ml.jar.GenericJarClassifierFactory;
 import org.cleartk.ml.jar.JarClassifierBuilder;
-import org.cleartk.opennlp.tools.SentenceAnnotator;
-import org.cleartk.snowball.DefaultSnowballStemmer;
-import org.cleartk.token.tokenizer.TokenAnnotator;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 import org.springframework.flex.messaging.MessageTemplate;
 import org.uimafit.factory.AggregateBuilder;
 import org.uimafit.factory.AnalysisEngineFactory;
 import org.uimafit.factory.CollectionReaderFactory;
+import org.uimafit.factory.ExternalResourceFactory;
 import org.uimafit.factory.TypeSystemDescriptionFactory;
-import org.uimafit.pipeline.JCasIterable;
 import org.uimafit.util.JCasUtil;
 
 import edu.isi.bmkeg.digitalLibrary.model.citations.Corpus;
 import edu.isi.bmkeg.digitalLibrary.model.qo.citations.Corpus_qo;
 import edu.isi.bmkeg.skm.cleartk.type.CatorgorizedFtdText;
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.CategorizedFtdAnnotator;
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.HashedUni_and_BigramCountAnnotator;
 import edu.isi.bmkeg.skm.triage.cleartk.annotators.SaveFeaturesToDbAnnotator;
 import edu.isi.bmkeg.skm.triage.cleartk.annotators.TriageDocumentGoldDocumentCategoryAnnotator;
 import edu.isi.bmkeg.skm.triage.cleartk.annotators.Uni_and_BigramCountAnnotator;
 import edu.isi.bmkeg.skm.triage.cleartk.cr.TriageScoreCollectionReader;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.LinearSvmScorer;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.NgramVocabulary;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.ParallelPipelineRunner;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.RunCheckpoint;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.TriagePipelines;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.TriageScoreExplainer;
 import edu.isi.bmkeg.skm.triage.controller.TriageEngine;
+import edu.isi.bmkeg.skm.triage.dao.vpdmf.JdbcConnectionFactory;
+import edu.isi.bmkeg.skm.triage.dao.vpdmf.TriageScoreBatchWriter;
+import edu.isi.bmkeg.skm.triage.dao.vpdmf.TriageSession;
 import edu.isi.bmkeg.triage.model.TriageClassificationModel;
 import edu.isi.bmkeg.triage.model.TriageCorpus;
+import edu.isi.bmkeg.triage.model.TriageFeature;
 import edu.isi.bmkeg.triage.model.qo.TriageClassificationModel_qo;
 import edu.isi.bmkeg.triage.model.qo.TriageCorpus_qo;
 import edu.isi.bmkeg.triage.uimaTypes.TriageScore;
@@ -72,6 +94,60 @@ public class TriageDocumentsClassifier {
 		
 		@Option(name = "-wd", usage = "Working directory", required = true, metaVar  = "WDIR")
 		public String workingDirectory = "";
+
+		@Option(name = "-textCache", usage = "Directory of a persistent cache of document text", required = false, metaVar  = "DIR")
+		public String textCacheDirectory;
+
+		@Option(name = "-textExtractor", usage = "PMC XML to text conversion: xslt (default) or stax", required = false, metaVar  = "METHOD")
+		public String textExtractor;
+
+		@Option(name = "-stream", usage = "If present, stream documents from the database instead of buffering the whole query result")
+		public boolean streamResults = false;
+
+		@Option(name = "-shardIndex", usage = "With -predict, only score the documents of this shard (0 to shardCount-1)", required = false, metaVar  = "INDEX")
+		public int shardIndex = 0;
+
+		@Option(name = "-shardCount", usage = "With -predict, number of shards the target corpus is split into (by citation id)", required = false, metaVar  = "COUNT")
+		public int shardCount = 1;
+
+		@Option(name = "-scoreBatchSize", usage = "With -predict, number of scores written to the database per batch. If 0, each score is written as it is computed.", required = false, metaVar  = "SIZE")
+		public int scoreBatchSize = 500;
+
+		@Option(name = "-scoreFlushMs", usage = "With -predict, maximum time in ms a computed score waits before being written", required = false, metaVar  = "MS")
+		public long scoreFlushMs = 5000;
+
+		@Option(name = "-commitEvery", usage = "With -predict, commit and checkpoint progress every N documents. If 0, commit once at the end.", required = false, metaVar  = "N")
+		public int commitEvery = 1000;
+
+		@Option(name = "-resume", usage = "With -predict, resume an interrupted run from its checkpoint in the model directory")
+		public boolean resume = false;
+
+		@Option(name = "-incremental", usage = "With -predict, only score documents that were never scored, were scored with an older model or whose full text changed since they were scored")
+		public boolean incremental = false;
+
+		@Option(name = "-linearScoring", usage = "With -predict, score documents with the collapsed linear model (model.linear) instead of libsvm")
+		public boolean linearScoring = false;
+
+		@Option(name = "-hashBits", usage = "With -train, hash unigrams and bigrams into 2^N features instead of building a vocabulary (N at most 24). Prediction uses the setting the model was trained with.", required = false, metaVar = "N")
+		public int hashBits = 0;
+
+		@Option(name = "-vocabulary", usage = "With -train, count n-grams by id in a vocabulary stored next to the model instead of by feature name. Prediction uses the setting the model was trained with.")
+		public boolean vocabulary = false;
+
+		@Option(name = "-fastTokenizer", usage = "With -train and -hashBits or -vocabulary, tokenize the sentences with the FastTokenizer, which finds the same tokens, instead of TokenAnnotator. Prediction uses the setting the model was trained with.")
+		public boolean fastTokenizer = false;
+
+		@Option(name = "-verifyTokenizer", usage = "With a fast tokenizer model, also run TokenAnnotator and fail on the first document where the tokens differ")
+		public boolean verifyTokenizer = false;
+
+		@Option(name = "-patternDictionary", usage = "With -train, also count the patterns of this dictionary (a file or classpath resource, see MultiPatternMatcher) in the text. Prediction uses the setting the model was trained with.", required = false, metaVar = "FILE")
+		public String patternDictionary;
+
+		@Option(name = "-explainScore", usage = "Instead of -train or -predict, print the explanation features of this TriageScore computed with the trained model. Requires -triageCorpus.", required = false, metaVar = "ID")
+		public long explainScore = -1;
+
+		@Option(name = "-threads", usage = "Number of threads documents are preprocessed (and, with -predict, classified) on", required = false, metaVar = "N")
+		public int threads = 1;
 	}
 
 	public static enum AnnotatorMode {
@@ -81,6 +157,15 @@ public class TriageDocumentsClassifier {
 	public static String DATA_WRITER_NAME =  "org.cleartk.ml.libsvm.LibSvmBooleanOutcomeDataWriter";
 	public static String[] TRAINING_ARGS = new String[] { "-t", "0" };
 
+	/**
+	 * Feature extraction settings of the model, stored next to model.jar.
+	 */
+	public static String FEATURES_FILE = "features.properties";
+	public static String HASH_BITS = "hashBits";
+	public static String VOCABULARY = "vocabulary";
+	public static String FAST_TOKENIZER = "fastTokenizer";
+	public static String PATTERN_DICTIONARY = "patternDictionary";
+
 	public String triageCorpus;
 	public String targetCorpus;
 	public File modelDir;
@@ -88,10 +173,41 @@ public class TriageDocumentsClassifier {
 	public String password;
 	public String dbName;
 	public String workingDirectory;
+	public String textCacheDirectory;
+	public String textExtractor;
+	public boolean streamResults = false;
+	public int shardIndex = 0;
+	public int shardCount = 1;
+	public int scoreBatchSize = 500;
+	public long scoreFlushMs = 5000;
+	public int commitEvery = 1000;
+	public boolean resume = false;
+	public boolean incremental = false;
+	public boolean linearScoring = false;
+	public int hashBits = 0;
+	public boolean vocabulary = false;
+	public boolean fastTokenizer = false;
+	public boolean verifyTokenizer = false;
+	public String patternDictionary;
+	public int threads = 1;
+
+	/**
+	 * Number of explanation features computed per document when they are 
+	 * derived from the model.
+	 */
+	public int explanationSize = 10;
 
 	private TriageEngine te;
 	private CollectionReader cr;
 
+	/**
+	 * Resources of the pipeline being run: the reader and the aggregate are
+	 * created with the same ResourceManager so that they share the 
+	 * TriageEngine described by engineResource.
+	 */
+	private ResourceManager resourceManager;
+	private ExternalResourceDescription engineResource;
+
 	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
 	// For use in a web-application context
 	//
@@ -135,6 +251,11 @@ public class TriageDocumentsClassifier {
 
 	}
 
+	/**
+	 * Saves the explanation features of every document of the target corpus
+	 * to the database, to precompute them in bulk (see createExplainer() to
+	 * compute them on demand).
+	 */
 	public void extractFeatures() throws Exception {
 
 		TypeSystemDescription typeSystem = TypeSystemDescriptionFactory
@@ -142,40 +263,79 @@ public class TriageDocumentsClassifier {
 						"edu.isi.bmkeg.skm.cleartk.TypeSystem");
 
 		//
-		// read the text from the database
+		// once a model is trained, the explanation features are the ones
+		// that weigh most on the documents' scores. They are computed with
+		// the model's weights, so other models fall back to word counts.
 		//
-		CollectionReader cr = CollectionReaderFactory.createCollectionReader(
-				TriageScoreCollectionReader.class, typeSystem,
+		File classifierJarPath = new File(modelDir, "model.jar");
+		boolean fromModel = classifierJarPath.exists();
+		if (fromModel && !this.isLinearModel()) {
+			System.out.println("Not a linear libsvm model, saving word counts "
+					+ "as explanation features instead: " + classifierJarPath);
+			fromModel = false;
+		}
+
+		RunCheckpoint checkpoint = this.openCheckpoint("extract",
+				fromModel ? "model.jar@" + classifierJarPath.lastModified()
+						: "features");
+
+		//
+		// read the text from the database, sharing one TriageEngine
+		// with the annotators
+		//
+		this.createPipelineResources();
+		CollectionReader cr = this.createCollectionReader(typeSystem,
 				TriageScoreCollectionReader.TARGET_CORPUS_NAME, targetCorpus,
-				TriageScoreCollectionReader.LOGIN, login,
-				TriageScoreCollectionReader.PASSWORD, password,
-				TriageScoreCollectionReader.DB_URL, dbName);
+				TriageScoreCollectionReader.START_AFTER_CITATION_ID,
+				Long.toString(checkpoint.getLastCitationId()));
 
 		AggregateBuilder builder = new AggregateBuilder();
 
 		//
-		// generic preprocessing steps
+		// the model's preprocessing and feature extractor; the word counts
+		// saved without a model need no preprocessing.
 		//
-		builder.add(SentenceAnnotator.getDescription());
-		builder.add(TokenAnnotator.getDescription());
-		builder.add(DefaultSnowballStemmer.getDescription("English"));
+		if (fromModel) {
+			Properties featureSettings = this.readFeatureSettings();
+			this.addFeaturePreprocessing(builder, featureSettings);
+			builder.add(this.createExplanationExtractor(featureSettings));
+		}
 
 		//
 		// saving explanation features to database
 		//
-		builder.add(AnalysisEngineFactory.createPrimitiveDescription(
-				SaveFeaturesToDbAnnotator.class,
-				SaveFeaturesToDbAnnotator.PARAM_VPDMf_LOGIN, login,
-				SaveFeaturesToDbAnnotator.PARAM_VPDMf_PASSWORD, password,
-				SaveFeaturesToDbAnnotator.PARAM_VPDMf_DBNAME, dbName,
-				SaveFeaturesToDbAnnotator.PARAM_VPDMf_WORKINGDIR, workingDirectory));
+		AnalysisEngineDescription saveFeatures = AnalysisEngineFactory
+				.createPrimitiveDescription(SaveFeaturesToDbAnnotator.class,
+						SaveFeaturesToDbAnnotator.PARAM_COMMIT_EVERY, commitEvery);
+		ExternalResourceFactory.bindResource(saveFeatures,
+				TriageEngine.RESOURCE_KEY, this.engineResource);
 
 		//
-		// generate description
+		// generate the pipeline: preprocessing may run on several threads,
+		// features are saved in reader order.
 		//
-		AnalysisEngine ae = builder.createAggregate();
+		ParallelPipelineRunner pipeline = fromModel ? this.createPipeline(cr,
+				builder.createAggregateDescription(), saveFeatures) 
+				: this.createPipeline(cr, saveFeatures);
+
+		long processed = checkpoint.getProcessed();
+		int sinceCommit = 0;
+
+		for (JCas jCas : pipeline) {
+
+			//
+			// SaveFeaturesToDbAnnotator commits every commitEvery documents,
+			// so this document has just been committed if sinceCommit
+			// reaches commitEvery.
+			//
+			TriageScore ts = JCasUtil.selectSingle(jCas, TriageScore.class);
+			processed++;
+			sinceCommit++;
+			if (this.commitEvery > 0 && sinceCommit >= this.commitEvery) {
+				checkpoint.save(ts.getCitation_id(), processed);
+				sinceCommit = 0;
+			}
 
-		for (JCas jCas : new JCasIterable(cr, ae)) {
 			if (this.msgTemplate != null) {
 				Progress[] pStack = cr.getProgress();
 				Progress p = pStack[pStack.length - 1];
@@ -183,7 +343,7 @@ public class TriageDocumentsClassifier {
 						+ p.getCompleted());
 			}
 		}
-		ae.collectionProcessComplete();
+		checkpoint.delete();
 
 	}
 
@@ -194,26 +354,23 @@ public class TriageDocumentsClassifier {
 						"edu.isi.bmkeg.skm.cleartk.TypeSystem");
 
 		//
-		// read the text from the database
+		// read the text from the database, sharing one TriageEngine
+		// with the annotators
 		//
-		CollectionReader cr = CollectionReaderFactory.createCollectionReader(
-				TriageScoreCollectionReader.class, typeSystem,
+		this.createPipelineResources();
+		CollectionReader cr = this.createCollectionReader(typeSystem,
 				TriageScoreCollectionReader.TRIAGE_CORPUS_NAME, triageCorpus,
 				TriageScoreCollectionReader.TARGET_CORPUS_NAME, targetCorpus,
-				TriageScoreCollectionReader.SKIP_UNKNOWNS, true,
-				TriageScoreCollectionReader.LOGIN, login,
-				TriageScoreCollectionReader.PASSWORD, password,
-				TriageScoreCollectionReader.DB_URL, dbName,
-				TriageScoreCollectionReader.WORKING_DIRECTORY, this.workingDirectory);
+				TriageScoreCollectionReader.SKIP_UNKNOWNS, true);
 
 		AggregateBuilder builder = new AggregateBuilder();
 
+		Properties featureSettings = this.writeFeatureSettings();
+
 		//
-		// generic preprocessing steps
+		// preprocessing needed by the feature annotator
 		//
-		builder.add(SentenceAnnotator.getDescription());
-		builder.add(TokenAnnotator.getDescription());
-		builder.add(DefaultSnowballStemmer.getDescription("English"));
+		this.addFeaturePreprocessing(builder, featureSettings);
 
 		//
 		// preprocessing to generate gold standards.
@@ -224,31 +381,40 @@ public class TriageDocumentsClassifier {
 		//
 		// feature extraction
 		//
-		builder.add(AnalysisEngineFactory.createPrimitiveDescription(
-				Uni_and_BigramCountAnnotator.class,
+		AnalysisEngineDescription extractor = this.createFeatureExtractor(
+				featureSettings,
 				CleartkAnnotator.PARAM_IS_TRAINING, true,
 				DefaultDataWriterFactory.PARAM_DATA_WRITER_CLASS_NAME,
 				DATA_WRITER_NAME,
-				DirectoryDataWriterFactory.PARAM_OUTPUT_DIRECTORY, modelDir));
+				DirectoryDataWriterFactory.PARAM_OUTPUT_DIRECTORY, modelDir);
 
 		//
-		// generate description
+		// generate the pipeline: training data is written in reader order
 		//
-		AnalysisEngine ae = builder.createAggregate();
+		ParallelPipelineRunner pipeline = this.createPipeline(cr,
+				builder.createAggregateDescription(), extractor);
 
-		for (JCas jCas : new JCasIterable(cr, ae)) {
+		for (JCas jCas : pipeline) {
 			if (this.msgTemplate != null) {
 				Progress[] pStack = cr.getProgress();
 				Progress p = pStack[pStack.length - 1];
 				this.msgTemplate.send("serverUpdates", p.toString());
 			}
 		}
-		ae.collectionProcessComplete();
 
 		// HideOutput hider = new HideOutput();
 		JarClassifierBuilder.trainAndPackage(modelDir, TRAINING_ARGS);
 		// hider.restoreOutput();
 
+		// Collapse the linear model into a single weight vector
+		// for -linearScoring.
+		try {
+			LinearSvmScorer.compile(modelDir);
+		} catch (Exception e) {
+			System.out.println("Could not collapse the linear model: "
+					+ e.getMessage());
+		}
+
 		// Finally, generate a TriageClassificationModel view
 		// and insert it into the database.
 		try {
@@ -281,48 +447,95 @@ public class TriageDocumentsClassifier {
 						"edu.isi.bmkeg.skm.cleartk.TypeSystem");
 
 		//
-		// read the text from the database
+		// the model is identified by the modification time of its jar,
+		// which changes every time it is retrained.
+		//
+		File classifierJarPath = new File(modelDir, "model.jar");
+		RunCheckpoint checkpoint = this.openCheckpoint("predict",
+				"model.jar@" + classifierJarPath.lastModified());
+
+		//
+		// in incremental mode, scores computed before the current
+		// TriageClassificationModel was created are stale.
 		//
-		CollectionReader cr = CollectionReaderFactory.createCollectionReader(
-				TriageScoreCollectionReader.class, typeSystem,
+		String modelCreated = "";
+		if (this.incremental) {
+			Date whenCreated = this.findModelCreationDate();
+			if (whenCreated != null)
+				modelCreated = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss")
+						.format(whenCreated);
+			else
+				System.out.println("No TriageClassificationModel found, "
+						+ "only unscored or changed documents will be scored.");
+		}
+
+		//
+		// read the text from the database, sharing one TriageEngine
+		// with the annotators
+		//
+		this.createPipelineResources();
+		CollectionReader cr = this.createCollectionReader(typeSystem,
+				TriageScoreCollectionReader.INCREMENTAL, this.incremental,
+				TriageScoreCollectionReader.MODEL_CREATED, modelCreated,
 				TriageScoreCollectionReader.TRIAGE_CORPUS_NAME, triageCorpus,
 				TriageScoreCollectionReader.TARGET_CORPUS_NAME, targetCorpus,
-				TriageScoreCollectionReader.LOGIN, login,
-				TriageScoreCollectionReader.PASSWORD, password,
-				TriageScoreCollectionReader.DB_URL, dbName,
-				TriageScoreCollectionReader.WORKING_DIRECTORY, this.workingDirectory);
+				TriageScoreCollectionReader.START_AFTER_CITATION_ID,
+				Long.toString(checkpoint.getLastCitationId()));
 
 		AggregateBuilder builder = new AggregateBuilder();
 
+		Properties featureSettings = this.readFeatureSettings();
+
 		//
-		// generic preprocessing steps
+		// preprocessing needed by the feature annotator
 		//
-		builder.add(SentenceAnnotator.getDescription());
-		builder.add(TokenAnnotator.getDescription());
-		builder.add(DefaultSnowballStemmer.getDescription("English"));
+		this.addFeaturePreprocessing(builder, featureSettings);
 
 		//
 		// feature extraction
 		//
-		File classifierJarPath = new File(modelDir, "model.jar");
-		builder.add(AnalysisEngineFactory.createPrimitiveDescription(
-				Uni_and_BigramCountAnnotator.class,
+		AnalysisEngineDescription extractor = this.createFeatureExtractor(
+				featureSettings,
 				CleartkAnnotator.PARAM_IS_TRAINING, false,
-				GenericJarClassifierFactory.PARAM_CLASSIFIER_JAR_PATH, classifierJarPath));
+				GenericJarClassifierFactory.PARAM_CLASSIFIER_JAR_PATH, classifierJarPath,
+				CategorizedFtdAnnotator.PARAM_LINEAR_SCORING, this.linearScoring);
 
 		//
-		// generate description
+		// generate the pipeline: documents are classified on several
+		// threads and come out in reader order for the checkpoints.
 		//
-		AnalysisEngine ae = builder.createAggregate();
+		ParallelPipelineRunner pipeline = this.createPipeline(cr,
+				builder.createAggregateDescription(), extractor);
 
 		Date timestamp = new Date();
 
+		//
+		// scores are written back in batches on a background thread
+		// unless scoreBatchSize is 0, in which case each score is written
+		// as it comes on a pooled session.
+		//
+		TriageScoreBatchWriter scoreWriter = null;
+		TriageSession session = null;
+		if (this.scoreBatchSize > 0) {
+			scoreWriter = new TriageScoreBatchWriter(
+					new JdbcConnectionFactory(login, password, dbName),
+					this.scoreBatchSize, this.scoreFlushMs,
+					4 * this.scoreBatchSize);
+		} else {
+			this.te.initializeConnectionPool(login, password, dbName, 1);
+		}
+
 		try {
 
-			this.te.getDigLibDao().getCoreDao().getCe().connectToDB();
-			this.te.getDigLibDao().getCoreDao().getCe().turnOffAutoCommit();
+			if (scoreWriter != null)
+				scoreWriter.start();
+			else
+				session = this.te.openSession();
+
+			long processed = checkpoint.getProcessed();
+			int sinceCommit = 0;
 
-			for (JCas jCas : new JCasIterable(cr, ae)) {
+			for (JCas jCas : pipeline) {
 
 				CatorgorizedFtdText document = JCasUtil.selectSingle(jCas,
 						CatorgorizedFtdText.class);
@@ -330,7 +543,25 @@ public class TriageDocumentsClassifier {
 				TriageScore ts = JCasUtil.selectSingle(jCas, TriageScore.class);
 				long tsId = ts.getVpdmfId();
 
-				te.updateInScore(tsId, document.getInScore(), timestamp);
+				if (scoreWriter != null)
+					scoreWriter.add(tsId, document.getInScore(), timestamp);
+				else if (!session.updateInScore(tsId, document.getInScore(), timestamp))
+					System.out.println("Failed to find TriagedDocument with id:" + tsId);
+
+				//
+				// commit what has been scored so far and record
+				// the last citation in the checkpoint.
+				//
+				processed++;
+				sinceCommit++;
+				if (this.commitEvery > 0 && sinceCommit >= this.commitEvery) {
+					if (scoreWriter != null)
+						scoreWriter.flush();
+					else
+						session.commit();
+					checkpoint.save(ts.getCitation_id(), processed);
+					sinceCommit = 0;
+				}
 
 				// send messages to Flex.
 				if (this.msgTemplate != null) {
@@ -341,20 +572,379 @@ public class TriageDocumentsClassifier {
 
 			}
 
-			ae.collectionProcessComplete();
-			
-			this.te.getDigLibDao().getCoreDao().getCe().commitTransaction();
+			if (scoreWriter != null) {
+				scoreWriter.close();
+				System.out.println("Wrote " + scoreWriter.getWritten() + " scores.");
+			} else {
+				session.commit();
+			}
+
+			checkpoint.delete();
 			
 		} catch (Exception e) {
 
-			e.printStackTrace();
-			this.te.getDigLibDao().getCoreDao().getCe().rollbackTransaction();
+			if (session != null)
+				session.rollback();
+
+			if (checkpoint.getLastCitationId() >= 0)
+				System.out.println("Scores were committed up to citation "
+						+ checkpoint.getLastCitationId()
+						+ ", rerun with -resume to continue.");
+
+			throw e;
 
 		} finally {
 
-			this.te.getDigLibDao().getCoreDao().getCe().closeDbConnection();
+			//
+			// the writer is closed once every score is computed; if the run
+			// failed, the scores queued since the last checkpoint are dropped.
+			//
+			try {
+				if (scoreWriter != null)
+					scoreWriter.abort();
+				if (session != null)
+					session.close();
+			} finally {
+				this.te.closeConnectionPool();
+			}
+
+		}
+
+	}
+
+	/**
+	 * Creates an explainer that computes the explanation features of single
+	 * scores of the target corpus with the trained model, when they are
+	 * asked for. It replaces extractFeatures() where explanations are only
+	 * needed for the few documents curators look at.
+	 */
+	public TriageScoreExplainer createExplainer(int cacheSize)
+			throws Exception {
+
+		if (!this.isLinearModel())
+			throw new Exception("Explanations need a linear libsvm model in "
+					+ modelDir);
+
+		TypeSystemDescription typeSystem = TypeSystemDescriptionFactory
+				.createTypeSystemDescription("uimaTypes.vpdmf-triage",
+						"edu.isi.bmkeg.skm.cleartk.TypeSystem");
+
+		this.createPipelineResources();
+		CollectionReaderDescription readerDesc = this
+				.createCollectionReaderDescription(typeSystem,
+						TriageScoreCollectionReader.TARGET_CORPUS_NAME,
+						targetCorpus);
+
+		Properties featureSettings = this.readFeatureSettings();
+		AggregateBuilder builder = new AggregateBuilder();
+		this.addFeaturePreprocessing(builder, featureSettings);
+		builder.add(this.createExplanationExtractor(featureSettings));
+
+		return new TriageScoreExplainer(readerDesc,
+				builder.createAggregateDescription(), this.resourceManager,
+				new File(modelDir, "model.jar"), cacheSize);
+
+	}
+
+	/**
+	 * Explains a score of the target corpus with the trained model and
+	 * prints its explanation features.
+	 */
+	public void explain(long scoreId) throws Exception {
 
+		TriageScoreExplainer explainer = this.createExplainer(1);
+		try {
+
+			List<TriageFeature> features = explainer.explain(scoreId);
+			System.out.println("Explanation of TriageScore " + scoreId + ": "
+					+ features.size() + " features");
+			for (TriageFeature tf : features)
+				System.out.println(tf.getFeatName() + "\t" + tf.getFeatValue());
+
+		} finally {
+			explainer.destroy();
+		}
+
+	}
+
+	/**
+	 * Returns true if model.jar holds a linear libsvm model, which the
+	 * explanation features are computed with (see LinearSvmScorer).
+	 */
+	private boolean isLinearModel() {
+		try {
+			LinearSvmScorer.load(modelDir);
+			return true;
+		} catch (Exception e) {
+			return false;
 		}
+	}
+
+	/**
+	 * Creates the model's feature extractor, set to classify the documents
+	 * and annotate their explanation features.
+	 */
+	private AnalysisEngineDescription createExplanationExtractor(
+			Properties featureSettings) throws Exception {
+		return this.createFeatureExtractor(featureSettings,
+				CleartkAnnotator.PARAM_IS_TRAINING, false,
+				GenericJarClassifierFactory.PARAM_CLASSIFIER_JAR_PATH,
+				new File(modelDir, "model.jar"),
+				CategorizedFtdAnnotator.PARAM_LINEAR_SCORING, true,
+				CategorizedFtdAnnotator.PARAM_EXPLANATION_SIZE,
+				this.explanationSize);
+	}
+
+	/**
+	 * Returns the checkpoint of the given task ('predict' or 'extract'). If 
+	 * resume is set and a checkpoint written with the same model exists, it 
+	 * is returned so that the reader can skip the citations it covers; 
+	 * otherwise a fresh checkpoint is started.
+	 */
+	private RunCheckpoint openCheckpoint(String task, String modelId)
+			throws Exception {
+
+		String name = task;
+		if (this.shardCount > 1)
+			name += ".shard-" + this.shardIndex + "-of-" + this.shardCount;
+		File file = new File(modelDir, name + ".checkpoint");
+
+		RunCheckpoint checkpoint = null;
+		if (this.resume) {
+			checkpoint = RunCheckpoint.load(file);
+			if (checkpoint == null) {
+				System.out.println("No checkpoint found in " + file.getPath()
+						+ ", starting from the beginning.");
+			} else if (!modelId.equals(checkpoint.getModelId())) {
+				System.out.println("Checkpoint " + file.getPath()
+						+ " was written with another model, starting from the beginning.");
+				checkpoint = null;
+			} else {
+				System.out.println("Resuming " + checkpoint);
+			}
+		}
+
+		if (checkpoint == null)
+			checkpoint = new RunCheckpoint(file, modelId);
+
+		return checkpoint;
+
+	}
+
+	/**
+	 * The n-gram feature annotator used with the given settings.
+	 */
+	private Class<? extends CategorizedFtdAnnotator> getFeatureExtractorClass(
+			Properties featureSettings) {
+		if (Integer.parseInt(featureSettings.getProperty(HASH_BITS, "0")) > 0)
+			return HashedUni_and_BigramCountAnnotator.class;
+		return Uni_and_BigramCountAnnotator.class;
+	}
+
+	/**
+	 * Adds the preprocessing needed by the feature annotator, which is 
+	 * nothing more than the gold standard annotator's if it tokenizes the
+	 * text itself.
+	 */
+	private void addFeaturePreprocessing(AggregateBuilder builder,
+			Properties featureSettings) throws Exception {
+		boolean fast = Boolean.parseBoolean(featureSettings
+				.getProperty(FAST_TOKENIZER)) && !this.verifyTokenizer;
+		TriagePipelines.addPreprocessing(builder, fast,
+				this.getFeatureExtractorClass(featureSettings));
+	}
+
+	/**
+	 * Creates the n-gram feature extractor for the given settings: hashed 
+	 * n-grams if hashBits is set, n-grams counted by vocabulary id if 
+	 * vocabulary is set, and feature name strings otherwise. The counts of 
+	 * the patternDictionary's patterns are added if it is set.
+	 */
+	private AnalysisEngineDescription createFeatureExtractor(
+			Properties featureSettings, Object... params) throws Exception {
+
+		List<Object> allParams = new ArrayList<Object>(Arrays.asList(params));
+
+		if (Boolean.parseBoolean(featureSettings.getProperty(FAST_TOKENIZER))) {
+			allParams.add(CategorizedFtdAnnotator.PARAM_FAST_TOKENIZER);
+			allParams.add(true);
+			allParams.add(CategorizedFtdAnnotator.PARAM_VERIFY_TOKENIZER);
+			allParams.add(this.verifyTokenizer);
+		}
+
+		if (featureSettings.getProperty(PATTERN_DICTIONARY) != null) {
+			allParams.add(CategorizedFtdAnnotator.PARAM_PATTERN_DICTIONARY);
+			allParams.add(featureSettings.getProperty(PATTERN_DICTIONARY));
+		}
+
+		int hashBits = Integer.parseInt(featureSettings.getProperty(HASH_BITS, "0"));
+		if (hashBits > 0) {
+			allParams.add(HashedUni_and_BigramCountAnnotator.PARAM_HASH_BITS);
+			allParams.add(hashBits);
+			return AnalysisEngineFactory.createPrimitiveDescription(
+					this.getFeatureExtractorClass(featureSettings), 
+					allParams.toArray());
+		}
+
+		if (Boolean.parseBoolean(featureSettings.getProperty(VOCABULARY))) {
+			allParams.add(CategorizedFtdAnnotator.PARAM_VOCABULARY_FILE);
+			allParams.add(new File(modelDir, NgramVocabulary.VOCABULARY_FILE)
+					.getPath());
+		}
+
+		return AnalysisEngineFactory.createPrimitiveDescription(
+				this.getFeatureExtractorClass(featureSettings), 
+				allParams.toArray());
+
+	}
+
+	/**
+	 * Records the feature extraction settings of the model being trained, so
+	 * that predictions are made with the same features.
+	 */
+	private Properties writeFeatureSettings() throws IOException {
+
+		if (this.hashBits > 0 && this.vocabulary)
+			throw new IllegalArgumentException(
+					"-hashBits and -vocabulary can't be used together");
+		if (this.hashBits > HashedUni_and_BigramCountAnnotator.MAX_HASH_BITS)
+			throw new IllegalArgumentException("-hashBits can't be more than "
+					+ HashedUni_and_BigramCountAnnotator.MAX_HASH_BITS);
+		if (this.fastTokenizer && this.hashBits <= 0 && !this.vocabulary)
+			throw new IllegalArgumentException(
+					"-fastTokenizer needs -hashBits or -vocabulary");
+
+		Properties p = new Properties();
+		File file = new File(modelDir, FEATURES_FILE);
+		if (this.hashBits > 0)
+			p.setProperty(HASH_BITS, String.valueOf(this.hashBits));
+		if (this.vocabulary)
+			p.setProperty(VOCABULARY, "true");
+		if (this.fastTokenizer)
+			p.setProperty(FAST_TOKENIZER, "true");
+		if (this.patternDictionary != null && this.patternDictionary.length() > 0) {
+			File dictionary = new File(this.patternDictionary);
+			p.setProperty(PATTERN_DICTIONARY, dictionary.exists() ? 
+					dictionary.getAbsolutePath() : this.patternDictionary);
+		}
+
+		if (p.isEmpty()) {
+			file.delete();
+			return p;
+		}
+
+		OutputStream out = new FileOutputStream(file);
+		try {
+			p.store(out, "Feature extraction settings of model.jar");
+		} finally {
+			out.close();
+		}
+		return p;
+
+	}
+
+	/**
+	 * Returns the feature extraction settings the model was trained with 
+	 * (empty for the default feature name strings).
+	 */
+	private Properties readFeatureSettings() throws IOException {
+
+		Properties p = new Properties();
+		File file = new File(modelDir, FEATURES_FILE);
+		if (!file.exists())
+			return p;
+
+		InputStream in = new FileInputStream(file);
+		try {
+			p.load(in);
+		} finally {
+			in.close();
+		}
+		return p;
+
+	}
+
+	/**
+	 * Starts the resources of a new pipeline. The TriageEngine itself is only
+	 * loaded when the reader is created.
+	 */
+	private void createPipelineResources() throws Exception {
+
+		this.resourceManager = UIMAFramework.newDefaultResourceManager();
+		this.engineResource = TriageEngine.getResourceDescription(login,
+				password, dbName, workingDirectory,
+				TriageEngine.DEFAULT_POOL_SIZE);
+
+	}
+
+	/**
+	 * Creates the runner of the current pipeline on this.threads threads.
+	 */
+	private ParallelPipelineRunner createPipeline(CollectionReader cr,
+			AnalysisEngineDescription... stages) throws Exception {
+
+		ParallelPipelineRunner pipeline = new ParallelPipelineRunner(cr,
+				this.threads);
+		pipeline.setResourceManager(this.resourceManager);
+		for (AnalysisEngineDescription stage : stages)
+			pipeline.add(stage);
+		return pipeline;
+
+	}
+
+	/**
+	 * Creates the TriageScoreCollectionReader used by all modes, adding the
+	 * optional reader parameters that are set on this classifier and binding
+	 * the pipeline's TriageEngine.
+	 */
+	private CollectionReader createCollectionReader(
+			TypeSystemDescription typeSystem, Object... params)
+			throws Exception {
+
+		return UIMAFramework.produceCollectionReader(
+				this.createCollectionReaderDescription(typeSystem, params),
+				this.resourceManager, null);
+
+	}
+
+	private CollectionReaderDescription createCollectionReaderDescription(
+			TypeSystemDescription typeSystem, Object... params)
+			throws Exception {
+
+		List<Object> allParams = new ArrayList<Object>(Arrays.asList(params));
+		allParams.add(TriageScoreCollectionReader.WORKING_DIRECTORY);
+		allParams.add(this.workingDirectory);
+
+		if (this.textCacheDirectory != null
+				&& this.textCacheDirectory.length() > 0) {
+			allParams.add(TriageScoreCollectionReader.TEXT_CACHE_DIRECTORY);
+			allParams.add(this.textCacheDirectory);
+		}
+
+		if (this.textExtractor != null && this.textExtractor.length() > 0) {
+			allParams.add(TriageScoreCollectionReader.TEXT_EXTRACTOR);
+			allParams.add(this.textExtractor);
+		}
+
+		if (this.streamResults) {
+			allParams.add(TriageScoreCollectionReader.STREAM_RESULTS);
+			allParams.add(true);
+		}
+
+		if (this.shardCount > 1) {
+			allParams.add(TriageScoreCollectionReader.SHARD_INDEX);
+			allParams.add(this.shardIndex);
+			allParams.add(TriageScoreCollectionReader.SHARD_COUNT);
+			allParams.add(this.shardCount);
+		}
+
+		CollectionReaderDescription desc = CollectionReaderFactory
+				.createDescription(TriageScoreCollectionReader.class,
+						typeSystem, allParams.toArray());
+		ExternalResourceFactory.bindResource(desc, TriageEngine.RESOURCE_KEY,
+				this.engineResource);
+
+		return desc;
 
 	}
 
@@ -374,14 +964,37 @@ public class TriageDocumentsClassifier {
 				throw new Exception(errString);
 			}
 
-			if (!options.train && !options.predict) {
-				String errString = "One of -predict or -train should be specified.";
+			boolean explain = options.explainScore >= 0;
+
+			if (explain && (options.train || options.predict)) {
+				String errString = "-explainScore can't be used with -predict or -train.";
+				throw new Exception(errString);
+			}
+
+			if (!options.train && !options.predict && !explain) {
+				String errString = "One of -predict, -train or -explainScore should be specified.";
 				throw new Exception(errString);
 			}
 
 			if ((options.triageCorpus == null || options.triageCorpus.length() == 0)
-					&& options.predict) {
-				String errString = "-triageCorpus is required if -predict is used.";
+					&& (options.predict || explain)) {
+				String errString = "-triageCorpus is required if -predict or -explainScore is used.";
+				throw new Exception(errString);
+			}
+
+			if (options.shardCount > 1 && !options.predict) {
+				String errString = "-shardIndex and -shardCount can only be used with -predict.";
+				throw new Exception(errString);
+			}
+
+			if (options.shardCount < 1 || options.shardIndex < 0
+					|| options.shardIndex >= options.shardCount) {
+				String errString = "-shardIndex must be between 0 and -shardCount - 1.";
+				throw new Exception(errString);
+			}
+
+			if (options.scoreFlushMs <= 0) {
+				String errString = "-scoreFlushMs must be positive.";
 				throw new Exception(errString);
 			}
 
@@ -427,12 +1040,34 @@ public class TriageDocumentsClassifier {
 		TriageDocumentsClassifier cl = new TriageDocumentsClassifier(
 				triageCorpus, targetCorpus, modelDir, 
 				login, password, dbName, workingDirectory);
+		cl.textCacheDirectory = options.textCacheDirectory;
+		cl.textExtractor = options.textExtractor;
+		cl.streamResults = options.streamResults;
+		cl.shardIndex = options.shardIndex;
+		cl.shardCount = options.shardCount;
+		cl.scoreBatchSize = options.scoreBatchSize;
+		cl.scoreFlushMs = options.scoreFlushMs;
+		cl.commitEvery = options.commitEvery;
+		cl.resume = options.resume;
+		cl.incremental = options.incremental;
+		cl.linearScoring = options.linearScoring;
+		cl.hashBits = options.hashBits;
+		cl.vocabulary = options.vocabulary;
+		cl.fastTokenizer = options.fastTokenizer;
+		cl.verifyTokenizer = options.verifyTokenizer;
+		cl.patternDictionary = options.patternDictionary;
+		cl.threads = options.threads;
+
+		boolean failed = false;
 
 		try {
 
 			cl.te.getDigLibDao().getCoreDao().connectToDb();
 
-			cl.run(train);
+			if (options.explainScore >= 0)
+				cl.explain(options.explainScore);
+			else
+				cl.run(train);
 
 			cl.te.getDigLibDao().getCoreDao().commitTransaction();
 
@@ -440,6 +1075,7 @@ public class TriageDocumentsClassifier {
 
 			e.printStackTrace();
 			cl.te.getDigLibDao().getCoreDao().rollbackTransaction();
+			failed = true;
 
 		} finally {
 
@@ -447,6 +1083,9 @@ public class TriageDocumentsClassifier {
 
 		}
 
+		if (failed)
+			System.exit(-1);
+
 	}
 
 	public void run(boolean train) throws Exception {
@@ -487,6 +1126,48 @@ public class TriageDocumentsClassifier {
 
 	}
 
+	private String getTriageClassificationModelName() {
+
+		String tcmName = this.targetCorpus;
+		if (this.triageCorpus != null && this.triageCorpus.length() > 0)
+			tcmName += "__" + this.triageCorpus;
+		return tcmName;
+
+	}
+
+	/**
+	 * Returns the creation date of the TriageClassificationModel of this
+	 * classifier, or null if there is none.
+	 */
+	private Date findModelCreationDate() throws Exception {
+
+		try {
+
+			this.te.getDigLibDao().getCoreDao().getCe().connectToDB();
+
+			TriageClassificationModel_qo tcmQo = new TriageClassificationModel_qo();
+			tcmQo.setName(this.getTriageClassificationModelName());
+			List<LightViewInstance> lviList = this.te.getDigLibDao()
+					.getCoreDao().listInTrans(tcmQo, "TriageClassificationModel");
+			if (lviList.size() != 1)
+				return null;
+
+			TriageClassificationModel tcm = this.te
+					.getDigLibDao()
+					.getCoreDao()
+					.findByIdInTrans(lviList.get(0).getVpdmfId(),
+							new TriageClassificationModel(),
+							"TriageClassificationModel");
+			return tcm.getWhenCreated();
+
+		} finally {
+
+			this.te.getDigLibDao().getCoreDao().getCe().closeDbConnection();
+
+		}
+
+	}
+
 	/**
 	 * Generate a TriageClassificationModel view and insert it into the
 	 * database.
@@ -531,9 +1212,7 @@ public class TriageDocumentsClassifier {
 			throw new Exception("Target Corpus " + targetCorpus + "found");
 		}
 
-		String tcmName = this.targetCorpus;
-		if (this.triageCorpus != null && this.triageCorpus.length() > 0)
-			tcmName += "__" + this.triageCorpus;
+		String tcmName = this.getTriageClassificationModelName();
 
 		Date now = new Date();
 		TriageClassificationModel_qo tcmQo = new TriageClassificationModel_qo();
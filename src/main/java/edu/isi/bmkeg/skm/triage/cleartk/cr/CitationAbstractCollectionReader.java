@@ -2,6 +2,7 @@ package edu.isi.bmkeg.skm.triage.cleartk.cr;
 
 import java.io.IOException;
 import java.sql.ResultSet;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -33,6 +34,9 @@ import edu.isi.bmkeg.vpdmf.uimaTypes.ViewTable;
  * manual query over the underlying database involving a minimal subset of
  * tables.
  * 
+ * If SHARD_COUNT is set, only the citations whose id modulo SHARD_COUNT equals
+ * SHARD_INDEX are read.
+ * 
  * @author burns
  * 
  */
@@ -82,6 +86,20 @@ public class CitationAbstractCollectionReader extends CollectionReader_ImplBase
 	@ConfigurationParameter(mandatory = false, description = "The Digital Library URL")
 	protected String workingDirectory;
 	
+	public static final String SHARD_INDEX = ConfigurationParameterFactory
+			.createConfigurationParameterName(CitationAbstractCollectionReader.class,
+					"shardIndex");
+	@ConfigurationParameter(mandatory = false, description = "Index (from 0 to shardCount-1) of the " +
+			"shard of the corpus to be read")
+	protected int shardIndex = 0;
+
+	public static final String SHARD_COUNT = ConfigurationParameterFactory
+			.createConfigurationParameterName(CitationAbstractCollectionReader.class,
+					"shardCount");
+	@ConfigurationParameter(mandatory = false, description = "Number of disjoint shards the corpus " +
+			"is partitioned into (by citation id). If not specified, the whole corpus is read.")
+	protected int shardCount = 1;
+	
 	protected ResultSet rs;
 
 	protected long startTime, endTime;
@@ -98,6 +116,17 @@ public class CitationAbstractCollectionReader extends CollectionReader_ImplBase
 			String workingDirectory)
 			throws ResourceInitializationException {
 
+		return load(corpusName, login, password, dbName, workingDirectory, 0, 1);
+	
+	}
+
+	public static CollectionReader load(
+			String corpusName, String login,
+			String password, String dbName,
+			String workingDirectory, 
+			int shardIndex, int shardCount)
+			throws ResourceInitializationException {
+
 		TypeSystemDescription typeSystem = TypeSystemDescriptionFactory
 				.createTypeSystemDescription("uimaTypes.triage");
 		
@@ -107,7 +136,9 @@ public class CitationAbstractCollectionReader extends CollectionReader_ImplBase
 				LOGIN, login, 
 				PASSWORD, password, 
 				DB_URL, dbName, 
-				WORKING_DIRECTORY, workingDirectory);
+				WORKING_DIRECTORY, workingDirectory,
+				SHARD_INDEX, shardIndex,
+				SHARD_COUNT, shardCount);
 	
 	}
 	
@@ -122,9 +153,17 @@ public class CitationAbstractCollectionReader extends CollectionReader_ImplBase
 		password = (String) getConfigParameterValue(PASSWORD);
 		dbUrl = (String) getConfigParameterValue(DB_URL);
 		workingDirectory = (String) getConfigParameterValue(WORKING_DIRECTORY);
+		if( getConfigParameterValue(SHARD_INDEX) != null )
+			shardIndex = (Integer) getConfigParameterValue(SHARD_INDEX);
+		if( getConfigParameterValue(SHARD_COUNT) != null )
+			shardCount = (Integer) getConfigParameterValue(SHARD_COUNT);
 		
 		try {
 
+			if (shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount)
+				throw new IllegalArgumentException("Invalid shard " + shardIndex 
+						+ " of " + shardCount);
+
 			te = new TriageEngine();
 			te.initializeVpdmfDao(login, password, dbUrl, workingDirectory);
 			
@@ -132,10 +171,18 @@ public class CitationAbstractCollectionReader extends CollectionReader_ImplBase
 			Corpus_qo cQo = new Corpus_qo();
 			acQo.getCorpora().add(cQo);
 			cQo.setName(corpusName);	
-			this.count = te.getDigLibDao().countArticleCitation(acQo);
-
 			List<LightViewInstance> lviList = te.getDigLibDao().listArticleCitationDocument(acQo);
 			
+			if( shardCount > 1 ) {
+				List<LightViewInstance> shard = new ArrayList<LightViewInstance>();
+				for( LightViewInstance lvi : lviList ) {
+					if( lvi.getVpdmfId() % shardCount == shardIndex )
+						shard.add(lvi);
+				}
+				lviList = shard;
+			}
+			this.count = lviList.size();
+			
 			te.getDigLibDao().getCoreDao().getCe().connectToDB();
 			
 			this.it = lviList.iterator();
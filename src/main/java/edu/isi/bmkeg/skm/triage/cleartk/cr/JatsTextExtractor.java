@@ -0,0 +1,24 @@
+package edu.isi.bmkeg.skm.triage.cleartk.cr;
+
+import java.io.File;
+
+/**
+ * Converts the body of a PMC / JATS XML file into the plain text used by the
+ * triage classifiers. Formatting is preserved as __s_X__ / __e_X__ tokens
+ * around links (A), italics (I), bold (B), superscripts (SUP) and subscripts
+ * (SUB).
+ *
+ * Implementations must be thread-safe since a single extractor is shared by
+ * the text extraction workers of {@link TriageScoreCollectionReader}.
+ */
+public interface JatsTextExtractor {
+
+	/**
+	 * Short name of the extraction method, used to select the extractor and to
+	 * tell apart cached text produced by different extractors.
+	 */
+	public String getName();
+
+	public String extractText(File pmcXmlFile) throws Exception;
+
+}
@@ -0,0 +1,303 @@
+package edu.isi.bmkeg.skm.triage.cleartk.cr;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Single-pass streaming replacement for {@link XsltJatsTextExtractor}. The
+ * JATS file is read with StAX and the text of the article body is emitted
+ * directly, without building either the intermediate HTML or a DOM.
+ *
+ * The output follows the XSLT + Jsoup pipeline: whitespace is normalized as by
+ * Jsoup's Element.text(), block level elements separate words, and formatting
+ * elements are wrapped in __s_X__ / __e_X__ tokens using the same precedence
+ * rules. In that pipeline formatting is applied top-down, first to every link,
+ * then italics, bold, superscripts and subscripts; an element is only marked
+ * if its text is not empty and does not already contain a marker, and marking
+ * an element flattens its content. Here the same decision is taken when each
+ * formatting element closes: it is marked unless one of its descendants kept
+ * a marker of higher precedence, in which case its content is passed up
+ * unchanged. Only the content of open formatting elements (typically a few
+ * words) is ever buffered.
+ */
+public class StaxJatsTextExtractor implements JatsTextExtractor {
+
+	public static final String NAME = "stax";
+
+	/**
+	 * Formatting markers in order of precedence.
+	 */
+	private static final String[] MARKERS = { "A", "I", "B", "SUP", "SUB" };
+
+	private static final int NO_MARK = Integer.MAX_VALUE;
+
+	private static final Map<String, Integer> FORMATTING = new HashMap<String, Integer>();
+	static {
+		// elements rendered as <a> by the stylesheet
+		FORMATTING.put("xref", 0);
+		FORMATTING.put("ext-link", 0);
+		FORMATTING.put("uri", 0);
+		FORMATTING.put("email", 0);
+		FORMATTING.put("inline-supplementary-material", 0);
+		// <i>, <b>, <sup>, <sub>
+		FORMATTING.put("italic", 1);
+		FORMATTING.put("bold", 2);
+		FORMATTING.put("sup", 3);
+		FORMATTING.put("sub", 4);
+	}
+
+	/**
+	 * Elements rendered as HTML block elements (or line breaks).
+	 */
+	private static final Set<String> BLOCKS = new HashSet<String>(Arrays.asList(
+			"p", "sec", "title", "label", "caption", "list", "list-item",
+			"def-list", "def-item", "term", "def", "fig", "fig-group",
+			"table-wrap", "table-wrap-group", "table-wrap-foot", "table",
+			"thead", "tbody", "tfoot", "tr", "td", "th", "disp-quote",
+			"disp-formula", "disp-formula-group", "boxed-text", "statement",
+			"speech", "verse-group", "verse-line", "fn", "fn-group", "ack",
+			"app", "app-group", "ref-list", "ref", "glossary", "break", "hr",
+			"graphic", "media", "preformat", "attrib", "chem-struct-wrap",
+			"code", "supplementary-material", "address", "array"));
+
+	/**
+	 * An open formatting element.
+	 */
+	private static class Frame {
+		int marker;
+		StringBuilder rendered = new StringBuilder();
+		StringBuilder plain = new StringBuilder();
+		int innerMark = NO_MARK;
+
+		Frame(int marker) {
+			this.marker = marker;
+		}
+	}
+
+	private XMLInputFactory factory;
+
+	public StaxJatsTextExtractor() {
+
+		this.factory = XMLInputFactory.newInstance();
+		this.factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		this.factory.setProperty(
+				XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		this.factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public String extractText(File pmcXmlFile) throws Exception {
+
+		if (!pmcXmlFile.exists())
+			throw new FileNotFoundException("Can't find "
+					+ pmcXmlFile.getPath()
+					+ ". Please check underlying database.");
+
+		InputStream in = new FileInputStream(pmcXmlFile);
+		try {
+			return extractText(in);
+		} finally {
+			in.close();
+		}
+
+	}
+
+	public String extractText(InputStream in) throws XMLStreamException {
+
+		XMLStreamReader r;
+		synchronized (factory) {
+			r = factory.createXMLStreamReader(in);
+		}
+
+		StringBuilder out = new StringBuilder();
+		List<Frame> frames = new ArrayList<Frame>();
+
+		// element names of the open elements, only kept until we enter
+		// the body
+		List<String> path = new ArrayList<String>();
+		int bodyDepth = -1;
+		int depth = 0;
+
+		try {
+
+			while (r.hasNext()) {
+
+				int event = r.next();
+
+				if (event == XMLStreamConstants.START_ELEMENT) {
+
+					String name = r.getLocalName();
+					depth++;
+
+					if (bodyDepth == -1) {
+						path.add(name);
+						if (name.equals("body") && path.size() == 2
+								&& path.get(0).equals("article"))
+							bodyDepth = depth;
+						continue;
+					}
+
+					if (BLOCKS.contains(name))
+						appendBoundary(out, frames);
+
+					Integer marker = FORMATTING.get(name);
+					if (marker != null)
+						frames.add(new Frame(marker));
+
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+
+					String name = r.getLocalName();
+
+					if (bodyDepth == -1) {
+						path.remove(path.size() - 1);
+						depth--;
+						continue;
+					}
+
+					if (depth == bodyDepth)
+						break;
+					depth--;
+
+					if (FORMATTING.containsKey(name))
+						closeFrame(out, frames);
+					else if (BLOCKS.contains(name))
+						appendBoundary(out, frames);
+
+				} else if (bodyDepth != -1
+						&& (event == XMLStreamConstants.CHARACTERS
+								|| event == XMLStreamConstants.CDATA
+								|| event == XMLStreamConstants.SPACE
+								|| event == XMLStreamConstants.ENTITY_REFERENCE)) {
+
+					String text = r.getText();
+					if (text == null)
+						continue;
+					if (frames.isEmpty()) {
+						out.append(text);
+					} else {
+						Frame f = frames.get(frames.size() - 1);
+						f.rendered.append(text);
+						f.plain.append(text);
+					}
+
+				}
+
+			}
+
+		} finally {
+			r.close();
+		}
+
+		// unbalanced formatting cannot happen in well formed XML
+		// but close anything left open to be safe.
+		while (!frames.isEmpty())
+			closeFrame(out, frames);
+
+		return normalizeWhitespace(out);
+
+	}
+
+	private void appendBoundary(StringBuilder out, List<Frame> frames) {
+		if (frames.isEmpty()) {
+			out.append(' ');
+		} else {
+			Frame f = frames.get(frames.size() - 1);
+			f.rendered.append(' ');
+			f.plain.append(' ');
+		}
+	}
+
+	/**
+	 * Closes the innermost formatting element, deciding whether it is marked
+	 * and passing its text up to the enclosing element or to the output.
+	 */
+	private void closeFrame(StringBuilder out, List<Frame> frames) {
+
+		Frame f = frames.remove(frames.size() - 1);
+
+		boolean marked = f.innerMark >= f.marker && hasText(f.plain)
+				&& f.plain.indexOf("__s_") == -1;
+
+		CharSequence rendered;
+		int mark;
+		if (marked) {
+			String m = MARKERS[f.marker];
+			StringBuilder sb = new StringBuilder(f.plain.length() + 2
+					* m.length() + 12);
+			sb.append(" __s_").append(m).append("__ ");
+			sb.append(f.plain);
+			sb.append(" __e_").append(m).append("__ ");
+			rendered = sb;
+			mark = f.marker;
+		} else {
+			rendered = f.rendered;
+			mark = f.innerMark;
+		}
+
+		if (frames.isEmpty()) {
+			out.append(rendered);
+		} else {
+			Frame parent = frames.get(frames.size() - 1);
+			parent.rendered.append(rendered);
+			parent.plain.append(f.plain);
+			parent.innerMark = Math.min(parent.innerMark, mark);
+		}
+
+	}
+
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r';
+	}
+
+	private static boolean hasText(CharSequence s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (!isWhitespace(s.charAt(i)))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Collapses whitespace runs to a single space and trims, as Jsoup does.
+	 */
+	static String normalizeWhitespace(CharSequence s) {
+		StringBuilder sb = new StringBuilder(s.length());
+		boolean lastWasWhite = true;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (isWhitespace(c)) {
+				if (!lastWasWhite)
+					sb.append(' ');
+				lastWasWhite = true;
+			} else {
+				sb.append(c);
+				lastWasWhite = false;
+			}
+		}
+		int len = sb.length();
+		if (len > 0 && sb.charAt(len - 1) == ' ')
+			sb.setLength(len - 1);
+		return sb.toString();
+	}
+
+}
@@ -2,22 +2,22 @@ package edu.isi.bmkeg.skm.triage.cleartk.cr;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.regex.Matcher;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Pattern;
 
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
-
 import org.apache.log4j.Logger;
 import org.apache.uima.UimaContext;
 import org.apache.uima.collection.CollectionException;
@@ -25,22 +25,15 @@ import org.apache.uima.jcas.JCas;
 import org.apache.uima.resource.ResourceInitializationException;
 import org.apache.uima.util.Progress;
 import org.apache.uima.util.ProgressImpl;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Attribute;
-import org.jsoup.nodes.Comment;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.nodes.Node;
-import org.jsoup.select.Elements;
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.core.io.Resource;
 import org.uimafit.component.JCasCollectionReader_ImplBase;
 import org.uimafit.descriptor.ConfigurationParameter;
+import org.uimafit.descriptor.ExternalResource;
 import org.uimafit.factory.ConfigurationParameterFactory;
 
 import edu.isi.bmkeg.skm.triage.controller.TriageEngine;
+import edu.isi.bmkeg.skm.triage.dao.vpdmf.JdbcConnectionFactory;
+import edu.isi.bmkeg.skm.triage.dao.vpdmf.TriageSession;
 import edu.isi.bmkeg.skm.triage.model.TriageCode;
-import edu.isi.bmkeg.triage.model.qo.TriageCorpus_qo;
 import edu.isi.bmkeg.triage.uimaTypes.TriageScore;
 
 /**
@@ -50,12 +43,48 @@ import edu.isi.bmkeg.triage.uimaTypes.TriageScore;
  * is specified it will aggregate the triageScores corresponding to all existing triage corpora. If a 
  * single citation has different triage codes in different triage corpora it will use the following rule
  * to assign an aggregated triage code: 1) "in" will override "out" and "unclassified" and 
- * 2) "out" will override "unclassified".
+ * 2) "out" will override "unclassified". This aggregation is done by the query 
+ * (GROUP BY citation_id), so a single row per citation is read from the database.
  * 
  * We want to optimize this interaction for speed, so we run a
  * manual query over the underlying database involving a minimal subset of
  * tables.
  * 
+ * Converting the PMC XML to text is the expensive part of reading a document, so
+ * it may be run ahead of getNext() on a small pool of worker threads (see 
+ * EXTRACTION_THREADS and PREFETCH_SIZE). Rows are still read from the 
+ * database on the reader thread and documents are returned in citation_id order.
+ * 
+ * If TEXT_CACHE_DIRECTORY is set, the converted text is also kept in a persistent
+ * TriageTextCache so that later runs over the same files skip the conversion.
+ * 
+ * The conversion itself is done by a JatsTextExtractor selected with 
+ * TEXT_EXTRACTOR: the XSLT + Jsoup reference implementation or the streaming 
+ * StaxJatsTextExtractor.
+ * 
+ * By default the driver buffers the whole result set of the document query. 
+ * With STREAM_RESULTS the rows are instead streamed from the server, keeping
+ * the reader's heap flat for large target corpora, and the progress total is
+ * estimated from TriageScore alone. The streamed result set occupies the
+ * session's connection, so a streaming reader holds a slot of the
+ * TriageEngine's connection pool for the whole read, until close().
+ * 
+ * Queries run on a TriageSession of their own: on the TriageEngine bound under
+ * TriageEngine.RESOURCE_KEY if there is one (so that the reader shares the
+ * pipeline's engine), else on a connection opened with LOGIN, PASSWORD and
+ * DB_URL.
+ * 
+ * SHARD_INDEX and SHARD_COUNT restrict the reader to the citations with
+ * citation_id % shardCount == shardIndex, so that several processes can each 
+ * work on a disjoint part of the same target corpus. START_AFTER_CITATION_ID
+ * skips every citation up to the given one, which allows an interrupted run to 
+ * be resumed from a RunCheckpoint. SCORE_ID reads the citation of a single
+ * TriageScore instead, looked up by its id (see TriageScoreExplainer).
+ * 
+ * In INCREMENTAL mode only documents whose score is stale are returned (see 
+ * isStale()), so that rescoring a target corpus costs in proportion to what 
+ * changed since the last run.
+ * 
  * @author burns
  * 
  */
@@ -65,14 +94,41 @@ public class TriageScoreCollectionReader extends JCasCollectionReader_ImplBase {
 		public long vpdmfId;
 		public long citId;
 		public String code;
-		public String text;
+		public String pmcXmlPath;
+		public String title;
+		public String abst;
+		public boolean unscored;
+		public Timestamp scoredTimestamp;
+		public Future<String> text;
 		
-		public AggregatedScore(long vpdmfId, long citId, String code, String text) {
+		public AggregatedScore(long vpdmfId, long citId, String code, 
+				String pmcXmlPath, String title, String abst) {
 			this.vpdmfId = vpdmfId;
 			this.citId = citId;
 			this.code = code;
-			this.text = text;
+			this.pmcXmlPath = pmcXmlPath;
+			this.title = title;
+			this.abst = abst;
+		}
+	}
+	
+	/**
+	 * Builds the document text for a single AggregatedScore, either on the 
+	 * reader thread or on one of the extraction workers.
+	 */
+	private class TextExtraction implements Callable<String> {
+		
+		private AggregatedScore as;
+		
+		public TextExtraction(AggregatedScore as) {
+			this.as = as;
+		}
+
+		@Override
+		public String call() throws Exception {
+			return computeText(as);
 		}
+		
 	}
 	
 	private static Logger logger = Logger.getLogger(TriageScoreCollectionReader.class);
@@ -93,13 +149,15 @@ public class TriageScoreCollectionReader extends JCasCollectionReader_ImplBase {
 	public static final String LOGIN = ConfigurationParameterFactory
 			.createConfigurationParameterName(TriageScoreCollectionReader.class,
 					"login");
-	@ConfigurationParameter(mandatory = true, description = "Login for the Digital Library")
+	@ConfigurationParameter(mandatory = false, description = "Login for the Digital Library, " +
+			"if no TriageEngine is bound")
 	protected String login;
 
 	public static final String PASSWORD = ConfigurationParameterFactory
 			.createConfigurationParameterName(TriageScoreCollectionReader.class,
 					"password");
-	@ConfigurationParameter(mandatory = true, description = "Password for the Digital Library")
+	@ConfigurationParameter(mandatory = false, description = "Password for the Digital Library, " +
+			"if no TriageEngine is bound")
 	protected String password;
 
 	public static final String WORKING_DIRECTORY = ConfigurationParameterFactory
@@ -111,7 +169,8 @@ public class TriageScoreCollectionReader extends JCasCollectionReader_ImplBase {
 	public static final String DB_URL = ConfigurationParameterFactory
 			.createConfigurationParameterName(TriageScoreCollectionReader.class,
 					"dbUrl");
-	@ConfigurationParameter(mandatory = true, description = "The Digital Library URL")
+	@ConfigurationParameter(mandatory = false, description = "The Digital Library URL, " +
+			"if no TriageEngine is bound")
 	protected String dbUrl;
 	
 	public static final String SKIP_UNKNOWNS = ConfigurationParameterFactory
@@ -121,25 +180,140 @@ public class TriageScoreCollectionReader extends JCasCollectionReader_ImplBase {
 			defaultValue = "false")
 	protected boolean skipUnknowns;
 	
+	public static final String EXTRACTION_THREADS = ConfigurationParameterFactory
+			.createConfigurationParameterName(TriageScoreCollectionReader.class,
+					"extractionThreads");
+	@ConfigurationParameter(mandatory = false, description = "Number of worker threads converting PMC XML " +
+			"to text ahead of getNext(). If 0, documents are converted on the reader thread.", 
+			defaultValue = "1")
+	protected int extractionThreads;
+
+	public static final String PREFETCH_SIZE = ConfigurationParameterFactory
+			.createConfigurationParameterName(TriageScoreCollectionReader.class,
+					"prefetchSize");
+	@ConfigurationParameter(mandatory = false, description = "Maximum number of documents converted " +
+			"ahead of getNext()", defaultValue = "10")
+	protected int prefetchSize;
+	
+	public static final String TEXT_CACHE_DIRECTORY = ConfigurationParameterFactory
+			.createConfigurationParameterName(TriageScoreCollectionReader.class,
+					"textCacheDirectory");
+	@ConfigurationParameter(mandatory = false, description = "Directory of the persistent text cache. " +
+			"If not specified, no cache is used.")
+	protected String textCacheDirectory;
+
+	public static final String TEXT_CACHE_SIZE_MB = ConfigurationParameterFactory
+			.createConfigurationParameterName(TriageScoreCollectionReader.class,
+					"textCacheSizeMb");
+	@ConfigurationParameter(mandatory = false, description = "Maximum size of the text cache in MB", 
+			defaultValue = "1024")
+	protected int textCacheSizeMb;
+
+	public static final String REFRESH_TEXT_CACHE = ConfigurationParameterFactory
+			.createConfigurationParameterName(TriageScoreCollectionReader.class,
+					"refreshTextCache");
+	@ConfigurationParameter(mandatory = false, description = "Ignore existing text cache entries and " +
+			"recompute (and overwrite) them", defaultValue = "false")
+	protected boolean refreshTextCache;
+	
+	public static final String TEXT_EXTRACTOR = ConfigurationParameterFactory
+			.createConfigurationParameterName(TriageScoreCollectionReader.class,
+					"textExtractor");
+	@ConfigurationParameter(mandatory = false, description = "Method used to convert PMC XML to text: " +
+			"'xslt' (stylesheet + Jsoup, the reference) or 'stax' (single-pass streaming)", 
+			defaultValue = XsltJatsTextExtractor.NAME)
+	protected String textExtractorName;
+	
+	public static final String STREAM_RESULTS = ConfigurationParameterFactory
+			.createConfigurationParameterName(TriageScoreCollectionReader.class,
+					"streamResults");
+	@ConfigurationParameter(mandatory = false, description = "Stream the rows of the document query from " +
+			"the server instead of buffering the whole result set. The rows are streamed on the reader's " +
+			"session, which holds one connection of the TriageEngine's pool until the reader is closed. " +
+			"The progress total is then only an estimate based on the TriageScore table.", defaultValue = "false")
+	protected boolean streamResults;
+	
+	public static final String SHARD_INDEX = ConfigurationParameterFactory
+			.createConfigurationParameterName(TriageScoreCollectionReader.class,
+					"shardIndex");
+	@ConfigurationParameter(mandatory = false, description = "Index (from 0 to shardCount-1) of the " +
+			"shard of the target corpus to be read", defaultValue = "0")
+	protected int shardIndex;
+
+	public static final String SHARD_COUNT = ConfigurationParameterFactory
+			.createConfigurationParameterName(TriageScoreCollectionReader.class,
+					"shardCount");
+	@ConfigurationParameter(mandatory = false, description = "Number of disjoint shards the target " +
+			"corpus is partitioned into (by citation_id). If 1, the whole corpus is read.", 
+			defaultValue = "1")
+	protected int shardCount;
+	
+	public static final String START_AFTER_CITATION_ID = ConfigurationParameterFactory
+			.createConfigurationParameterName(TriageScoreCollectionReader.class,
+					"startAfterCitationId");
+	@ConfigurationParameter(mandatory = false, description = "Only read citations whose id is greater than " +
+			"this one (e.g., to resume an interrupted run). Given as a string since citation ids are " +
+			"longs, which UIMA parameters can't hold.", defaultValue = "-1")
+	protected String startAfterCitationId;
+	
+	public static final String SCORE_ID = ConfigurationParameterFactory
+			.createConfigurationParameterName(TriageScoreCollectionReader.class,
+					"scoreId");
+	@ConfigurationParameter(mandatory = false, description = "Only read the citation " +
+			"of this TriageScore (e.g., to explain its score), looked up by its id. Given as a " +
+			"string since score ids are longs, which UIMA parameters can't hold.", defaultValue = "-1")
+	protected String scoreId;
+	
+	public static final String INCREMENTAL = ConfigurationParameterFactory
+			.createConfigurationParameterName(TriageScoreCollectionReader.class,
+					"incremental");
+	@ConfigurationParameter(mandatory = false, description = "Only return documents whose score is stale: " +
+			"never scored, scored before modelCreated, or whose PMC XML file changed since it was scored", 
+			defaultValue = "false")
+	protected boolean incremental;
+
+	public static final String MODEL_CREATED = ConfigurationParameterFactory
+			.createConfigurationParameterName(TriageScoreCollectionReader.class,
+					"modelCreated");
+	@ConfigurationParameter(mandatory = false, description = "With incremental, creation time " +
+			"(yyyy-MM-dd HH:mm:ss) of the model the scores are computed with")
+	protected String modelCreated;
+	
+	@ExternalResource(key = TriageEngine.RESOURCE_KEY, mandatory = false)
+	private TriageEngine triageEngine;
+	
 	protected ResultSet rs;
+	
+	private TriageSession session;
+
+	private boolean retained = false;
+	
+	private Statement queryStmt;
 
 	private boolean eof = false;
 
 	private boolean isAggregate;
 	
 	/**
-	 * The next AggregatedScore or null if EOF
+	 * AggregatedScores read from the database whose text is being (or has been)
+	 * computed, in citation_id order. The head is the next document returned.
 	 */
-	private AggregatedScore currentAs = null;
+	private LinkedList<AggregatedScore> pending = new LinkedList<AggregatedScore>();
+	
+	private ExecutorService extractionPool;
+	
+	private JatsTextExtractor textExtractor;
+	
+	private TriageTextCache textCache;
 	
 	protected long startTime, endTime;
 
 	protected int pos = 0, count = 0;
-
-	private TriageEngine triageEngine;
-
-	private int triageCorpusCount;
 	
+	private Timestamp modelCreatedTime;
+	
+	private int upToDate = 0;
+
 	private Pattern wsDetector = Pattern.compile("\\S+");
 
 	@Override
@@ -148,18 +322,57 @@ public class TriageScoreCollectionReader extends JCasCollectionReader_ImplBase {
 		try {
 
 			isAggregate =  (triageCorpusName == null || triageCorpusName.length() == 0);
-			triageEngine = new TriageEngine();
-			triageEngine.initializeVpdmfDao(login, password, dbUrl, workingDirectory);	
+			
+			if (incremental && modelCreated != null && modelCreated.length() > 0)
+				this.modelCreatedTime = Timestamp.valueOf(modelCreated);
+			
+			if (shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount)
+				throw new IllegalArgumentException("Invalid shard " + shardIndex 
+						+ " of " + shardCount);
+			
+			String shardSql = "";
+			if (shardCount > 1)
+				shardSql = " AND MOD(TriageScore_0__TriageScore.citation_id, " + shardCount + 
+						") = " + shardIndex;
+			long startAfter = Long.parseLong(startAfterCitationId.trim());
+			if (startAfter >= 0)
+				shardSql += " AND TriageScore_0__TriageScore.citation_id > " + startAfter;
+			
+			if (triageEngine != null) {
+				triageEngine.retain();
+				this.retained = true;
+				this.session = triageEngine.openSession();
+			} else if (login != null && dbUrl != null) {
+				JdbcConnectionFactory cf = new JdbcConnectionFactory(login, password, dbUrl);
+				this.session = new TriageSession(cf.openConnection(), null);
+			} else {
+				throw new IllegalArgumentException("Either bind a TriageEngine or set " +
+						LOGIN + ", " + PASSWORD + " and " + DB_URL);
+			}
+			Connection conn = this.session.getConnection();
 			
 			// Query based on a query constructed with SqlQueryBuilder based on the TriagedArticle view.
-			String selectSql = "SELECT DISTINCT FTD_0__FTD.pmcXmlFile, " + 
-					" TriageScore_0__TriageScore.inOutCode, " +
-					" LiteratureCitation_0__LiteratureCitation.title, " +
-					" LiteratureCitation_0__LiteratureCitation.abstractText, " +
-					" TriageScore_0__TriageScore.vpdmfId, " + 
+			//
+			// The triageScores of a citation are aggregated in the query, returning 
+			// one row per citation: its code is 'in' if any score is 'in', else 'out' 
+			// if any score is 'out', else the (alphabetically first) remaining code.
+			// The other columns are constant per citation, MIN() just picks them.
+			String selectSql = "SELECT MIN(FTD_0__FTD.pmcXmlFile) AS pmcXmlFile, " + 
+					" CASE MAX(CASE TriageScore_0__TriageScore.inOutCode " + 
+					"   WHEN '" + TriageCode.IN + "' THEN 2 " +
+					"   WHEN '" + TriageCode.OUT + "' THEN 1 " + 
+					"   ELSE 0 END) " +
+					"  WHEN 2 THEN '" + TriageCode.IN + "' " +
+					"  WHEN 1 THEN '" + TriageCode.OUT + "' " +
+					"  ELSE MIN(TriageScore_0__TriageScore.inOutCode) END AS inOutCode, " +
+					" MIN(LiteratureCitation_0__LiteratureCitation.title) AS title, " +
+					" MIN(LiteratureCitation_0__LiteratureCitation.abstractText) AS abstractText, " +
+					" MIN(TriageScore_0__TriageScore.vpdmfId) AS vpdmfId, " + 
+					" MAX(TriageScore_0__TriageScore.inScore = -1) AS unscored, " + 
+					" MIN(TriageScore_0__TriageScore.scoredTimestamp) AS scoredTimestamp, " + 
 					" TriageScore_0__TriageScore.citation_id ";
 
-			String countSql = "SELECT COUNT(*) ";
+			String countSql = "SELECT COUNT(DISTINCT TriageScore_0__TriageScore.citation_id) ";
 			
 			String fromWhereSql = "FROM FTD AS FTD_0__FTD, " + 
 					" LiteratureCitation AS LiteratureCitation_0__LiteratureCitation, " + 
@@ -180,34 +393,110 @@ public class TriageScoreCollectionReader extends JCasCollectionReader_ImplBase {
 						"WHERE " +
 						" TriageCorpus_0__Corpus.name = '" + triageCorpusName + "')";				
 			}
+			
+			fromWhereSql += shardSql;
 
-			fromWhereSql += " ORDER BY TriageScore_0__TriageScore.citation_id";
+			String groupBySql = " GROUP BY TriageScore_0__TriageScore.citation_id" +
+					" ORDER BY TriageScore_0__TriageScore.citation_id";
 			
-			triageEngine.getDigLibDao().getCoreDao().getCe().connectToDB();
+			long singleScoreId = Long.parseLong(scoreId.trim());
+			
+			if (singleScoreId >= 0) {
+				
+				//
+				// A single score (e.g., to explain it) is looked up by its id
+				// instead of aggregating the target corpus.
+				//
+				String scoreSql = "SELECT FTD_0__FTD.pmcXmlFile AS pmcXmlFile, " + 
+						" TriageScore_0__TriageScore.inOutCode AS inOutCode, " +
+						" LiteratureCitation_0__LiteratureCitation.title AS title, " +
+						" LiteratureCitation_0__LiteratureCitation.abstractText AS abstractText, " +
+						" TriageScore_0__TriageScore.vpdmfId AS vpdmfId, " + 
+						" TriageScore_0__TriageScore.inScore = -1 AS unscored, " + 
+						" TriageScore_0__TriageScore.scoredTimestamp AS scoredTimestamp, " + 
+						" TriageScore_0__TriageScore.citation_id " +
+						"FROM FTD AS FTD_0__FTD, " + 
+						" LiteratureCitation AS LiteratureCitation_0__LiteratureCitation, " + 
+						" TriageScore AS TriageScore_0__TriageScore " + 
+						"WHERE " + 
+						" TriageScore_0__TriageScore.vpdmfId = ? AND " +
+						" LiteratureCitation_0__LiteratureCitation.vpdmfId=TriageScore_0__TriageScore.citation_id AND " +
+						" FTD_0__FTD.pmcLoaded=1 AND " +
+						" FTD_0__FTD.vpdmfId=LiteratureCitation_0__LiteratureCitation.fullText_id";
+				
+				PreparedStatement scoreStmt = conn.prepareStatement(scoreSql);
+				this.queryStmt = scoreStmt;
+				scoreStmt.setLong(1, singleScoreId);
+				this.rs = scoreStmt.executeQuery();
+				this.count = 1;
+				
+			} else if (streamResults) {
+				
+				//
+				// Estimate the number of documents from TriageScore alone
+				// rather than running the full join twice.
+				//
+				String estimateSql = "SELECT COUNT(DISTINCT TriageScore_0__TriageScore.citation_id) " +
+						"FROM Corpus AS TargetCorpus_0__Corpus, " +
+						" TriageScore AS TriageScore_0__TriageScore " + 
+						"WHERE " + 
+						" TargetCorpus_0__Corpus.name = '" + targetCorpusName +  "' AND " +
+						" TargetCorpus_0__Corpus.vpdmfId=TriageScore_0__TriageScore.targetCorpus_id";
+				if (!isAggregate) {
+					estimateSql += " AND TriageScore_0__TriageScore.triageCorpus_id IN " + 
+							"(SELECT TriageCorpus_0__Corpus.vpdmfId " + 
+							"FROM " +
+							" Corpus AS TriageCorpus_0__Corpus " +
+							"WHERE " +
+							" TriageCorpus_0__Corpus.name = '" + triageCorpusName + "')";
+				}
+				estimateSql += shardSql;
+				this.count = queryCount(conn, estimateSql);
 
-			TriageCorpus_qo tcQo = new TriageCorpus_qo();
-			if( triageCorpusName != null && triageCorpusName.length() > 0 )
-				tcQo.setName(triageCorpusName);
-			this.triageCorpusCount = triageEngine.getDigLibDao().getCoreDao().
-					countViewInTrans(tcQo, "TriageCorpus");
+				this.queryStmt = JdbcConnectionFactory.createStreamingStatement(conn);
+				this.rs = this.queryStmt.executeQuery(selectSql + fromWhereSql + groupBySql);
+				
+			} else {
+
+				this.count = queryCount(conn, countSql + fromWhereSql);
+	
+				this.queryStmt = conn.createStatement();
+				this.rs = this.queryStmt.executeQuery(selectSql + fromWhereSql + groupBySql);
+				
+			}
 			
+			if (StaxJatsTextExtractor.NAME.equals(this.textExtractorName))
+				this.textExtractor = new StaxJatsTextExtractor();
+			else if (XsltJatsTextExtractor.NAME.equals(this.textExtractorName))
+				this.textExtractor = new XsltJatsTextExtractor();
+			else
+				throw new IllegalArgumentException("Unknown text extractor: " 
+						+ this.textExtractorName);
 			
-			ResultSet countRs = triageEngine.getDigLibDao().getCoreDao().getCe().executeRawSqlQuery(
-					countSql + fromWhereSql);
-			countRs.next();
-			this.count = countRs.getInt(1);
-			countRs.close();
+			if (this.textCacheDirectory != null && this.textCacheDirectory.length() > 0) {
+				this.textCache = new TriageTextCache(new File(this.textCacheDirectory), 
+						this.textCacheSizeMb * 1024L * 1024L);
+			}
 
-			this.rs = triageEngine.getDigLibDao().getCoreDao().getCe().executeRawSqlQuery(
-					selectSql + fromWhereSql);
+			if (this.extractionThreads > 0) {
+				this.extractionPool = Executors.newFixedThreadPool(
+						this.extractionThreads, new ThreadFactory() {
+							private int n = 0;
+							public Thread newThread(Runnable r) {
+								Thread t = new Thread(r, "triage-text-extraction-" + (n++));
+								t.setDaemon(true);
+								return t;
+							}
+						});
+			}
 			
 			this.pos = 0;
 			this.startTime = System.currentTimeMillis();
 
 			//
-			// Calling moveNext() to compute the first currentAs
+			// Fill the prefetch queue with the first documents
 			//
-			moveNext();
+			fillPending();
 			
 		} catch (Exception e) {
 
@@ -223,11 +512,14 @@ public class TriageScoreCollectionReader extends JCasCollectionReader_ImplBase {
 	public void getNext(JCas jcas) throws IOException, CollectionException {
 
 		try {
-						
-			if( currentAs.text == null )
+			
+			AggregatedScore currentAs = pending.removeFirst();
+			String text = getText(currentAs);
+			
+			if( text == null )
 			    jcas.setDocumentText("");
 			else
-				jcas.setDocumentText( currentAs.text );
+				jcas.setDocumentText( text );
 
 			TriageScore doc = new TriageScore(jcas);
 		    doc.setVpdmfId(currentAs.vpdmfId);
@@ -235,7 +527,7 @@ public class TriageScoreCollectionReader extends JCasCollectionReader_ImplBase {
 		    doc.setInOutCode(currentAs.code);
 		    doc.addToIndexes(jcas);
 
-		    moveNext();
+		    fillPending();
 		    
 		    pos++;
 		    if( (pos % 1000) == 0) {
@@ -254,52 +546,126 @@ public class TriageScoreCollectionReader extends JCasCollectionReader_ImplBase {
 	 * @see com.ibm.uima.arg0collection.base_cpm.BaseCollectionReader#hasNext()
 	 */
 	public boolean hasNext() throws IOException, CollectionException {
-		return currentAs != null;
+		return !pending.isEmpty();
 	}
 		
 	public void close() throws IOException {
+		if (extractionPool != null)
+			extractionPool.shutdownNow();
+		if (textCache != null)
+			logger.info(textCache.reportStatistics());
+		if (incremental)
+			logger.info("Skipped " + upToDate + " documents with up to date scores.");
+		JdbcConnectionFactory.closeQuietly(rs, queryStmt, null);
+		if (session != null)
+			session.close();
+		session = null;
+		if (retained)
+			triageEngine.release();
+		retained = false;
+	}
+	
+	private static int queryCount(Connection conn, String sql) throws SQLException {
+		Statement stmt = conn.createStatement();
+		ResultSet countRs = null;
 		try {
-			triageEngine.getDigLibDao().getCoreDao().getCe().closeDbConnection();
-		} catch (Exception e) {
-			throw new IOException(e);
+			countRs = stmt.executeQuery(sql);
+			countRs.next();
+			return countRs.getInt(1);
+		} finally {
+			JdbcConnectionFactory.closeQuietly(countRs, stmt, null);
 		}
 	}
 	
 	/**
-	 * sets the next currentAs.
+	 * Tops up the queue of pending documents so that up to prefetchSize 
+	 * documents are being converted ahead of the one returned by getNext().
 	 * 
-	 * If skipUnknowns is true it will skips the citations whose aggregated code is "unknown"
-	 * @throws TransformerException 
-	 * @throws IOException 
+	 * If skipUnknowns is true it skips the citations whose aggregated code is 
+	 * "unknown" before their text is ever computed.
 	 */
-	private void moveNext() throws SQLException, IOException, TransformerException {
+	private void fillPending() throws SQLException {
 		
-		currentAs = computeAggregatedScore();
+		int target = (extractionPool == null) ? 1 : Math.max(1, prefetchSize);
 		
-		if (skipUnknowns) {
-			while (currentAs != null) {
-				if (TriageCode.IN.equals(currentAs.code) || TriageCode.OUT.equals(currentAs.code) ) break;
-				currentAs = computeAggregatedScore();				
+		while (!eof && pending.size() < target) {
+			
+			AggregatedScore as = computeAggregatedScore();
+			if (as == null)
+				break;
+			
+			if (skipUnknowns && !TriageCode.IN.equals(as.code) 
+					&& !TriageCode.OUT.equals(as.code))
+				continue;
+			
+			if (incremental && !isStale(as)) {
+				upToDate++;
+				continue;
 			}
+				
+			if (extractionPool != null)
+				as.text = extractionPool.submit(new TextExtraction(as));
+			
+			pending.add(as);
+			
+		}
+		
+	}
+	
+	/**
+	 * A score is stale if it was never computed, if it was computed before the 
+	 * current model was created, or if the PMC XML file changed after it was 
+	 * computed. Only the modification time of the file is checked here, the 
+	 * file itself is not read.
+	 */
+	private boolean isStale(AggregatedScore as) {
+		
+		if (as.unscored || as.scoredTimestamp == null)
+			return true;
+		
+		if (modelCreatedTime != null && as.scoredTimestamp.before(modelCreatedTime))
+			return true;
+		
+		if (as.pmcXmlPath != null) {
+			File pmcXmlFile = new File(this.workingDirectory + "/" + as.pmcXmlPath);
+			if (pmcXmlFile.lastModified() > as.scoredTimestamp.getTime())
+				return true;
 		}
+		
+		return false;
+		
+	}
+	
+	/**
+	 * Returns the text of the given AggregatedScore, waiting for its extraction 
+	 * worker if necessary.
+	 */
+	private String getText(AggregatedScore as) throws Exception {
+		
+		if (as.text == null)
+			return computeText(as);
+		
+		try {
+			return as.text.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception)
+				throw (Exception) cause;
+			throw e;
+		}
+		
 	}
 	
 	/** 
-	 * Computes the next AggregatedScore and advances the rs cursor
+	 * Computes the next AggregatedScore and advances the rs cursor.
+	 * The text of the document is not computed here. The codes of the
+	 * citation have already been aggregated by the query.
 	 * 
 	 * @return the next AggregatedScore or null if EOF. 
-	 *
-	 * This function expects a state in which either
- 	 * a) rs already contains a valid record and this record corresponds to the first time 
-	 * the current vpdmfId is seen or
-	 * b) eof is true
 	 * @throws SQLException 
-	 * @throws IOException 
-	 * @throws TransformerException 
 	 * 
 	 */
-	private AggregatedScore computeAggregatedScore() throws 
-			SQLException, IOException, TransformerException,FileNotFoundException  {
+	private AggregatedScore computeAggregatedScore() throws SQLException {
 
 		eof = !rs.next();
 		
@@ -313,6 +679,31 @@ public class TriageScoreCollectionReader extends JCasCollectionReader_ImplBase {
 		String title = rs.getString("title");
 		String abst = rs.getString("abstractText");
 		
+		AggregatedScore as = new AggregatedScore(
+				vpdmfId, citation_id, inOutCode, pmcXmlPath, title, abst
+				);
+		
+		if (incremental) {
+			as.unscored = rs.getBoolean("unscored");
+			try {
+				as.scoredTimestamp = rs.getTimestamp("scoredTimestamp");
+			} catch (SQLException e) {
+				// e.g., zero dates, treated as never scored
+				as.scoredTimestamp = null;
+			}
+		}
+		
+		return as;
+	}
+	
+	/**
+	 * Builds the title + abstract + body text of the document. 
+	 * May be called from the extraction workers, so it must not touch rs.
+	 */
+	private String computeText(AggregatedScore as) throws Exception {
+		
+		String pmcXmlPath = as.pmcXmlPath;
+		
 		if( pmcXmlPath == null || pmcXmlPath.equals("null") )
 			throw new FileNotFoundException("Can't find " + pmcXmlPath );
 		
@@ -321,82 +712,28 @@ public class TriageScoreCollectionReader extends JCasCollectionReader_ImplBase {
 		if( !pmcXmlFile.exists() )
 			throw new FileNotFoundException("Can't find " + pmcXmlFile.getPath() + ". Please check underlying database.");
 		
-		FileReader inputReader = new FileReader(pmcXmlFile);
-		StringWriter outputWriter = new StringWriter();
-		
-		TransformerFactory tf = TransformerFactory.newInstance();
-		
-		// stylesheet
-		Resource xslResource = new ClassPathResource(
-				"jatsPreviewStyleSheets/xslt/main/jats-html-textOnly.xsl"
-				);
-		StreamSource xslt = new StreamSource(xslResource.getInputStream());
-		Transformer transformer = tf.newTransformer(xslt);
-
-		StreamSource source = new StreamSource(inputReader);
-		StreamResult result = new StreamResult(outputWriter);
-		transformer.transform(source, result);
-		String html = outputWriter.toString();  
-				
-		Document doc = Jsoup.parse(html);
-		
-		Elements bodyEls = doc.select("body");
-		for( Element bodyEl : bodyEls ) {
-			for( Element el : bodyEl.getAllElements() ) {
-				List<Node> links = new ArrayList<Node>();
-				for(Node n: el.select("a")) {
-					this.addFormattingSuffixes((Element) n, "A");
-				} 
-				for(Node n: el.select("i")) {
-					this.addFormattingSuffixes((Element) n, "I");
-				}
-				for(Node n: el.select("b")) {
-					this.addFormattingSuffixes((Element) n, "B");
-				}
-				for(Node n: el.select("sup")) {
-					this.addFormattingSuffixes((Element) n, "SUP");
-				}
-				for(Node n: el.select("sub")) {
-					this.addFormattingSuffixes((Element) n, "SUB");
-				}
+		String fingerprint = null;
+		if (textCache != null) {
+			fingerprint = TriageTextCache.fingerprint(pmcXmlFile, 
+					textExtractor.getName(), as.title, as.abst);
+			if (!refreshTextCache) {
+				String cached = textCache.get(pmcXmlPath, fingerprint);
+				if (cached != null)
+					return cached;
 			}
-		}		
-		
-		String plainText =  title + "\n"  
-				+ abst + "\n"
-        		+ bodyEls.text();
+		}
 		
-		AggregatedScore as = new AggregatedScore(
-				vpdmfId, citation_id, inOutCode, plainText
-				);
+		String bodyText = this.textExtractor.extractText(pmcXmlFile);
 		
-		//
-		// Aggregate the score across all TriageCorpora 
-		// simply counted during initialization 
-		// and stored in this.triageCorpusCount.
-		//
-		for( int i = 0; i<this.triageCorpusCount-1 && !eof; i++) {
-			eof = !rs.next();
-			String code =  rs.getString("inOutCode");
-			if (TriageCode.IN.equals(code)) 
-				as.code = code;
-			else if (TriageCode.OUT.equals(code) && !TriageCode.IN.equals(as.code))
-				as.code = code;			
-		}
+		String plainText = as.title + "\n"  
+				+ as.abst + "\n"
+        		+ bodyText;
 		
-		return as;
-	}
-	
-	private Element addFormattingSuffixes(Element el, String suffix) {
-		String t = el.text();;
-		String s = " __s_" + suffix + "__ ";
-		String e = " __e_" + suffix + "__ ";
+		if (textCache != null)
+			textCache.put(pmcXmlPath, fingerprint, plainText);
 		
-		if( t.indexOf("__s_") == -1  && t.length() > 0) {
-			el.text( s + t + e );
-		} 
+		return plainText;
 		
-		return el;
 	}
 		
 	protected void error(String message) {
@@ -0,0 +1,329 @@
+package edu.isi.bmkeg.skm.triage.cleartk.cr;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Persistent on-disk cache of the text that TriageScoreCollectionReader builds
+ * for each document (title + abstract + formatted body text).
+ *
+ * Entries are stored gzipped in
+ * <code>&lt;cacheDir&gt;/&lt;xx&gt;/&lt;sha1(pmcXmlPath)&gt;.txt.gz</code>.
+ * The first line of each entry is a fingerprint built from the length and
+ * modification time of the PMC XML file and a checksum of the title, abstract
+ * and extraction method. An entry whose fingerprint no longer matches is
+ * treated as a miss and removed.
+ *
+ * The total size of the cache is capped; when the cap is exceeded the least
+ * recently used entries (by file modification time, which is refreshed on
+ * every hit) are evicted down to 90% of the cap.
+ *
+ * All methods are thread-safe so the cache may be used from the text
+ * extraction workers of the reader.
+ */
+public class TriageTextCache {
+
+	private static Logger logger = Logger.getLogger(TriageTextCache.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String SUFFIX = ".txt.gz";
+
+	private File cacheDir;
+
+	private long maxBytes;
+
+	private AtomicLong totalBytes = new AtomicLong();
+
+	private AtomicLong hits = new AtomicLong();
+
+	private AtomicLong misses = new AtomicLong();
+
+	private AtomicLong evictions = new AtomicLong();
+
+	private final Object evictionLock = new Object();
+
+	public TriageTextCache(File cacheDir, long maxBytes) throws IOException {
+
+		this.cacheDir = cacheDir;
+		this.maxBytes = maxBytes;
+
+		if (!cacheDir.exists() && !cacheDir.mkdirs())
+			throw new IOException("Can't create text cache directory "
+					+ cacheDir.getPath());
+
+		long size = 0;
+		for (File f : listEntries())
+			size += f.length();
+		this.totalBytes.set(size);
+
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+	// Getters
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+	public File getCacheDir() {
+		return cacheDir;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public long getTotalBytes() {
+		return totalBytes.get();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	/**
+	 * Builds the fingerprint that a cached entry must match to be valid.
+	 *
+	 * @param pmcXmlFile
+	 *            the source PMC XML file
+	 * @param salt
+	 *            any other inputs the text depends on (e.g., title, abstract,
+	 *            extraction method)
+	 */
+	public static String fingerprint(File pmcXmlFile, String... salt) {
+
+		StringBuilder sb = new StringBuilder();
+		for (String s : salt) {
+			sb.append(s);
+			sb.append("\u0000");
+		}
+
+		return pmcXmlFile.length() + ":" + pmcXmlFile.lastModified() + ":"
+				+ sha1(sb.toString());
+
+	}
+
+	/**
+	 * Returns the cached text for the given PMC XML path if present and
+	 * consistent with the fingerprint, or null otherwise.
+	 */
+	public String get(String pmcXmlPath, String fingerprint) {
+
+		File f = entryFile(pmcXmlPath);
+		if (!f.exists()) {
+			misses.incrementAndGet();
+			return null;
+		}
+
+		try {
+
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+					new GZIPInputStream(new FileInputStream(f)), UTF8));
+			try {
+
+				String storedFingerprint = in.readLine();
+				if (!fingerprint.equals(storedFingerprint)) {
+					in.close();
+					remove(f);
+					misses.incrementAndGet();
+					return null;
+				}
+
+				StringBuilder sb = new StringBuilder();
+				char[] buf = new char[8192];
+				int n;
+				while ((n = in.read(buf)) != -1)
+					sb.append(buf, 0, n);
+
+				f.setLastModified(System.currentTimeMillis());
+				hits.incrementAndGet();
+				return sb.toString();
+
+			} finally {
+				in.close();
+			}
+
+		} catch (IOException e) {
+
+			logger.warn("Discarding unreadable cache entry " + f.getPath()
+					+ ": " + e.getMessage());
+			remove(f);
+			misses.incrementAndGet();
+			return null;
+
+		}
+
+	}
+
+	/**
+	 * Stores the text for the given PMC XML path, replacing any previous entry.
+	 */
+	public void put(String pmcXmlPath, String fingerprint, String text)
+			throws IOException {
+
+		File f = entryFile(pmcXmlPath);
+		File dir = f.getParentFile();
+		if (!dir.exists())
+			dir.mkdirs();
+
+		// write to a temporary file first so that concurrent readers
+		// never see a partially written entry.
+		File tmp = new File(dir, f.getName() + "."
+				+ Thread.currentThread().getId() + ".tmp");
+		Writer out = new OutputStreamWriter(new GZIPOutputStream(
+				new FileOutputStream(tmp)), UTF8);
+		try {
+			out.write(fingerprint);
+			out.write("\n");
+			out.write(text);
+		} finally {
+			out.close();
+		}
+
+		long oldLength = f.exists() ? f.length() : 0;
+		if (f.exists() && !f.delete()) {
+			tmp.delete();
+			throw new IOException("Can't replace cache entry " + f.getPath());
+		}
+		if (!tmp.renameTo(f)) {
+			tmp.delete();
+			throw new IOException("Can't write cache entry " + f.getPath());
+		}
+
+		if (totalBytes.addAndGet(f.length() - oldLength) > maxBytes)
+			evict();
+
+	}
+
+	/**
+	 * Removes the entry for the given PMC XML path, if any.
+	 *
+	 * @return true if an entry was removed
+	 */
+	public boolean invalidate(String pmcXmlPath) {
+		return remove(entryFile(pmcXmlPath));
+	}
+
+	/**
+	 * Removes every entry in the cache.
+	 */
+	public void clear() {
+		for (File f : listEntries())
+			remove(f);
+	}
+
+	public String reportStatistics() {
+		long h = hits.get();
+		long m = misses.get();
+		double rate = (h + m) == 0 ? 0.0 : (100.0 * h) / (h + m);
+		return "Text cache " + cacheDir.getPath() + ": " + h + " hits, " + m
+				+ " misses (" + String.format("%.1f", rate) + "% hit rate), "
+				+ evictions.get() + " evictions, " + totalBytes.get() / 1024
+				+ " KB stored.";
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	private void evict() {
+
+		synchronized (evictionLock) {
+
+			if (totalBytes.get() <= maxBytes)
+				return;
+
+			List<File> entries = listEntries();
+			final long[] lastUsed = new long[entries.size()];
+			File[] files = entries.toArray(new File[entries.size()]);
+			Integer[] order = new Integer[files.length];
+			for (int i = 0; i < files.length; i++) {
+				lastUsed[i] = files[i].lastModified();
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return Long.valueOf(lastUsed[a]).compareTo(lastUsed[b]);
+				}
+			});
+
+			long target = (long) (maxBytes * 0.9);
+			for (int i = 0; i < order.length && totalBytes.get() > target; i++) {
+				if (remove(files[order[i]]))
+					evictions.incrementAndGet();
+			}
+
+		}
+
+	}
+
+	private boolean remove(File f) {
+		long length = f.length();
+		if (f.delete()) {
+			totalBytes.addAndGet(-length);
+			return true;
+		}
+		return false;
+	}
+
+	private List<File> listEntries() {
+		List<File> entries = new ArrayList<File>();
+		File[] subDirs = cacheDir.listFiles();
+		if (subDirs == null)
+			return entries;
+		for (File subDir : subDirs) {
+			if (!subDir.isDirectory())
+				continue;
+			File[] files = subDir.listFiles();
+			if (files == null)
+				continue;
+			for (File f : files) {
+				if (f.getName().endsWith(SUFFIX))
+					entries.add(f);
+			}
+		}
+		return entries;
+	}
+
+	private File entryFile(String pmcXmlPath) {
+		String key = sha1(pmcXmlPath);
+		return new File(new File(cacheDir, key.substring(0, 2)), key + SUFFIX);
+	}
+
+	private static String sha1(String s) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			byte[] digest = md.digest(s.getBytes(UTF8));
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest)
+				sb.append(String.format("%02x", b & 0xff));
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
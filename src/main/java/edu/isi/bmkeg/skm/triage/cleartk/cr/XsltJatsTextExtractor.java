@@ -0,0 +1,161 @@
+package edu.isi.bmkeg.skm.triage.cleartk.cr;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.select.Elements;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+/**
+ * Converts a PMC / JATS XML file into the plain body text used by the triage
+ * classifiers. The file is run through the jats-html-textOnly.xsl stylesheet
+ * and the resulting HTML is flattened with Jsoup, marking up links, italics,
+ * bold, superscripts and subscripts with __s_X__ / __e_X__ tokens.
+ *
+ * This is the reference implementation; see {@link StaxJatsTextExtractor} for
+ * a single-pass alternative.
+ *
+ * The external DTD that PMC files declare (e.g., archivearticle3.dtd) is not
+ * loaded, as in the StAX extractor, since it is not stored with the files.
+ *
+ * The stylesheet is compiled once per extractor. Since compiled
+ * {@link Templates} are thread-safe, a single extractor can be shared between
+ * the worker threads of {@link TriageScoreCollectionReader}.
+ */
+public class XsltJatsTextExtractor implements JatsTextExtractor {
+
+	public static final String NAME = "xslt";
+
+	public static final String STYLESHEET =
+			"jatsPreviewStyleSheets/xslt/main/jats-html-textOnly.xsl";
+
+	private static final String LOAD_EXTERNAL_DTD =
+			"http://apache.org/xml/features/nonvalidating/load-external-dtd";
+
+	private Templates templates;
+
+	public XsltJatsTextExtractor() throws IOException, TransformerException {
+
+		TransformerFactory tf = TransformerFactory.newInstance();
+
+		Resource xslResource = new ClassPathResource(STYLESHEET);
+		StreamSource xslt = new StreamSource(xslResource.getInputStream());
+		this.templates = tf.newTemplates(xslt);
+
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	/**
+	 * Returns the formatted body text of the given PMC XML file.
+	 */
+	@Override
+	public String extractText(File pmcXmlFile) throws IOException,
+			TransformerException {
+
+		if (!pmcXmlFile.exists())
+			throw new FileNotFoundException("Can't find " + pmcXmlFile.getPath()
+					+ ". Please check underlying database.");
+
+		FileReader inputReader = new FileReader(pmcXmlFile);
+		StringWriter outputWriter = new StringWriter();
+
+		try {
+
+			Transformer transformer = this.templates.newTransformer();
+			SAXSource source = new SAXSource(this.createXmlReader(),
+					new InputSource(inputReader));
+			StreamResult result = new StreamResult(outputWriter);
+			transformer.transform(source, result);
+
+		} finally {
+
+			inputReader.close();
+
+		}
+
+		String html = outputWriter.toString();
+
+		Document doc = Jsoup.parse(html);
+
+		Elements bodyEls = doc.select("body");
+		for (Element bodyEl : bodyEls) {
+			for (Element el : bodyEl.getAllElements()) {
+				for (Node n : el.select("a")) {
+					this.addFormattingSuffixes((Element) n, "A");
+				}
+				for (Node n : el.select("i")) {
+					this.addFormattingSuffixes((Element) n, "I");
+				}
+				for (Node n : el.select("b")) {
+					this.addFormattingSuffixes((Element) n, "B");
+				}
+				for (Node n : el.select("sup")) {
+					this.addFormattingSuffixes((Element) n, "SUP");
+				}
+				for (Node n : el.select("sub")) {
+					this.addFormattingSuffixes((Element) n, "SUB");
+				}
+			}
+		}
+
+		return bodyEls.text();
+
+	}
+
+	/**
+	 * Creates a namespace aware parser that skips external DTDs. Parsers are
+	 * not thread-safe, so one is created per document.
+	 */
+	private XMLReader createXmlReader() throws TransformerException {
+
+		try {
+
+			SAXParserFactory spf = SAXParserFactory.newInstance();
+			spf.setNamespaceAware(true);
+			spf.setFeature(LOAD_EXTERNAL_DTD, false);
+			return spf.newSAXParser().getXMLReader();
+
+		} catch (Exception e) {
+
+			throw new TransformerException(e);
+
+		}
+
+	}
+
+	private Element addFormattingSuffixes(Element el, String suffix) {
+		String t = el.text();
+		String s = " __s_" + suffix + "__ ";
+		String e = " __e_" + suffix + "__ ";
+
+		if (t.indexOf("__s_") == -1 && t.length() > 0) {
+			el.text(s + t + e);
+		}
+
+		return el;
+	}
+
+}
@@ -40,5 +40,11 @@ public class CrossValEvalOptions extends Options_ImplBase {
 
 	@Option(name = "-feature-annotator", usage = "specify training arguments to be passed to the learner.  For multiple values specify -ta for each - e.g. '-ta -t -ta 0'")
 	public String annotatorClassName = "UnigramCountAnnotator";
+
+	@Option(name = "-fast-tokenizer", usage = "n-gram count annotators tokenize with the FastTokenizer and count n-grams by vocabulary id")
+	public boolean fastTokenizer = false;
+
+	@Option(name = "-threads", usage = "Number of threads documents are preprocessed and tested on")
+	public int threads = 1;
 	
 }
\ No newline at end of file
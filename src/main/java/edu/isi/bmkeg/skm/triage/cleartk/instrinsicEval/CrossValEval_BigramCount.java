@@ -29,7 +29,6 @@ import java.util.Collection;
 import java.util.List;
 
 import org.apache.log4j.Logger;
-import org.apache.uima.analysis_engine.AnalysisEngine;
 import org.apache.uima.collection.CollectionReader;
 import org.apache.uima.jcas.JCas;
 import org.cleartk.eval.AnnotationStatistics;
@@ -39,14 +38,9 @@ import org.cleartk.ml.jar.DirectoryDataWriterFactory;
 import org.cleartk.ml.jar.GenericJarClassifierFactory;
 import org.cleartk.ml.jar.JarClassifierBuilder;
 import org.cleartk.ml.libsvm.LibSvmBooleanOutcomeDataWriter;
-import org.cleartk.opennlp.tools.SentenceAnnotator;
-import org.cleartk.snowball.DefaultSnowballStemmer;
-import org.cleartk.token.tokenizer.TokenAnnotator;
 import org.uimafit.component.ViewTextCopierAnnotator;
 import org.uimafit.factory.AggregateBuilder;
 import org.uimafit.factory.AnalysisEngineFactory;
-import org.uimafit.pipeline.JCasIterable;
-import org.uimafit.pipeline.SimplePipeline;
 import org.uimafit.testing.util.HideOutput;
 import org.uimafit.util.JCasUtil;
 
@@ -55,6 +49,8 @@ import com.google.common.base.Function;
 import edu.isi.bmkeg.skm.cleartk.type.CatorgorizedFtdText;
 import edu.isi.bmkeg.skm.triage.cleartk.annotators.BigramCountAnnotator;
 import edu.isi.bmkeg.skm.triage.cleartk.annotators.GoldDocumentCategoryAnnotator;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.ParallelPipelineRunner;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.TriagePipelines;
 
 /**
  * <br>
@@ -100,6 +96,8 @@ public class CrossValEval_BigramCount extends CrossValidationEvaluation {
 				options.nFolds,
 				options.dataDirectory);
 
+		eval.fastTokenizer = options.fastTokenizer;
+		eval.threads = options.threads;
 		eval.runMain();
 
 	}
@@ -130,25 +128,27 @@ public class CrossValEval_BigramCount extends CrossValidationEvaluation {
 		AggregateBuilder builder = new AggregateBuilder();
 		
 		// NLP pre-processing components
-		builder.add(SentenceAnnotator.getDescription());
-		builder.add(TokenAnnotator.getDescription());
-		builder.add(DefaultSnowballStemmer.getDescription("English"));
+		TriagePipelines.addPreprocessing(builder,
+				this.usesFastTokenizer(BigramCountAnnotator.class),
+				BigramCountAnnotator.class);
 		builder.add(AnalysisEngineFactory
 				.createPrimitiveDescription(GoldDocumentCategoryAnnotator.class));
+
+		AggregateBuilder writer = new AggregateBuilder();
 		
 		// Simple bigram count annotator
 		// org.cleartk.ml.libsvm.LibSvmBooleanOutcomeDataWriter
-	    builder.add(AnalysisEngineFactory.createPrimitiveDescription(
+	    writer.add(AnalysisEngineFactory.createPrimitiveDescription(
 	    		BigramCountAnnotator.class,
+	    		this.withTokenizerParams(BigramCountAnnotator.class, outputDirectory,
 	    		CleartkAnnotator.PARAM_IS_TRAINING, true,
 	    		DefaultDataWriterFactory.PARAM_DATA_WRITER_CLASS_NAME,
 	    		dataWriterClassName,
 	    		DirectoryDataWriterFactory.PARAM_OUTPUT_DIRECTORY,
-	    		outputDirectory));
+	    		outputDirectory)));
 
 		// run the pipeline
-		SimplePipeline.runPipeline(collectionReader,
-				builder.createAggregateDescription());
+		this.runTraining(collectionReader, builder, writer);
 				
 		// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
 		logger.info("2. Train model and write model.jar file.\n");
@@ -167,9 +167,9 @@ public class CrossValEval_BigramCount extends CrossValidationEvaluation {
 		AggregateBuilder builder = new AggregateBuilder();
 		
 		// NLP pre-processing components
-		builder.add(SentenceAnnotator.getDescription());
-		builder.add(TokenAnnotator.getDescription());
-		builder.add(DefaultSnowballStemmer.getDescription("English"));		
+		TriagePipelines.addPreprocessing(builder,
+				this.usesFastTokenizer(BigramCountAnnotator.class),
+				BigramCountAnnotator.class);
 
 		builder.add(AnalysisEngineFactory.createPrimitiveDescription(
 				ViewTextCopierAnnotator.class,
@@ -187,11 +187,14 @@ public class CrossValEval_BigramCount extends CrossValidationEvaluation {
 		File classifierJarPath = new File(directory, "model.jar"); 
 	    builder.add(AnalysisEngineFactory.createPrimitiveDescription(
 	    		BigramCountAnnotator.class,
+	    		this.withTokenizerParams(BigramCountAnnotator.class, directory,
 	    		CleartkAnnotator.PARAM_IS_TRAINING, false,
-	    		GenericJarClassifierFactory.PARAM_CLASSIFIER_JAR_PATH, classifierJarPath
-				));
+	    		GenericJarClassifierFactory.PARAM_CLASSIFIER_JAR_PATH, classifierJarPath)));
 		
-		AnalysisEngine engine = builder.createAggregate();
+		// stats don't depend on the order documents are tested in
+		ParallelPipelineRunner pipeline = this.createPipeline(collectionReader,
+				builder.createAggregateDescription());
+		pipeline.setOrdered(false);
 
 		// Run and evaluate
 		Function<CatorgorizedFtdText, ?> getSpan = AnnotationStatistics
@@ -199,7 +202,7 @@ public class CrossValEval_BigramCount extends CrossValidationEvaluation {
 		Function<CatorgorizedFtdText, String> getCategory = AnnotationStatistics
 				.annotationToFeatureValue("category");
 		
-		for (JCas jCas : new JCasIterable(collectionReader, engine)) {
+		for (JCas jCas : pipeline) {
 			JCas goldView = jCas.getView(GOLD_VIEW_NAME);
 			JCas systemView = jCas.getView(SYSTEM_VIEW_NAME);
 
@@ -30,7 +30,6 @@ import java.util.Collection;
 import java.util.List;
 
 import org.apache.log4j.Logger;
-import org.apache.uima.analysis_engine.AnalysisEngine;
 import org.apache.uima.collection.CollectionReader;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.jcas.tcas.DocumentAnnotation;
@@ -44,14 +43,9 @@ import org.cleartk.ml.jar.DefaultDataWriterFactory;
 import org.cleartk.ml.jar.DirectoryDataWriterFactory;
 import org.cleartk.ml.jar.GenericJarClassifierFactory;
 import org.cleartk.ml.libsvm.LibSvmBooleanOutcomeDataWriter;
-import org.cleartk.opennlp.tools.SentenceAnnotator;
-import org.cleartk.snowball.DefaultSnowballStemmer;
-import org.cleartk.token.tokenizer.TokenAnnotator;
 import org.uimafit.component.ViewTextCopierAnnotator;
 import org.uimafit.factory.AggregateBuilder;
 import org.uimafit.factory.AnalysisEngineFactory;
-import org.uimafit.pipeline.JCasIterable;
-import org.uimafit.pipeline.SimplePipeline;
 import org.uimafit.util.JCasUtil;
 
 import com.google.common.base.Function;
@@ -62,6 +56,8 @@ import edu.isi.bmkeg.skm.triage.cleartk.annotators.MutualInformationFeatureSelec
 import edu.isi.bmkeg.skm.triage.cleartk.annotators.MutualInformationFeatureSelectionExtractor_bugfix.CombineScoreMethod;
 import edu.isi.bmkeg.skm.triage.cleartk.annotators.MutualInformation_Annotator;
 import edu.isi.bmkeg.skm.triage.cleartk.annotators.TfIdf_Annotator;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.ParallelPipelineRunner;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.TriagePipelines;
 
 /**
  * <br>
@@ -109,6 +105,7 @@ public class CrossValEval_FeatureSelection extends
 				options.dataWriterClassName,
 				options.nFolds,
 				options.dataDirectory);
+		eval.threads = options.threads;
 
 		eval.runMain();
 
@@ -175,15 +172,15 @@ public class CrossValEval_FeatureSelection extends
 		AggregateBuilder builder = new AggregateBuilder();
 
 		// NLP pre-processing components
-		builder.add(SentenceAnnotator.getDescription());
-		builder.add(TokenAnnotator.getDescription());
-		builder.add(DefaultSnowballStemmer.getDescription("English"));
+		TriagePipelines.addPreprocessing(builder, MutualInformation_Annotator.class);
 		builder.add(AnalysisEngineFactory
 				.createPrimitiveDescription(GoldDocumentCategoryAnnotator.class));
 
+		AggregateBuilder writer = new AggregateBuilder();
+
 		// Mutual information annotator, need to use InstanceDataWriter 
 		// to save the raw scores for subsequent inclusion into the pile of stuff
-		builder.add(AnalysisEngineFactory.createPrimitiveDescription(
+		writer.add(AnalysisEngineFactory.createPrimitiveDescription(
 				MutualInformation_Annotator.class,
 				MutualInformation_Annotator.PARAM_MODE, mode,
 				CleartkAnnotator.PARAM_IS_TRAINING, true,
@@ -191,7 +188,7 @@ public class CrossValEval_FeatureSelection extends
 				DirectoryDataWriterFactory.PARAM_OUTPUT_DIRECTORY, outputDirectory));
 
 		// run the pipeline
-		SimplePipeline.runPipeline(collectionReader, builder.createAggregateDescription());
+		this.runTraining(collectionReader, builder, writer);
 		
 		/**
 		 * Step 2: Transform features and write training data
@@ -293,9 +290,7 @@ public class CrossValEval_FeatureSelection extends
 		AggregateBuilder builder = new AggregateBuilder();
 
 		// NLP pre-processing components
-		builder.add(SentenceAnnotator.getDescription());
-		builder.add(TokenAnnotator.getDescription());
-		builder.add(DefaultSnowballStemmer.getDescription("English"));
+		TriagePipelines.addPreprocessing(builder, TfIdf_Annotator.class);
 
 		builder.add(AnalysisEngineFactory.createPrimitiveDescription(
 				ViewTextCopierAnnotator.class,
@@ -320,13 +315,16 @@ public class CrossValEval_FeatureSelection extends
 				GenericJarClassifierFactory.PARAM_CLASSIFIER_JAR_PATH,
 				classifierJarPath));
 
-		AnalysisEngine engine = builder.createAggregate();
+		// stats don't depend on the order documents are tested in
+		ParallelPipelineRunner pipeline = this.createPipeline(collectionReader,
+				builder.createAggregateDescription());
+		pipeline.setOrdered(false);
 
 		// Run and evaluate
 		Function<CatorgorizedFtdText, ?> getSpan = AnnotationStatistics.annotationToSpan();
 		Function<CatorgorizedFtdText, String> getCategory = AnnotationStatistics.annotationToFeatureValue("category");
 
-		for (JCas jCas : new JCasIterable(collectionReader, engine)) {
+		for (JCas jCas : pipeline) {
 			JCas goldView = jCas.getView(GOLD_VIEW_NAME);
 			JCas systemView = jCas.getView(SYSTEM_VIEW_NAME);
 
@@ -31,7 +31,6 @@ import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.apache.uima.analysis_component.AnalysisComponent;
-import org.apache.uima.analysis_engine.AnalysisEngine;
 import org.apache.uima.collection.CollectionReader;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.jcas.tcas.DocumentAnnotation;
@@ -47,22 +46,23 @@ import org.cleartk.ml.jar.DirectoryDataWriterFactory;
 import org.cleartk.ml.jar.GenericJarClassifierFactory;
 import org.cleartk.ml.jar.JarClassifierBuilder;
 import org.cleartk.ml.libsvm.LibSvmBooleanOutcomeDataWriter;
-import org.cleartk.opennlp.tools.SentenceAnnotator;
-import org.cleartk.snowball.DefaultSnowballStemmer;
-import org.cleartk.token.tokenizer.TokenAnnotator;
 import org.uimafit.component.ViewTextCopierAnnotator;
 import org.uimafit.factory.AggregateBuilder;
 import org.uimafit.factory.AnalysisEngineFactory;
-import org.uimafit.pipeline.JCasIterable;
-import org.uimafit.pipeline.SimplePipeline;
 import org.uimafit.testing.util.HideOutput;
 import org.uimafit.util.JCasUtil;
 
 import com.google.common.base.Function;
 
 import edu.isi.bmkeg.skm.cleartk.type.CatorgorizedFtdText;
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.BigramCountAnnotator;
 import edu.isi.bmkeg.skm.triage.cleartk.annotators.GoldDocumentCategoryAnnotator;
 import edu.isi.bmkeg.skm.triage.cleartk.annotators.TfIdf_Annotator;
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.Uni_and_BigramCountAnnotator;
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.UnigramCountAnnotator;
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.mgi.AlleleMutantPatternAnnotator;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.ParallelPipelineRunner;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.TriagePipelines;
 
 /**
  * <br>
@@ -117,6 +117,8 @@ public class CrossValEval_Multiway extends
 				options.nFolds,
 				options.dataDirectory);
 
+		eval.fastTokenizer = options.fastTokenizer;
+		eval.threads = options.threads;
 		eval.runMain();
 
 	}
@@ -152,6 +154,18 @@ public class CrossValEval_Multiway extends
 		if(features.equals("TfIdf_Annotator")) {
 			dumpTrainingDataFirstFlag = true;
 		}
+
+		if( features.equals("BigramCount") ) {
+			this.annotatorClass = BigramCountAnnotator.class;
+		} else if( features.equals("TfIdf") ) {
+			this.annotatorClass = TfIdf_Annotator.class;
+		} else if( features.equals("UnigramCount") ) {
+			this.annotatorClass = UnigramCountAnnotator.class;
+		} else if( features.equals("Uni_and_BigramCount") ) {
+			this.annotatorClass = Uni_and_BigramCountAnnotator.class;
+		} else {
+			this.annotatorClass = AlleleMutantPatternAnnotator.class;
+		}
 		
 		if( dataWriterClassName.equals("LibSvm") ) {
 
@@ -190,23 +204,21 @@ public class CrossValEval_Multiway extends
 		AggregateBuilder builder = new AggregateBuilder();
 
 		//
-		// NLP pre-processing components
+		// NLP pre-processing components, the same as in test()
 		//
-		//builder.add(SentenceAnnotator.getDescription());
-		builder.add(AnalysisEngineFactory.createPrimitiveDescription(
-				TokenAnnotator.class,
-				TokenAnnotator.PARAM_WINDOW_TYPE_NAME, "org.apache.uima.jcas.tcas.DocumentAnnotation"));
-		
-		builder.add(DefaultSnowballStemmer.getDescription("English"));
+		TriagePipelines.addPreprocessing(builder,
+				this.usesFastTokenizer(this.annotatorClass), this.annotatorClass);
 		builder.add(AnalysisEngineFactory
 				.createPrimitiveDescription(GoldDocumentCategoryAnnotator.class));
 
+		AggregateBuilder writer = new AggregateBuilder();
+
 		// If we're running an aggregated data writer (TF-IDF),
 		// then we need to use InstandDataWriter to save the raw 
 		// scores for subsequent inclusion.
 		if( this.annotatorClass == TfIdf_Annotator.class ) {
 			
-			builder.add(AnalysisEngineFactory.createPrimitiveDescription(
+			writer.add(AnalysisEngineFactory.createPrimitiveDescription(
 				this.annotatorClass,
 				CleartkAnnotator.PARAM_IS_TRAINING, true,
 				DefaultDataWriterFactory.PARAM_DATA_WRITER_CLASS_NAME, InstanceDataWriter.class.getName(),
@@ -216,16 +228,17 @@ public class CrossValEval_Multiway extends
 		// Otherwise just use the dataWriterClassName as is.
 		else {
 
-			builder.add(AnalysisEngineFactory.createPrimitiveDescription(
+			writer.add(AnalysisEngineFactory.createPrimitiveDescription(
 					this.annotatorClass,
+					this.withTokenizerParams(this.annotatorClass, outputDirectory,
 					CleartkAnnotator.PARAM_IS_TRAINING, true,
 					DefaultDataWriterFactory.PARAM_DATA_WRITER_CLASS_NAME, this.dataWriterClassName,
-					DirectoryDataWriterFactory.PARAM_OUTPUT_DIRECTORY, outputDirectory));
+					DirectoryDataWriterFactory.PARAM_OUTPUT_DIRECTORY, outputDirectory)));
 			
 		}
 			
 		// run the pipeline
-		SimplePipeline.runPipeline(collectionReader, builder.createAggregateDescription());
+		this.runTraining(collectionReader, builder, writer);
 
 		// If this is running based on an annotator that does not 
 		// require aggregated data, train the model and return.
@@ -289,9 +302,8 @@ public class CrossValEval_Multiway extends
 		AggregateBuilder builder = new AggregateBuilder();
 
 		// NLP pre-processing components
-		builder.add(SentenceAnnotator.getDescription());
-		builder.add(TokenAnnotator.getDescription());
-		builder.add(DefaultSnowballStemmer.getDescription("English"));
+		TriagePipelines.addPreprocessing(builder,
+				this.usesFastTokenizer(this.annotatorClass), this.annotatorClass);
 
 		builder.add(AnalysisEngineFactory.createPrimitiveDescription(
 				ViewTextCopierAnnotator.class,
@@ -320,19 +332,23 @@ public class CrossValEval_Multiway extends
 			
 		    builder.add(AnalysisEngineFactory.createPrimitiveDescription(
 		    		this.annotatorClass,
+		    		this.withTokenizerParams(this.annotatorClass, directory,
 		    		CleartkAnnotator.PARAM_IS_TRAINING, false,
 		    		GenericJarClassifierFactory.PARAM_CLASSIFIER_JAR_PATH, classifierJarPath
-					));
+					)));
 			
 		}
 
-		AnalysisEngine engine = builder.createAggregate();
+		// stats don't depend on the order documents are tested in
+		ParallelPipelineRunner pipeline = this.createPipeline(collectionReader,
+				builder.createAggregateDescription());
+		pipeline.setOrdered(false);
 
 		// Run and evaluate
 		Function<CatorgorizedFtdText, ?> getSpan = AnnotationStatistics.annotationToSpan();
 		Function<CatorgorizedFtdText, String> getCategory = AnnotationStatistics.annotationToFeatureValue("category");
 
-		for (JCas jCas : new JCasIterable(collectionReader, engine)) {
+		for (JCas jCas : pipeline) {
 			
 			JCas goldView = jCas.getView(GOLD_VIEW_NAME);
 			JCas systemView = jCas.getView(SYSTEM_VIEW_NAME);
@@ -30,7 +30,6 @@ import java.util.Collection;
 import java.util.List;
 
 import org.apache.log4j.Logger;
-import org.apache.uima.analysis_engine.AnalysisEngine;
 import org.apache.uima.collection.CollectionReader;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.jcas.tcas.DocumentAnnotation;
@@ -46,14 +45,9 @@ import org.cleartk.ml.jar.DirectoryDataWriterFactory;
 import org.cleartk.ml.jar.GenericJarClassifierFactory;
 import org.cleartk.ml.jar.JarClassifierBuilder;
 import org.cleartk.ml.libsvm.LibSvmBooleanOutcomeDataWriter;
-import org.cleartk.opennlp.tools.SentenceAnnotator;
-import org.cleartk.snowball.DefaultSnowballStemmer;
-import org.cleartk.token.tokenizer.TokenAnnotator;
 import org.uimafit.component.ViewTextCopierAnnotator;
 import org.uimafit.factory.AggregateBuilder;
 import org.uimafit.factory.AnalysisEngineFactory;
-import org.uimafit.pipeline.JCasIterable;
-import org.uimafit.pipeline.SimplePipeline;
 import org.uimafit.testing.util.HideOutput;
 import org.uimafit.util.JCasUtil;
 
@@ -62,6 +56,8 @@ import com.google.common.base.Function;
 import edu.isi.bmkeg.skm.cleartk.type.CatorgorizedFtdText;
 import edu.isi.bmkeg.skm.triage.cleartk.annotators.GoldDocumentCategoryAnnotator;
 import edu.isi.bmkeg.skm.triage.cleartk.annotators.TfIdf_Annotator;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.ParallelPipelineRunner;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.TriagePipelines;
 
 /**
  * <br>
@@ -109,6 +105,7 @@ public class CrossValEval_TfIdf extends
 				options.dataWriterClassName,
 				options.nFolds,
 				options.dataDirectory);
+		eval.threads = options.threads;
 
 		eval.runMain();
 
@@ -139,23 +136,22 @@ public class CrossValEval_TfIdf extends
 		AggregateBuilder builder = new AggregateBuilder();
 
 		// NLP pre-processing components
-		builder.add(SentenceAnnotator.getDescription());
-		builder.add(TokenAnnotator.getDescription());
-		builder.add(DefaultSnowballStemmer.getDescription("English"));
+		TriagePipelines.addPreprocessing(builder, TfIdf_Annotator.class);
 		builder.add(AnalysisEngineFactory
 				.createPrimitiveDescription(GoldDocumentCategoryAnnotator.class));
+
+		AggregateBuilder writer = new AggregateBuilder();
 		
 		// TF-IDF annotator, need to use InstandDataWriter to save the raw 
 		// scores for subsequent inclusion intot 
-		builder.add(AnalysisEngineFactory.createPrimitiveDescription(
+		writer.add(AnalysisEngineFactory.createPrimitiveDescription(
 				TfIdf_Annotator.class,
 				CleartkAnnotator.PARAM_IS_TRAINING, true,
 				DefaultDataWriterFactory.PARAM_DATA_WRITER_CLASS_NAME, InstanceDataWriter.class.getName(),
 				DirectoryDataWriterFactory.PARAM_OUTPUT_DIRECTORY, outputDirectory));
 
 		// run the pipeline
-		SimplePipeline.runPipeline(collectionReader,
-				builder.createAggregateDescription());
+		this.runTraining(collectionReader, builder, writer);
 
 		/**
 		 * Step 2: Transform features and write training data
@@ -213,9 +209,7 @@ public class CrossValEval_TfIdf extends
 		AggregateBuilder builder = new AggregateBuilder();
 
 		// NLP pre-processing components
-		builder.add(SentenceAnnotator.getDescription());
-		builder.add(TokenAnnotator.getDescription());
-		builder.add(DefaultSnowballStemmer.getDescription("English"));
+		TriagePipelines.addPreprocessing(builder, TfIdf_Annotator.class);
 
 		builder.add(AnalysisEngineFactory.createPrimitiveDescription(
 				ViewTextCopierAnnotator.class,
@@ -240,13 +234,16 @@ public class CrossValEval_TfIdf extends
 				GenericJarClassifierFactory.PARAM_CLASSIFIER_JAR_PATH,
 				classifierJarPath));
 
-		AnalysisEngine engine = builder.createAggregate();
+		// stats don't depend on the order documents are tested in
+		ParallelPipelineRunner pipeline = this.createPipeline(collectionReader,
+				builder.createAggregateDescription());
+		pipeline.setOrdered(false);
 
 		// Run and evaluate
 		Function<CatorgorizedFtdText, ?> getSpan = AnnotationStatistics.annotationToSpan();
 		Function<CatorgorizedFtdText, String> getCategory = AnnotationStatistics.annotationToFeatureValue("category");
 
-		for (JCas jCas : new JCasIterable(collectionReader, engine)) {
+		for (JCas jCas : pipeline) {
 			JCas goldView = jCas.getView(GOLD_VIEW_NAME);
 			JCas systemView = jCas.getView(SYSTEM_VIEW_NAME);
 
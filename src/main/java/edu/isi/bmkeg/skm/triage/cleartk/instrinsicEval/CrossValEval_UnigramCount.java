@@ -29,7 +29,6 @@ import java.util.Collection;
 import java.util.List;
 
 import org.apache.log4j.Logger;
-import org.apache.uima.analysis_engine.AnalysisEngine;
 import org.apache.uima.collection.CollectionReader;
 import org.apache.uima.jcas.JCas;
 import org.cleartk.eval.AnnotationStatistics;
@@ -39,14 +38,9 @@ import org.cleartk.ml.jar.DirectoryDataWriterFactory;
 import org.cleartk.ml.jar.GenericJarClassifierFactory;
 import org.cleartk.ml.jar.JarClassifierBuilder;
 import org.cleartk.ml.libsvm.LibSvmBooleanOutcomeDataWriter;
-import org.cleartk.opennlp.tools.SentenceAnnotator;
-import org.cleartk.snowball.DefaultSnowballStemmer;
-import org.cleartk.token.tokenizer.TokenAnnotator;
 import org.uimafit.component.ViewTextCopierAnnotator;
 import org.uimafit.factory.AggregateBuilder;
 import org.uimafit.factory.AnalysisEngineFactory;
-import org.uimafit.pipeline.JCasIterable;
-import org.uimafit.pipeline.SimplePipeline;
 import org.uimafit.testing.util.HideOutput;
 import org.uimafit.util.JCasUtil;
 
@@ -55,6 +49,8 @@ import com.google.common.base.Function;
 import edu.isi.bmkeg.skm.cleartk.type.CatorgorizedFtdText;
 import edu.isi.bmkeg.skm.triage.cleartk.annotators.GoldDocumentCategoryAnnotator;
 import edu.isi.bmkeg.skm.triage.cleartk.annotators.UnigramCountAnnotator;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.ParallelPipelineRunner;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.TriagePipelines;
 
 /**
  * <br>
@@ -100,6 +96,8 @@ public class CrossValEval_UnigramCount extends CrossValidationEvaluation {
 				options.nFolds,
 				options.dataDirectory);
 
+		eval.fastTokenizer = options.fastTokenizer;
+		eval.threads = options.threads;
 		eval.runMain();
 
 	}
@@ -127,25 +125,26 @@ public class CrossValEval_UnigramCount extends CrossValidationEvaluation {
 		AggregateBuilder builder = new AggregateBuilder();
 		
 		// NLP pre-processing components
-		builder.add(SentenceAnnotator.getDescription());
-		builder.add(TokenAnnotator.getDescription());
-		builder.add(DefaultSnowballStemmer.getDescription("English"));
+		TriagePipelines.addPreprocessing(builder,
+				this.usesFastTokenizer(UnigramCountAnnotator.class),
+				UnigramCountAnnotator.class);
 		builder.add(AnalysisEngineFactory
 				.createPrimitiveDescription(GoldDocumentCategoryAnnotator.class));
+
+		AggregateBuilder writer = new AggregateBuilder();
 		
 		// Simple word count annotator
-	    builder.add(AnalysisEngineFactory.createPrimitiveDescription(
+	    writer.add(AnalysisEngineFactory.createPrimitiveDescription(
 	    		UnigramCountAnnotator.class,
+	    		this.withTokenizerParams(UnigramCountAnnotator.class, outputDirectory,
 	    		CleartkAnnotator.PARAM_IS_TRAINING, true,
 	    		DefaultDataWriterFactory.PARAM_DATA_WRITER_CLASS_NAME,
 	    		dataWriterClassName,
 				DirectoryDataWriterFactory.PARAM_OUTPUT_DIRECTORY,
-				outputDirectory
-	    		));
+				outputDirectory)));
 
 		// run the pipeline
-		SimplePipeline.runPipeline(collectionReader,
-				builder.createAggregateDescription());
+		this.runTraining(collectionReader, builder, writer);
 				
 		// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
 		logger.info("2. Train model and write model.jar file.\n");
@@ -164,9 +163,9 @@ public class CrossValEval_UnigramCount extends CrossValidationEvaluation {
 		AggregateBuilder builder = new AggregateBuilder();
 		
 		// NLP pre-processing components
-		builder.add(SentenceAnnotator.getDescription());
-		builder.add(TokenAnnotator.getDescription());
-		builder.add(DefaultSnowballStemmer.getDescription("English"));		
+		TriagePipelines.addPreprocessing(builder,
+				this.usesFastTokenizer(UnigramCountAnnotator.class),
+				UnigramCountAnnotator.class);
 
 		builder.add(AnalysisEngineFactory.createPrimitiveDescription(
 				ViewTextCopierAnnotator.class,
@@ -183,10 +182,14 @@ public class CrossValEval_UnigramCount extends CrossValidationEvaluation {
 		File classifierJarPath = new File(directory, "model.jar"); 
 	    builder.add(AnalysisEngineFactory.createPrimitiveDescription(
 	    		UnigramCountAnnotator.class,
+	    		this.withTokenizerParams(UnigramCountAnnotator.class, directory,
 	    		CleartkAnnotator.PARAM_IS_TRAINING, false,
-	    		GenericJarClassifierFactory.PARAM_CLASSIFIER_JAR_PATH, classifierJarPath));
+	    		GenericJarClassifierFactory.PARAM_CLASSIFIER_JAR_PATH, classifierJarPath)));
 		
-		AnalysisEngine engine = builder.createAggregate();
+		// stats don't depend on the order documents are tested in
+		ParallelPipelineRunner pipeline = this.createPipeline(collectionReader,
+				builder.createAggregateDescription());
+		pipeline.setOrdered(false);
 
 		// Run and evaluate
 		Function<CatorgorizedFtdText, ?> getSpan = AnnotationStatistics
@@ -194,7 +197,7 @@ public class CrossValEval_UnigramCount extends CrossValidationEvaluation {
 		Function<CatorgorizedFtdText, String> getCategory = AnnotationStatistics
 				.annotationToFeatureValue("category");
 		
-		for (JCas jCas : new JCasIterable(collectionReader, engine)) {
+		for (JCas jCas : pipeline) {
 			JCas goldView = jCas.getView(GOLD_VIEW_NAME);
 			JCas systemView = jCas.getView(SYSTEM_VIEW_NAME);
 
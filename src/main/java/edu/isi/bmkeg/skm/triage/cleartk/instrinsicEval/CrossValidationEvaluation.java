@@ -29,6 +29,7 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -38,15 +39,23 @@ import org.apache.commons.io.filefilter.FileFilterUtils;
 import org.apache.commons.io.filefilter.HiddenFileFilter;
 import org.apache.commons.io.filefilter.IOFileFilter;
 import org.apache.log4j.Logger;
+import org.apache.uima.analysis_engine.AnalysisEngineDescription;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.collection.CollectionReader;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
 import org.cleartk.eval.AnnotationStatistics;
 import org.cleartk.eval.Evaluation_ImplBase;
+import org.uimafit.factory.AggregateBuilder;
 import org.uimafit.factory.CollectionReaderFactory;
 import org.uimafit.factory.TypeSystemDescriptionFactory;
 
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.BigramCountAnnotator;
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.CategorizedFtdAnnotator;
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.Uni_and_BigramCountAnnotator;
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.UnigramCountAnnotator;
 import edu.isi.bmkeg.skm.triage.cleartk.cr.filteredLineReader.FilteredLineReader;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.NgramVocabulary;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.ParallelPipelineRunner;
 
 /**
  * <br>
@@ -84,6 +93,17 @@ public abstract class CrossValidationEvaluation extends
 	
 	int nFolds;
 
+	/**
+	 * If set, the n-gram count annotators tokenize with the FastTokenizer and
+	 * count n-grams by id in a vocabulary kept in each fold's model directory.
+	 */
+	public boolean fastTokenizer = false;
+
+	/**
+	 * Number of threads the train and test pipelines run on.
+	 */
+	public int threads = 1;
+
 //	AnnotatorMode mode;
 	
 //	List<String> trainingArguments;
@@ -114,6 +134,67 @@ public abstract class CrossValidationEvaluation extends
 		
 	}
 
+	/**
+	 * Whether the given feature annotator runs with the FastTokenizer.
+	 */
+	protected boolean usesFastTokenizer(Class<?> annotatorClass) {
+		return this.fastTokenizer
+				&& (annotatorClass == UnigramCountAnnotator.class
+						|| annotatorClass == BigramCountAnnotator.class 
+						|| annotatorClass == Uni_and_BigramCountAnnotator.class);
+	}
+
+	/**
+	 * Adds the FastTokenizer and vocabulary parameters to the parameters of
+	 * the given feature annotator if it runs with the FastTokenizer.
+	 */
+	protected Object[] withTokenizerParams(Class<?> annotatorClass,
+			File modelDirectory, Object... params) {
+
+		if (!this.usesFastTokenizer(annotatorClass))
+			return params;
+
+		List<Object> allParams = new ArrayList<Object>(Arrays.asList(params));
+		allParams.add(CategorizedFtdAnnotator.PARAM_FAST_TOKENIZER);
+		allParams.add(true);
+		allParams.add(CategorizedFtdAnnotator.PARAM_VOCABULARY_FILE);
+		allParams.add(new File(modelDirectory, NgramVocabulary.VOCABULARY_FILE)
+				.getPath());
+		return allParams.toArray();
+
+	}
+
+	/**
+	 * Creates a runner for the given stages on this.threads threads. Stages
+	 * writing training data are run once, in reader order.
+	 */
+	protected ParallelPipelineRunner createPipeline(
+			CollectionReader collectionReader,
+			AnalysisEngineDescription... stages) throws Exception {
+
+		ParallelPipelineRunner pipeline = new ParallelPipelineRunner(
+				collectionReader, this.threads);
+		for (AnalysisEngineDescription stage : stages)
+			pipeline.add(stage);
+		return pipeline;
+
+	}
+
+	/**
+	 * Runs a training pipeline split in two: the preprocessing runs on
+	 * this.threads threads, the training data is then written by the writer
+	 * stages, in reader order.
+	 */
+	protected void runTraining(CollectionReader collectionReader,
+			AggregateBuilder preprocessing, AggregateBuilder writer)
+			throws Exception {
+
+		this.createPipeline(collectionReader,
+				preprocessing.createAggregateDescription(),
+				writer.createAggregateDescription()).run();
+
+	}
+
 	public AnnotationStatistics<String> runMain() throws Exception {
 
 		if( nFolds == 0 ) 
@@ -0,0 +1,166 @@
+package edu.isi.bmkeg.skm.triage.cleartk.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton over a set of literal strings: the text is read
+ * one character at a time with {@link #next(int, char)}, and the state
+ * reached tells which of the strings end at that character.
+ *
+ * Transitions are kept in sorted arrays per state, which is compact for the
+ * small dictionaries used here. Instances are immutable once built and may
+ * be shared between threads.
+ */
+class AhoCorasickAutomaton {
+
+	private static final int[] NONE = new int[0];
+
+	private char[][] keys;
+
+	private int[][] targets;
+
+	private int[] fail;
+
+	/**
+	 * Ids of the strings ending at each state, including the ones reached
+	 * through its failure links.
+	 */
+	private int[][] outputs;
+
+	private int[] lengths;
+
+	/**
+	 * Creates the automaton of the given strings; their ids are their
+	 * indexes in the list.
+	 */
+	AhoCorasickAutomaton(List<String> strings) {
+
+		List<char[]> k = new ArrayList<char[]>();
+		List<int[]> t = new ArrayList<int[]>();
+		List<int[]> o = new ArrayList<int[]>();
+		k.add(new char[0]);
+		t.add(NONE);
+		o.add(NONE);
+
+		this.lengths = new int[strings.size()];
+		for (int id = 0; id < strings.size(); id++) {
+
+			String s = strings.get(id);
+			if (s.length() == 0)
+				throw new IllegalArgumentException("Empty string in automaton");
+			this.lengths[id] = s.length();
+
+			int state = 0;
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				int pos = Arrays.binarySearch(k.get(state), c);
+				if (pos >= 0) {
+					state = t.get(state)[pos];
+					continue;
+				}
+				pos = -pos - 1;
+				int added = k.size();
+				k.add(new char[0]);
+				t.add(NONE);
+				o.add(NONE);
+				k.set(state, insert(k.get(state), pos, c));
+				t.set(state, insert(t.get(state), pos, added));
+				state = added;
+			}
+			o.set(state, append(o.get(state), id));
+
+		}
+
+		int n = k.size();
+		this.keys = k.toArray(new char[n][]);
+		this.targets = t.toArray(new int[n][]);
+		this.outputs = o.toArray(new int[n][]);
+		this.fail = new int[n];
+
+		//
+		// failure links in breadth first order, so that the link of a
+		// state's parent is known before the state's own
+		//
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+		for (int child : targets[0])
+			queue.add(child);
+		while (!queue.isEmpty()) {
+			int state = queue.removeFirst();
+			for (int i = 0; i < keys[state].length; i++) {
+				int child = targets[state][i];
+				fail[child] = this.next(fail[state], keys[state][i]);
+				if (outputs[fail[child]].length > 0)
+					outputs[child] = concat(outputs[child], outputs[fail[child]]);
+				queue.add(child);
+			}
+		}
+
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~
+	// Getters
+	// ~~~~~~~~~~~~~~~~~~~
+	int getStateCount() {
+		return keys.length;
+	}
+
+	int getLength(int id) {
+		return lengths[id];
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	/**
+	 * The state reached by reading c in the given state (0 is the start).
+	 */
+	int next(int state, char c) {
+		while (true) {
+			int pos = Arrays.binarySearch(keys[state], c);
+			if (pos >= 0)
+				return targets[state][pos];
+			if (state == 0)
+				return 0;
+			state = fail[state];
+		}
+	}
+
+	/**
+	 * Ids of the strings ending with the last character read to reach the
+	 * state.
+	 */
+	int[] getOutputs(int state) {
+		return outputs[state];
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	private static char[] insert(char[] a, int pos, char c) {
+		char[] b = new char[a.length + 1];
+		System.arraycopy(a, 0, b, 0, pos);
+		b[pos] = c;
+		System.arraycopy(a, pos, b, pos + 1, a.length - pos);
+		return b;
+	}
+
+	private static int[] insert(int[] a, int pos, int v) {
+		int[] b = new int[a.length + 1];
+		System.arraycopy(a, 0, b, 0, pos);
+		b[pos] = v;
+		System.arraycopy(a, pos, b, pos + 1, a.length - pos);
+		return b;
+	}
+
+	private static int[] append(int[] a, int v) {
+		return insert(a, a.length, v);
+	}
+
+	private static int[] concat(int[] a, int[] b) {
+		int[] c = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, c, a.length, b.length);
+		return c;
+	}
+
+}
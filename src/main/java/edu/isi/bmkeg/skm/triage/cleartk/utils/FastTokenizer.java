@@ -0,0 +1,712 @@
+package edu.isi.bmkeg.skm.triage.cleartk.utils;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Port of ClearTK's PennTreebankTokenizer, as run by TokenAnnotator within
+ * each Sentence annotation, that records token offsets in primitive arrays
+ * for the bag-of-n-gram features instead of creating Token annotations.
+ *
+ * PennTreebankTokenizer rewrites the sentence text with some twenty regular
+ * expression replacements that insert spaces around tokens, then splits the
+ * result on whitespace. Every replacement keeps the characters it matched,
+ * so the rewritten text is always the sentence text with spaces inserted.
+ * This class applies the same rules, in the same order and with the same
+ * lookarounds, as passes over the sentence's characters that only mark
+ * where a space is inserted: tokens are then the runs of non-whitespace
+ * characters between marks. TokenAnnotator's tokens are reproduced exactly,
+ * which FastTokenizerTest checks on the sample documents.
+ *
+ * Instances are reused from one document to the next and are not
+ * thread-safe.
+ */
+public class FastTokenizer {
+
+	/**
+	 * No character (before the start or after the end of the sentence).
+	 */
+	private static final int NONE = -1;
+
+	private static final String CLOSING_PUNCTUATION = "])}>\"'`/_#*";
+
+	private static final String NON_FINAL_PUNCTUATION = "|;@#`%";
+
+	private static final String BRACES = "[({<])}>";
+
+	private static final String[][] TWO_WORD_ABBREVIATIONS = {
+		{ "can", "not" }, { "d'", "ye" }, { "gim", "me" }, { "gon", "na" },
+		{ "got", "ta" }, { "lem", "me" }, { "more", "'n" }, { "wan", "na" } };
+
+	private static final String[][] THREE_WORD_ABBREVIATIONS = {
+		{ "wha", "dd", "ya" }, { "wha", "t", "cha" } };
+
+	private static final Pattern WORD_BOUNDARY = Pattern.compile("\\b");
+
+	private static final Pattern EXTRA_SPACE = Pattern.compile(
+			"^(\\s+)|(\\s+)$|(?<=[ \\t])[ \\t]+", Pattern.MULTILINE);
+
+	private int[] begins = new int[4096];
+
+	private int[] ends = new int[4096];
+
+	private int size;
+
+	/**
+	 * Characters of the sentence being tokenized.
+	 */
+	private char[] c = new char[1024];
+
+	private int n;
+
+	/**
+	 * space[i] is true if a space has been inserted before c[i] (or at the
+	 * end of the sentence for i = n).
+	 */
+	private boolean[] space = new boolean[1025];
+
+	/**
+	 * Spaces inserted by the current pass: a replacement's lookarounds only
+	 * see the spaces of the previous passes.
+	 */
+	private int[] marks = new int[256];
+
+	private int nMarks;
+
+	private Matcher boundary;
+
+	// ~~~~~~~~~~~~~~~~~~~
+	// Getters
+	// ~~~~~~~~~~~~~~~~~~~
+	public int size() {
+		return size;
+	}
+
+	public int getBegin(int i) {
+		return begins[i];
+	}
+
+	public int getEnd(int i) {
+		return ends[i];
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Appends a token (e.g., copied from a Token annotation).
+	 */
+	public void add(int begin, int end) {
+		if (size == begins.length) {
+			begins = Arrays.copyOf(begins, size * 2);
+			ends = Arrays.copyOf(ends, size * 2);
+		}
+		begins[size] = begin;
+		ends[size] = end;
+		size++;
+	}
+
+	/**
+	 * Replaces the current tokens with the tokens of the given text, taken
+	 * as a single sentence.
+	 */
+	public void tokenize(CharSequence text) {
+		this.clear();
+		this.tokenize(text, 0, text.length());
+	}
+
+	/**
+	 * Appends the tokens of the sentence [begin, end) of the text, with their
+	 * offsets in the text.
+	 */
+	public void tokenize(CharSequence text, int begin, int end) {
+
+		this.load(text, begin, end);
+
+		this.ellipses();
+		this.commas();
+		this.dollarSigns();
+		this.ampersands();
+		this.dashes();
+		this.colons();
+		this.nonFinalPunctuation();
+		this.periods();
+		this.split("?!");
+		this.split(BRACES);
+		this.linesBeginAndEnd();
+		this.quotes();
+		this.oneWordAbbreviations();
+		for (String[] words : TWO_WORD_ABBREVIATIONS)
+			this.abbreviation(words);
+		this.tAbbreviations();
+		for (String[] words : THREE_WORD_ABBREVIATIONS)
+			this.abbreviation(words);
+
+		if (this.hasLineSeparators()) {
+			this.addRewrittenTokens(begin);
+		} else {
+			int i = 0;
+			while (i < n) {
+				while (i < n && isSpace(c[i]))
+					i++;
+				int start = i;
+				while (i < n && !isSpace(c[i]) && (i == start || !space[i]))
+					i++;
+				if (i > start)
+					this.add(begin + start, begin + i);
+			}
+		}
+
+	}
+
+	/**
+	 * Whether the sentence has line terminators that \s doesn't match.
+	 * PennTreebankTokenizer removes the whitespace at the beginning and end
+	 * of every line before splitting, which around these characters joins
+	 * tokens. TokenAnnotator then finds the offsets of the joined token from
+	 * its first character and its length, whatever the characters it covers.
+	 */
+	private boolean hasLineSeparators() {
+		for (int i = 0; i < n; i++) {
+			if (c[i] == '\u0085' || c[i] == '\u2028' || c[i] == '\u2029')
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Builds the rewritten text, removes its extra whitespace and aligns the
+	 * resulting tokens with the sentence as Tokenizer_ImplBase does.
+	 */
+	private void addRewrittenTokens(int begin) {
+
+		StringBuilder rewritten = new StringBuilder(n * 2);
+		for (int i = 0; i <= n; i++) {
+			if (space[i])
+				rewritten.append(' ');
+			if (i < n)
+				rewritten.append(c[i]);
+		}
+		String s = EXTRA_SPACE.matcher(rewritten).replaceAll("");
+
+		int offset = 0;
+		int i = 0;
+		while (i < s.length()) {
+			while (i < s.length() && isSpace(s.charAt(i)))
+				i++;
+			int start = i;
+			while (i < s.length() && !isSpace(s.charAt(i)))
+				i++;
+			if (i == start)
+				break;
+			while (offset < n && c[offset] != s.charAt(start))
+				offset++;
+			if (offset == n)
+				break;
+			this.add(begin + offset, begin + offset + i - start);
+			offset += i - start;
+		}
+
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+	// The passes, one per replacement of PennTreebankTokenizer and in its
+	// order. Matches are scanned left to right without overlapping, as
+	// Matcher.replaceAll() does. A match never spans an inserted space unless
+	// its regular expression can match whitespace.
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	/**
+	 * (\.\.\.)
+	 */
+	private void ellipses() {
+		int i = 0;
+		while (i < n) {
+			if (c[i] == '.' && this.matches(i, "...")) {
+				this.mark(i, i + 3);
+				i += 3;
+			} else {
+				i++;
+			}
+		}
+		this.applyMarks();
+	}
+
+	/**
+	 * ((?&lt;!\d),|,(?!\d))
+	 */
+	private void commas() {
+		for (int i = 0; i < n; i++) {
+			if (c[i] == ',' && (!isDigit(this.before(i)) || !isDigit(this.after(i + 1))))
+				this.mark(i, i + 1);
+		}
+		this.applyMarks();
+	}
+
+	/**
+	 * ([A-Z]*\$)
+	 */
+	private void dollarSigns() {
+		int i = 0;
+		while (i < n) {
+			int j = i;
+			while (j < n && c[j] >= 'A' && c[j] <= 'Z' && (j == i || !space[j]))
+				j++;
+			if (j < n && c[j] == '$' && (j == i || !space[j])) {
+				this.mark(i, j + 1);
+				i = j + 1;
+			} else {
+				i++;
+			}
+		}
+		this.applyMarks();
+	}
+
+	/**
+	 * ((?&lt;![A-Z])&amp;|&amp;(?![A-Z]))
+	 */
+	private void ampersands() {
+		for (int i = 0; i < n; i++) {
+			if (c[i] == '&' && (!isUpper(this.before(i)) || !isUpper(this.after(i + 1))))
+				this.mark(i, i + 1);
+		}
+		this.applyMarks();
+	}
+
+	/**
+	 * (--+|-(?=\s))
+	 */
+	private void dashes() {
+		int i = 0;
+		while (i < n) {
+			if (c[i] == '-' && this.after(i + 1) == '-') {
+				int j = i + 1;
+				while (j < n && c[j] == '-' && !space[j])
+					j++;
+				this.mark(i, j);
+				i = j;
+			} else {
+				if (c[i] == '-' && isSpace(this.after(i + 1)))
+					this.mark(i, i + 1);
+				i++;
+			}
+		}
+		this.applyMarks();
+	}
+
+	/**
+	 * (\d+:\d+|:)
+	 */
+	private void colons() {
+		int i = 0;
+		while (i < n) {
+			if (isDigit(c[i])) {
+				int j = this.digitsEnd(i);
+				if (j < n && c[j] == ':' && !space[j] && isDigit(this.after(j + 1))) {
+					int k = this.digitsEnd(j + 1);
+					this.mark(i, k);
+					i = k;
+					continue;
+				}
+			} else if (c[i] == ':') {
+				this.mark(i, i + 1);
+			}
+			i++;
+		}
+		this.applyMarks();
+	}
+
+	/**
+	 * (``|[|;@#`%])(?!-)
+	 */
+	private void nonFinalPunctuation() {
+		int i = 0;
+		while (i < n) {
+			if (c[i] == '`' && this.after(i + 1) == '`' && this.after(i + 2) != '-') {
+				this.mark(i, i + 2);
+				i += 2;
+			} else {
+				if (NON_FINAL_PUNCTUATION.indexOf(c[i]) != -1 && this.after(i + 1) != '-')
+					this.mark(i, i + 1);
+				i++;
+			}
+		}
+		this.applyMarks();
+	}
+
+	/**
+	 * ((?&lt;=\d)\.(?=[^\n\S])|(?&lt;=[^.]\.)\.(?![.])|(?&lt;!\.\.)\.[\]\)\}\&gt;"'`/_#*\s]*$)
+	 * in MULTILINE mode: a period after a digit and before a space, the
+	 * second period of "..", and a period that ends a line, possibly
+	 * followed by closing punctuation (matched with it).
+	 */
+	private void periods() {
+		int i = 0;
+		while (i < n) {
+
+			if (c[i] != '.') {
+				i++;
+				continue;
+			}
+
+			int next = this.after(i + 1);
+			if (isDigit(this.before(i)) && isSpace(next) && next != '\n') {
+				this.mark(i, i + 1);
+				i++;
+				continue;
+			}
+
+			boolean afterPeriod = this.before(i) == '.';
+			int beforePeriod = afterPeriod ? this.before(i - 1) : NONE;
+			if (afterPeriod && beforePeriod != NONE && beforePeriod != '.' && next != '.') {
+				this.mark(i, i + 1);
+				i++;
+				continue;
+			}
+
+			if (!(afterPeriod && beforePeriod == '.')) {
+				// the closing punctuation and whitespace are matched greedily,
+				// then given back until the end of a line is reached
+				int j = i + 1;
+				while (j < n && (isSpace(c[j]) || CLOSING_PUNCTUATION.indexOf(c[j]) != -1))
+					j++;
+				for (; j > i; j--) {
+					if (this.endsLine(j)) {
+						this.mark(i, j);
+						break;
+					}
+				}
+				if (j > i) {
+					i = j;
+					continue;
+				}
+			}
+
+			i++;
+
+		}
+		this.applyMarks();
+	}
+
+	/**
+	 * Single characters, e.g., ([?!])
+	 */
+	private void split(String chars) {
+		for (int i = 0; i < n; i++) {
+			if (chars.indexOf(c[i]) != -1)
+				this.mark(i, i + 1);
+		}
+		this.applyMarks();
+	}
+
+	/**
+	 * ^|$ in MULTILINE mode, replaced by a space. Inserting a space where
+	 * there is one already makes no difference, so only the positions
+	 * without one are checked.
+	 */
+	private void linesBeginAndEnd() {
+		for (int i = 0; i <= n; i++) {
+			if (space[i])
+				continue;
+			boolean begins = i < n && (i == 0 || (isLineTerminator(c[i - 1])
+					&& !(c[i - 1] == '\r' && c[i] == '\n')));
+			if (begins || this.endsLine(i))
+				this.mark(i, i);
+		}
+		this.applyMarks();
+	}
+
+	/**
+	 * ''' replaced by " ' '' ", then '' by " '' ", then
+	 * ('\d+s?|(?&lt;=\s)'(?!')|(?&lt;!')'(?=\s)) and finally " by " \" ".
+	 */
+	private void quotes() {
+
+		int i = 0;
+		while (i < n) {
+			if (c[i] == '\'' && this.matches(i, "'''")) {
+				this.mark(i, i + 1);
+				this.mark(i + 3, i + 3);
+				i += 3;
+			} else {
+				i++;
+			}
+		}
+		this.applyMarks();
+
+		i = 0;
+		while (i < n) {
+			if (c[i] == '\'' && this.matches(i, "''")) {
+				this.mark(i, i + 2);
+				i += 2;
+			} else {
+				i++;
+			}
+		}
+		this.applyMarks();
+
+		i = 0;
+		while (i < n) {
+			if (c[i] == '\'') {
+				if (isDigit(this.after(i + 1))) {
+					int k = this.digitsEnd(i + 1);
+					if (k < n && c[k] == 's' && !space[k])
+						k++;
+					this.mark(i, k);
+					i = k;
+					continue;
+				}
+				int prev = this.before(i), next = this.after(i + 1);
+				if ((isSpace(prev) && next != '\'') || (prev != '\'' && isSpace(next)))
+					this.mark(i, i + 1);
+			}
+			i++;
+		}
+		this.applyMarks();
+
+		this.split("\"");
+
+	}
+
+	/**
+	 * ('ll|'re|'ve|n't|'[smd])\b ignoring case, replaced by " $1"
+	 */
+	private void oneWordAbbreviations() {
+		int i = 0;
+		while (i < n) {
+			int len = 0;
+			if (c[i] == '\'') {
+				if (this.matchesIgnoreCase(i, "'ll") || this.matchesIgnoreCase(i, "'re")
+						|| this.matchesIgnoreCase(i, "'ve"))
+					len = 3;
+				else if (this.matchesIgnoreCase(i, "'s") || this.matchesIgnoreCase(i, "'m")
+						|| this.matchesIgnoreCase(i, "'d"))
+					len = 2;
+			} else if (this.matchesIgnoreCase(i, "n't")) {
+				len = 3;
+			}
+			if (len > 0 && this.wordEndsAt(i + len)) {
+				this.mark(i, i);
+				i += len;
+			} else {
+				i++;
+			}
+		}
+		this.applyMarks();
+	}
+
+	/**
+	 * \b(word1)(word2)...\b ignoring case, replaced by " $1 $2..."
+	 */
+	private void abbreviation(String[] words) {
+		int i = 0;
+		while (i < n) {
+			int j = i;
+			for (String word : words) {
+				if (j < 0 || !this.matchesIgnoreCase(j, word)
+						|| (j > i && space[j]))
+					j = -1;
+				else
+					j += word.length();
+			}
+			if (j != -1 && this.wordBeginsAt(i) && this.wordEndsAt(j)) {
+				int k = i;
+				for (String word : words) {
+					this.mark(k, k);
+					k += word.length();
+				}
+				i = j;
+			} else {
+				i++;
+			}
+		}
+		this.applyMarks();
+	}
+
+	/**
+	 * ('t)(is|was)\b replaced by " $1 $2"
+	 */
+	private void tAbbreviations() {
+		int i = 0;
+		while (i < n) {
+			int j = -1;
+			if (this.matches(i, "'t") && !space[i + 1]) {
+				if (this.matches(i + 2, "is") && !space[i + 2] && this.wordEndsAt(i + 4))
+					j = i + 4;
+				else if (this.matches(i + 2, "was") && !space[i + 2] && this.wordEndsAt(i + 5))
+					j = i + 5;
+			}
+			if (j != -1) {
+				this.mark(i, i);
+				this.mark(i + 2, i + 2);
+				i = j;
+			} else {
+				i++;
+			}
+		}
+		this.applyMarks();
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	private void load(CharSequence text, int begin, int end) {
+
+		this.n = end - begin;
+		if (c.length < n) {
+			c = new char[n * 2];
+			space = new boolean[n * 2 + 1];
+		}
+		for (int i = 0; i < n; i++)
+			c[i] = text.charAt(begin + i);
+		Arrays.fill(space, 0, n + 1, false);
+		this.nMarks = 0;
+
+	}
+
+	/**
+	 * Inserts spaces before c[begin] and before c[end] at the end of the
+	 * current pass.
+	 */
+	private void mark(int begin, int end) {
+		if (nMarks + 2 > marks.length)
+			marks = Arrays.copyOf(marks, marks.length * 2);
+		marks[nMarks++] = begin;
+		if (end != begin)
+			marks[nMarks++] = end;
+	}
+
+	private void applyMarks() {
+		for (int k = 0; k < nMarks; k++)
+			space[marks[k]] = true;
+		nMarks = 0;
+	}
+
+	/**
+	 * The character of the rewritten text just before c[i].
+	 */
+	private int before(int i) {
+		if (space[i])
+			return ' ';
+		return i > 0 ? c[i - 1] : NONE;
+	}
+
+	/**
+	 * The character of the rewritten text just after c[i - 1].
+	 */
+	private int after(int i) {
+		if (space[i])
+			return ' ';
+		return i < n ? c[i] : NONE;
+	}
+
+	/**
+	 * End of the run of digits starting at c[i].
+	 */
+	private int digitsEnd(int i) {
+		int j = i + 1;
+		while (j < n && isDigit(c[j]) && !space[j])
+			j++;
+		return j;
+	}
+
+	/**
+	 * Whether $ matches in MULTILINE mode just before c[i] (after the space
+	 * inserted before it, if any).
+	 */
+	private boolean endsLine(int i) {
+		if (i == n)
+			return true;
+		if (c[i] == '\n')
+			return space[i] || i == 0 || c[i - 1] != '\r';
+		return isLineTerminator(c[i]);
+	}
+
+	/**
+	 * Whether \b matches before c[i], a word character.
+	 */
+	private boolean wordBeginsAt(int i) {
+		return space[i] || i == 0 || this.isBoundary(i);
+	}
+
+	/**
+	 * Whether \b matches after c[i - 1], a word character.
+	 */
+	private boolean wordEndsAt(int i) {
+		return space[i] || i == n || this.isBoundary(i);
+	}
+
+	/**
+	 * Whether \b matches at c[i] without an inserted space, left to the
+	 * regex engine since what it takes as a word character depends on the
+	 * Java version. It may look back over combining marks, so it only sees
+	 * the characters from the last inserted space on.
+	 */
+	private boolean isBoundary(int i) {
+		int from = i;
+		while (from > 0 && !space[from])
+			from--;
+		if (boundary == null)
+			boundary = WORD_BOUNDARY.matcher("");
+		boundary.reset(CharBuffer.wrap(c, from, n - from));
+		boundary.useTransparentBounds(true);
+		boundary.region(i - from, n - from);
+		return boundary.lookingAt();
+	}
+
+	private boolean matches(int i, String s) {
+		if (i + s.length() > n)
+			return false;
+		for (int k = 0; k < s.length(); k++) {
+			if (c[i + k] != s.charAt(k) || (k > 0 && space[i + k]))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Same as matches() for a lower case string, ignoring the case of ASCII
+	 * letters as CASE_INSENSITIVE does.
+	 */
+	private boolean matchesIgnoreCase(int i, String s) {
+		if (i + s.length() > n)
+			return false;
+		for (int k = 0; k < s.length(); k++) {
+			char ch = c[i + k];
+			if (ch >= 'A' && ch <= 'Z')
+				ch = (char) (ch + ('a' - 'A'));
+			if (ch != s.charAt(k) || (k > 0 && space[i + k]))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * \s
+	 */
+	private static boolean isSpace(int ch) {
+		return ch == ' ' || ch == '\t' || ch == '\n' || ch == '\u000B'
+				|| ch == '\f' || ch == '\r';
+	}
+
+	/**
+	 * \d
+	 */
+	private static boolean isDigit(int ch) {
+		return ch >= '0' && ch <= '9';
+	}
+
+	private static boolean isUpper(int ch) {
+		return ch >= 'A' && ch <= 'Z';
+	}
+
+	private static boolean isLineTerminator(char ch) {
+		return ch == '\n' || ch == '\r' || ch == '\u0085' || ch == '\u2028'
+				|| ch == '\u2029';
+	}
+
+}
@@ -0,0 +1,127 @@
+package edu.isi.bmkeg.skm.triage.cleartk.utils;
+
+import java.util.Arrays;
+
+/**
+ * Counts occurrences of non-negative int keys (e.g., vocabulary ids) in an
+ * open addressing table of primitives. Keys are kept in insertion order so
+ * that they can be read back without scanning the table, and clear() only
+ * resets the slots that were used, so one instance can be reused for every
+ * document.
+ */
+public class IntIntCounter {
+
+	private static final int EMPTY = -1;
+
+	private int[] keys;
+
+	private int[] counts;
+
+	/**
+	 * Slots in the order their keys were inserted.
+	 */
+	private int[] order;
+
+	private int size;
+
+	private int mask;
+
+	public IntIntCounter(int expectedSize) {
+		int capacity = 16;
+		while (capacity < expectedSize * 2)
+			capacity <<= 1;
+		this.allocate(capacity);
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~
+	// Getters
+	// ~~~~~~~~~~~~~~~~~~~
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * The i-th distinct key, in insertion order.
+	 */
+	public int keyAt(int i) {
+		return keys[order[i]];
+	}
+
+	/**
+	 * The count of the i-th distinct key.
+	 */
+	public int countAt(int i) {
+		return counts[order[i]];
+	}
+
+	public int get(int key) {
+		int slot = this.find(key);
+		return keys[slot] == EMPTY ? 0 : counts[slot];
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	public void increment(int key) {
+
+		if (key < 0)
+			throw new IllegalArgumentException("Negative key " + key);
+
+		int slot = this.find(key);
+		if (keys[slot] == EMPTY) {
+			if ((size + 1) * 2 > keys.length) {
+				this.rehash();
+				slot = this.find(key);
+			}
+			keys[slot] = key;
+			order[size++] = slot;
+		}
+		counts[slot]++;
+
+	}
+
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			keys[order[i]] = EMPTY;
+			counts[order[i]] = 0;
+		}
+		size = 0;
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	private int find(int key) {
+		int h = key * 0x9e3779b9;
+		int slot = (h ^ (h >>> 16)) & mask;
+		while (keys[slot] != EMPTY && keys[slot] != key)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	private void allocate(int capacity) {
+		this.keys = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		this.counts = new int[capacity];
+		this.order = new int[capacity / 2];
+		this.mask = capacity - 1;
+	}
+
+	private void rehash() {
+
+		int[] oldKeys = keys;
+		int[] oldCounts = counts;
+		int[] oldOrder = order;
+		int n = size;
+
+		this.allocate(keys.length * 2);
+		this.size = 0;
+
+		for (int i = 0; i < n; i++) {
+			int slot = this.find(oldKeys[oldOrder[i]]);
+			keys[slot] = oldKeys[oldOrder[i]];
+			counts[slot] = oldCounts[oldOrder[i]];
+			order[size++] = slot;
+		}
+
+	}
+
+}
@@ -0,0 +1,416 @@
+package edu.isi.bmkeg.skm.triage.cleartk.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.log4j.Logger;
+import org.cleartk.ml.Feature;
+import org.cleartk.ml.encoder.CleartkEncoderException;
+import org.cleartk.ml.encoder.features.FeaturesEncoder;
+import org.cleartk.ml.util.featurevector.FeatureVector;
+
+/**
+ * Scores documents with a linear-kernel ("-t 0") libsvm model packaged by
+ * ClearTK in model.jar, without going through libsvm.
+ *
+ * For a linear kernel the libsvm decision function
+ * <code>sum_i(coef_i * (sv_i . x)) - rho</code> collapses to a single weight
+ * vector <code>w = sum_i(coef_i * sv_i)</code>, so scoring a document is one
+ * sparse dot product <code>w . x - rho</code> over the features encoded with
+ * the model's own ClearTK features encoder.
+ *
+ * The weight vector is computed once from model.libsvm and stored as
+ * model.linear next to model.jar (see {@link #compile(File)}); it is rebuilt
+ * whenever model.jar is newer than the stored vector.
+ *
+ * Instances are immutable after loading and may be shared between threads.
+ */
+public class LinearSvmScorer {
+
+	private static Logger logger = Logger.getLogger(LinearSvmScorer.class);
+
+	public static final String LINEAR_MODEL_FILE = "model.linear";
+
+	private static final String LIBSVM_MODEL_ENTRY = "model.libsvm";
+
+	private static final String ENCODERS_ENTRY = "encoders.ser";
+
+	private static final int MAGIC = 0x4c53564d; // "LSVM"
+
+	/**
+	 * The weight x value term of one feature in the decision value.
+	 */
+	public static class Contribution {
+
+		private String name;
+
+		private double value;
+
+		private double contribution;
+
+		public Contribution(String name, double value, double contribution) {
+			this.name = name;
+			this.value = value;
+			this.contribution = contribution;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public double getValue() {
+			return value;
+		}
+
+		/**
+		 * Positive if the feature pushes the document towards true ("in").
+		 */
+		public double getContribution() {
+			return contribution;
+		}
+
+	}
+
+	private FeaturesEncoder<FeatureVector> featuresEncoder;
+
+	private double[] weights;
+
+	private double rho;
+
+	/**
+	 * ClearTK encodes true as +1. libsvm's decision value is positive for
+	 * the first label of the model, which may be either.
+	 */
+	private boolean trueIsFirstLabel;
+
+	private LinearSvmScorer() {
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~
+	// Getters
+	// ~~~~~~~~~~~~~~~~~~~
+	public int getDimension() {
+		return weights.length;
+	}
+
+	public double getBias() {
+		return -rho;
+	}
+
+	double getWeight(int index) {
+		return index < weights.length ? weights[index] : 0;
+	}
+
+	boolean isTrueFirstLabel() {
+		return trueIsFirstLabel;
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	/**
+	 * Loads the scorer for the model.jar in the given model directory,
+	 * compiling (or recompiling) model.linear if needed.
+	 */
+	public static LinearSvmScorer load(File modelDir) throws IOException,
+			ClassNotFoundException {
+
+		File modelJar = new File(modelDir, "model.jar");
+		File linearFile = new File(modelDir, LINEAR_MODEL_FILE);
+
+		LinearSvmScorer scorer = new LinearSvmScorer();
+		scorer.featuresEncoder = readFeaturesEncoder(modelJar);
+
+		if (!linearFile.exists() || !scorer.readWeights(linearFile, modelJar)) {
+			scorer.compileWeights(modelJar);
+			scorer.writeWeights(linearFile, modelJar);
+		}
+
+		return scorer;
+
+	}
+
+	/**
+	 * Collapses the libsvm model in modelDir/model.jar into modelDir/model.linear.
+	 * Called after training so that prediction runs do not have to.
+	 */
+	public static void compile(File modelDir) throws IOException {
+
+		File modelJar = new File(modelDir, "model.jar");
+
+		LinearSvmScorer scorer = new LinearSvmScorer();
+		scorer.compileWeights(modelJar);
+		scorer.writeWeights(new File(modelDir, LINEAR_MODEL_FILE), modelJar);
+
+	}
+
+	/**
+	 * Reads the weights stored in modelDir/model.linear, without the features
+	 * encoder (i.e., the result can't score documents).
+	 */
+	static LinearSvmScorer readCompiled(File modelDir) throws IOException {
+
+		LinearSvmScorer scorer = new LinearSvmScorer();
+		if (!scorer.readWeights(new File(modelDir, LINEAR_MODEL_FILE),
+				new File(modelDir, "model.jar")))
+			return null;
+		return scorer;
+
+	}
+
+	/**
+	 * Returns the libsvm decision value of the given features for the outcome
+	 * true ("in").
+	 */
+	public double score(List<Feature> features) throws CleartkEncoderException {
+
+		FeatureVector fv = featuresEncoder.encodeAll(features);
+
+		double sum = 0;
+		for (FeatureVector.Entry e : fv) {
+			if (e.index < weights.length)
+				sum += weights[e.index] * e.value;
+		}
+
+		double decision = sum - rho;
+		return trueIsFirstLabel ? decision : -decision;
+
+	}
+
+	/**
+	 * Returns the k features that weigh most on the score of the given 
+	 * features (the largest weight x value terms, in absolute value), with 
+	 * their contributions to the decision value for the outcome true.
+	 * 
+	 * Features are encoded one at a time to keep their names, so the terms
+	 * only add up to the score if the encoder doesn't normalize the vector.
+	 */
+	public List<Contribution> explain(List<Feature> features, int k)
+			throws CleartkEncoderException {
+
+		List<Contribution> contributions = new ArrayList<Contribution>();
+		for (Feature f : features) {
+
+			double sum = 0;
+			for (FeatureVector.Entry e : featuresEncoder.encodeAll(
+					Collections.singletonList(f))) {
+				if (e.index < weights.length)
+					sum += weights[e.index] * e.value;
+			}
+			if (sum == 0)
+				continue;
+
+			double value = f.getValue() instanceof Number ? 
+					((Number) f.getValue()).doubleValue() : 1;
+			contributions.add(new Contribution(f.getName(), value,
+					trueIsFirstLabel ? sum : -sum));
+
+		}
+
+		Collections.sort(contributions, new Comparator<Contribution>() {
+			public int compare(Contribution a, Contribution b) {
+				return Double.compare(Math.abs(b.contribution),
+						Math.abs(a.contribution));
+			}
+		});
+
+		return contributions.size() > k ? contributions.subList(0, k)
+				: contributions;
+
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	@SuppressWarnings("unchecked")
+	private static FeaturesEncoder<FeatureVector> readFeaturesEncoder(
+			File modelJar) throws IOException, ClassNotFoundException {
+
+		ZipFile zip = new ZipFile(modelJar);
+		try {
+			ObjectInputStream in = new ObjectInputStream(
+					new BufferedInputStream(openEntry(zip, ENCODERS_ENTRY)));
+			try {
+				return (FeaturesEncoder<FeatureVector>) in.readObject();
+			} finally {
+				in.close();
+			}
+		} finally {
+			zip.close();
+		}
+
+	}
+
+	/**
+	 * Parses the libsvm text model and sums the weighted support vectors.
+	 */
+	private void compileWeights(File modelJar) throws IOException {
+
+		ZipFile zip = new ZipFile(modelJar);
+		try {
+
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+					openEntry(zip, LIBSVM_MODEL_ENTRY), "US-ASCII"));
+
+			Double rho = null;
+			int[] labels = null;
+			String line;
+			while ((line = in.readLine()) != null && !line.equals("SV")) {
+				String[] parts = line.trim().split("\\s+");
+				if (parts[0].equals("kernel_type") && !parts[1].equals("linear")) {
+					throw new IOException("Only linear kernel models can be "
+							+ "collapsed, found " + parts[1]);
+				} else if (parts[0].equals("nr_class")
+						&& Integer.parseInt(parts[1]) != 2) {
+					throw new IOException("Only two class models are supported");
+				} else if (parts[0].equals("rho")) {
+					rho = Double.parseDouble(parts[1]);
+				} else if (parts[0].equals("label")) {
+					labels = new int[parts.length - 1];
+					for (int i = 1; i < parts.length; i++)
+						labels[i - 1] = Integer.parseInt(parts[i]);
+				}
+			}
+
+			if (line == null || rho == null || labels == null)
+				throw new IOException("Malformed libsvm model in " + modelJar);
+
+			double[] w = new double[1024];
+			int max = -1;
+			while ((line = in.readLine()) != null) {
+
+				line = line.trim();
+				if (line.length() == 0)
+					continue;
+
+				int sp = line.indexOf(' ');
+				double coef = Double.parseDouble(sp == -1 ? line : line
+						.substring(0, sp));
+
+				int pos = sp;
+				while (pos != -1 && pos < line.length()) {
+					int start = pos + 1;
+					int colon = line.indexOf(':', start);
+					if (colon == -1)
+						break;
+					int end = line.indexOf(' ', colon);
+					if (end == -1)
+						end = line.length();
+					int index = Integer.parseInt(line.substring(start, colon));
+					double value = Double.parseDouble(line.substring(colon + 1, end));
+					if (index >= w.length)
+						w = Arrays.copyOf(w, Math.max(index + 1, w.length * 2));
+					w[index] += coef * value;
+					if (index > max)
+						max = index;
+					pos = end;
+				}
+
+			}
+
+			in.close();
+
+			this.weights = Arrays.copyOf(w, max + 1);
+			this.rho = rho;
+			this.trueIsFirstLabel = labels[0] > 0;
+
+		} finally {
+			zip.close();
+		}
+
+	}
+
+	private void writeWeights(File linearFile, File modelJar) throws IOException {
+
+		File tmp = new File(linearFile.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmp)));
+		try {
+
+			int nnz = 0;
+			for (double v : weights)
+				if (v != 0)
+					nnz++;
+
+			out.writeInt(MAGIC);
+			out.writeLong(modelJar.lastModified());
+			out.writeLong(modelJar.length());
+			out.writeDouble(rho);
+			out.writeBoolean(trueIsFirstLabel);
+			out.writeInt(weights.length);
+			out.writeInt(nnz);
+			for (int i = 0; i < weights.length; i++) {
+				if (weights[i] != 0) {
+					out.writeInt(i);
+					out.writeDouble(weights[i]);
+				}
+			}
+
+		} finally {
+			out.close();
+		}
+
+		if (linearFile.exists() && !linearFile.delete())
+			throw new IOException("Can't replace " + linearFile.getPath());
+		if (!tmp.renameTo(linearFile))
+			throw new IOException("Can't write " + linearFile.getPath());
+
+		logger.info("Collapsed linear model into " + linearFile.getPath()
+				+ " (" + weights.length + " features)");
+
+	}
+
+	/**
+	 * @return false if the stored weights were built from another model.jar
+	 */
+	private boolean readWeights(File linearFile, File modelJar)
+			throws IOException {
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(linearFile)));
+		try {
+
+			if (in.readInt() != MAGIC || in.readLong() != modelJar.lastModified()
+					|| in.readLong() != modelJar.length())
+				return false;
+
+			this.rho = in.readDouble();
+			this.trueIsFirstLabel = in.readBoolean();
+			this.weights = new double[in.readInt()];
+			int nnz = in.readInt();
+			for (int i = 0; i < nnz; i++) {
+				int index = in.readInt();
+				weights[index] = in.readDouble();
+			}
+			return true;
+
+		} finally {
+			in.close();
+		}
+
+	}
+
+	private static InputStream openEntry(ZipFile zip, String name)
+			throws IOException {
+		ZipEntry entry = zip.getEntry(name);
+		if (entry == null)
+			throw new IOException(name + " not found in " + zip.getName());
+		return zip.getInputStream(entry);
+	}
+
+}
@@ -0,0 +1,317 @@
+package edu.isi.bmkeg.skm.triage.cleartk.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.cleartk.ml.Feature;
+
+/**
+ * Counts the occurrences of a dictionary of named patterns in a document
+ * text in one scan, whatever the number of patterns: literal strings are
+ * matched together by Aho-Corasick automata and regular expressions are
+ * combined into a single alternation.
+ *
+ * The dictionary has one pattern per line, as three tab separated fields:
+ * the name it is counted under (several patterns may share a name), its
+ * type and the pattern itself. Blank lines and lines starting with '#' are
+ * ignored. The types are:
+ * <ul>
+ * <li>literal: the string, anywhere in the text</li>
+ * <li>word: the string, not preceded or followed by a letter or digit</li>
+ * <li>regex: a java.util.regex pattern</li>
+ * <li>literal-i, word-i, regex-i: same, ignoring case</li>
+ * </ul>
+ *
+ * Literal matches may overlap. Regular expressions are matched as their
+ * alternation, so a text position only counts for the first of them that
+ * matches there and matches don't overlap. They are numbered groups of the
+ * alternation and so can't use numbered back references.
+ *
+ * Instances are immutable and may be shared between threads.
+ */
+public class MultiPatternMatcher {
+
+	public static final String LITERAL = "literal";
+
+	public static final String WORD = "word";
+
+	public static final String IGNORE_CASE = "-i";
+
+	public static final String REGEX = "regex";
+
+	private List<String> names;
+
+	private AhoCorasickAutomaton exact;
+
+	private AhoCorasickAutomaton ignoreCase;
+
+	/**
+	 * Name index and whole-word flag of each string of the two automata.
+	 */
+	private int[] exactNames, ignoreCaseNames;
+
+	private boolean[] exactWords, ignoreCaseWords;
+
+	private Pattern regex;
+
+	/**
+	 * Name index of each capturing group of the alternation, -1 for the
+	 * groups inside the patterns.
+	 */
+	private int[] groupNames;
+
+	private MultiPatternMatcher() {
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~
+	// Getters
+	// ~~~~~~~~~~~~~~~~~~~
+	/**
+	 * Number of distinct pattern names.
+	 */
+	public int size() {
+		return names.size();
+	}
+
+	public String getName(int index) {
+		return names.get(index);
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	/**
+	 * Reads a dictionary from a file, or from a classpath resource if there
+	 * is no such file.
+	 */
+	public static MultiPatternMatcher open(String location) throws IOException {
+
+		File file = new File(location);
+		InputStream in = file.exists() ? new FileInputStream(file)
+				: MultiPatternMatcher.class.getClassLoader().getResourceAsStream(
+						location);
+		if (in == null)
+			throw new IOException("Pattern dictionary " + location
+					+ " not found");
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in,
+				"UTF-8"));
+		try {
+			return read(reader, location);
+		} finally {
+			reader.close();
+		}
+
+	}
+
+	/**
+	 * Reads a dictionary, see the class comment for its format.
+	 */
+	public static MultiPatternMatcher read(BufferedReader in, String source)
+			throws IOException {
+
+		MultiPatternMatcher matcher = new MultiPatternMatcher();
+		matcher.names = new ArrayList<String>();
+		Map<String, Integer> nameIndex = new HashMap<String, Integer>();
+
+		List<String> exact = new ArrayList<String>();
+		List<String> ignoreCase = new ArrayList<String>();
+		List<Integer> exactNames = new ArrayList<Integer>();
+		List<Integer> ignoreCaseNames = new ArrayList<Integer>();
+		List<Boolean> exactWords = new ArrayList<Boolean>();
+		List<Boolean> ignoreCaseWords = new ArrayList<Boolean>();
+		List<Integer> groupNames = new ArrayList<Integer>();
+		StringBuilder regex = new StringBuilder();
+
+		String line;
+		int lineNumber = 0;
+		while ((line = in.readLine()) != null) {
+
+			lineNumber++;
+			if (line.trim().length() == 0 || line.startsWith("#"))
+				continue;
+
+			String[] fields = line.split("\t", 3);
+			if (fields.length != 3 || fields[2].length() == 0)
+				throw new IOException("Malformed pattern at line " + lineNumber
+						+ " of " + source + ": " + line);
+
+			Integer index = nameIndex.get(fields[0]);
+			if (index == null) {
+				index = matcher.names.size();
+				nameIndex.put(fields[0], index);
+				matcher.names.add(fields[0]);
+			}
+
+			String type = fields[1];
+			boolean ic = type.endsWith(IGNORE_CASE);
+			if (ic)
+				type = type.substring(0, type.length() - IGNORE_CASE.length());
+
+			if (type.equals(REGEX)) {
+
+				int groups;
+				try {
+					groups = Pattern.compile(fields[2]).matcher("").groupCount();
+				} catch (PatternSyntaxException e) {
+					throw new IOException("Invalid regex at line " + lineNumber
+							+ " of " + source + ": " + e.getMessage());
+				}
+				if (regex.length() > 0)
+					regex.append('|');
+				regex.append(ic ? "((?i:" + fields[2] + "))" : "(" + fields[2] + ")");
+				groupNames.add(index);
+				for (int g = 0; g < groups; g++)
+					groupNames.add(-1);
+
+			} else if (type.equals(LITERAL) || type.equals(WORD)) {
+
+				if (ic) {
+					ignoreCase.add(toLowerCase(fields[2]));
+					ignoreCaseNames.add(index);
+					ignoreCaseWords.add(type.equals(WORD));
+				} else {
+					exact.add(fields[2]);
+					exactNames.add(index);
+					exactWords.add(type.equals(WORD));
+				}
+
+			} else {
+
+				throw new IOException("Unknown pattern type at line "
+						+ lineNumber + " of " + source + ": " + fields[1]);
+
+			}
+
+		}
+
+		if (!exact.isEmpty()) {
+			matcher.exact = new AhoCorasickAutomaton(exact);
+			matcher.exactNames = toIntArray(exactNames);
+			matcher.exactWords = toBooleanArray(exactWords);
+		}
+		if (!ignoreCase.isEmpty()) {
+			matcher.ignoreCase = new AhoCorasickAutomaton(ignoreCase);
+			matcher.ignoreCaseNames = toIntArray(ignoreCaseNames);
+			matcher.ignoreCaseWords = toBooleanArray(ignoreCaseWords);
+		}
+		if (regex.length() > 0) {
+			matcher.regex = Pattern.compile(regex.toString());
+			matcher.groupNames = toIntArray(groupNames);
+		}
+
+		return matcher;
+
+	}
+
+	/**
+	 * Returns the number of matches of each pattern name in the text.
+	 */
+	public int[] count(CharSequence text) {
+
+		int[] counts = new int[names.size()];
+
+		if (exact != null || ignoreCase != null) {
+
+			int es = 0, is = 0;
+			for (int i = 0; i < text.length(); i++) {
+
+				char c = text.charAt(i);
+
+				if (exact != null) {
+					es = exact.next(es, c);
+					for (int id : exact.getOutputs(es)) {
+						if (!exactWords[id]
+								|| isWord(text, i + 1 - exact.getLength(id), i + 1))
+							counts[exactNames[id]]++;
+					}
+				}
+
+				if (ignoreCase != null) {
+					is = ignoreCase.next(is, Character.toLowerCase(c));
+					for (int id : ignoreCase.getOutputs(is)) {
+						if (!ignoreCaseWords[id]
+								|| isWord(text, i + 1 - ignoreCase.getLength(id), i + 1))
+							counts[ignoreCaseNames[id]]++;
+					}
+				}
+
+			}
+
+		}
+
+		if (regex != null) {
+			Matcher m = regex.matcher(text);
+			while (m.find()) {
+				for (int g = 1; g <= groupNames.length; g++) {
+					if (groupNames[g - 1] >= 0 && m.start(g) != -1) {
+						counts[groupNames[g - 1]]++;
+						break;
+					}
+				}
+			}
+		}
+
+		return counts;
+
+	}
+
+	/**
+	 * Returns one feature per pattern name found in the text, named after it
+	 * and valued with its count.
+	 */
+	public List<Feature> countFeatures(CharSequence text) {
+
+		int[] counts = this.count(text);
+		List<Feature> features = new ArrayList<Feature>();
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] > 0)
+				features.add(new Feature(names.get(i), counts[i]));
+		}
+		return features;
+
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	/**
+	 * Lower cases the characters one by one, as they are when matching.
+	 */
+	private static String toLowerCase(String s) {
+		char[] chars = s.toCharArray();
+		for (int i = 0; i < chars.length; i++)
+			chars[i] = Character.toLowerCase(chars[i]);
+		return new String(chars);
+	}
+
+	private static boolean isWord(CharSequence text, int begin, int end) {
+		return (begin == 0 || !Character.isLetterOrDigit(text.charAt(begin - 1)))
+				&& (end == text.length() || !Character.isLetterOrDigit(text
+						.charAt(end)));
+	}
+
+	private static int[] toIntArray(List<Integer> list) {
+		int[] a = new int[list.size()];
+		for (int i = 0; i < a.length; i++)
+			a[i] = list.get(i);
+		return a;
+	}
+
+	private static boolean[] toBooleanArray(List<Boolean> list) {
+		boolean[] a = new boolean[list.size()];
+		for (int i = 0; i < a.length; i++)
+			a[i] = list.get(i);
+		return a;
+	}
+
+}
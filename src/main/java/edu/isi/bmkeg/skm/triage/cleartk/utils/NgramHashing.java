@@ -0,0 +1,125 @@
+package edu.isi.bmkeg.skm.triage.cleartk.utils;
+
+/**
+ * Hash functions for the hashing trick over token n-grams.
+ *
+ * Tokens are hashed straight from the document text (MurmurHash3, 32 bits,
+ * one 16 bit char at a time) so that no String is allocated per token, and
+ * bigrams are hashed by mixing the hashes of their two tokens. The low bits
+ * of the final hash give the bucket and the top bit gives the sign used to
+ * reduce the bias of collisions.
+ *
+ * 64 bit fingerprints, made of two 32 bit hashes with different seeds, are
+ * used where collisions must be negligible (see {@link NgramVocabulary}).
+ */
+public class NgramHashing {
+
+	public static final int UNIGRAM_SEED = 0x2f1a3b5d;
+
+	public static final int BIGRAM_SEED = 0x5bd1e995;
+
+	private static final int FINGERPRINT_SEED = 0x7fb5d329;
+
+	private static final int BIGRAM_FINGERPRINT_SEED = 0x3c6ef372;
+
+	private static final int C1 = 0xcc9e2d51;
+
+	private static final int C2 = 0x1b873593;
+
+	private NgramHashing() {
+	}
+
+	/**
+	 * Hashes the characters of s between begin (inclusive) and end
+	 * (exclusive).
+	 */
+	public static int hash(CharSequence s, int begin, int end, int seed) {
+
+		int h = seed;
+		for (int i = begin; i < end; i++) {
+			h = mixH(h, mixK(s.charAt(i)));
+		}
+		return fmix(h ^ (end - begin));
+
+	}
+
+	/**
+	 * Hashes an ordered pair of token hashes (e.g., a bigram).
+	 */
+	public static int combine(int h1, int h2, int seed) {
+
+		int h = seed;
+		h = mixH(h, mixK(h1));
+		h = mixH(h, mixK(h2));
+		return fmix(h ^ 8);
+
+	}
+
+	/**
+	 * 64 bit fingerprint of the characters of s between begin (inclusive) and
+	 * end (exclusive).
+	 */
+	public static long fingerprint(CharSequence s, int begin, int end) {
+
+		int h1 = UNIGRAM_SEED, h2 = FINGERPRINT_SEED;
+		for (int i = begin; i < end; i++) {
+			int k = mixK(s.charAt(i));
+			h1 = mixH(h1, k);
+			h2 = mixH(h2, k);
+		}
+		return toLong(fmix(h1 ^ (end - begin)), fmix(h2 ^ (end - begin)));
+
+	}
+
+	/**
+	 * Fingerprint of an ordered pair of fingerprints (e.g., a bigram).
+	 */
+	public static long combineFingerprints(long f1, long f2) {
+
+		return toLong(
+				combine((int) (f1 >>> 32), (int) (f2 >>> 32), BIGRAM_SEED),
+				combine((int) f1, (int) f2, BIGRAM_FINGERPRINT_SEED));
+
+	}
+
+	/**
+	 * @param bits
+	 *            log2 of the number of buckets, at most 30
+	 */
+	public static int bucket(int hash, int bits) {
+		return hash & ((1 << bits) - 1);
+	}
+
+	public static int sign(int hash) {
+		return hash < 0 ? -1 : 1;
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	private static int mixK(int k) {
+		k *= C1;
+		k = Integer.rotateLeft(k, 15);
+		k *= C2;
+		return k;
+	}
+
+	private static int mixH(int h, int k) {
+		h ^= k;
+		h = Integer.rotateLeft(h, 13);
+		return h * 5 + 0xe6546b64;
+	}
+
+	private static long toLong(int high, int low) {
+		return ((long) high << 32) | (low & 0xffffffffL);
+	}
+
+	private static int fmix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+}
@@ -0,0 +1,265 @@
+package edu.isi.bmkeg.skm.triage.cleartk.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maps the n-grams seen at training time to dense int ids.
+ *
+ * N-grams are identified by their 64 bit fingerprint (see
+ * {@link NgramHashing#fingerprint(CharSequence, int, int)}), so looking up a
+ * token never requires its String. The vocabulary is stored next to model.jar
+ * as a sorted array of fingerprints followed by the matching ids, which is
+ * memory-mapped and binary searched at prediction time instead of being
+ * loaded on the heap. The n-grams themselves are written to a separate text
+ * file (one per line, in id order) that is only read to explain features.
+ *
+ * A vocabulary is built during training with a {@link Builder}. Opened
+ * vocabularies are read-only and may be shared between threads.
+ */
+public class NgramVocabulary {
+
+	public static final String VOCABULARY_FILE = "vocabulary.bin";
+
+	private static final int MAGIC = 0x4e475643; // "NGVC"
+
+	private LongBuffer fingerprints;
+
+	private IntBuffer ids;
+
+	private int size;
+
+	private NgramVocabulary() {
+	}
+
+	/**
+	 * Memory-maps a vocabulary written by {@link Builder#write(File)}.
+	 */
+	public static NgramVocabulary open(File file) throws IOException {
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+
+			if (buf.getInt(0) != MAGIC)
+				throw new IOException(file.getPath() + " is not an n-gram vocabulary");
+
+			NgramVocabulary vocabulary = new NgramVocabulary();
+			vocabulary.size = buf.getInt(4);
+
+			buf.position(8);
+			vocabulary.fingerprints = buf.slice().asLongBuffer();
+			buf.position(8 + 8 * vocabulary.size);
+			vocabulary.ids = buf.slice().asIntBuffer();
+
+			if (vocabulary.fingerprints.limit() < vocabulary.size
+					|| vocabulary.ids.limit() < vocabulary.size)
+				throw new IOException(file.getPath() + " is truncated");
+
+			// the mapping stays valid once the file is closed
+			return vocabulary;
+
+		} finally {
+			raf.close();
+		}
+
+	}
+
+	/**
+	 * The file holding the n-grams of the given vocabulary file.
+	 */
+	public static File getTermsFile(File vocabularyFile) {
+		String name = vocabularyFile.getName();
+		if (name.endsWith(".bin"))
+			name = name.substring(0, name.length() - 4);
+		return new File(vocabularyFile.getParentFile(), name + ".terms");
+	}
+
+	/**
+	 * Reads the n-grams of the given vocabulary file, indexed by id.
+	 */
+	public static List<String> readTerms(File vocabularyFile) throws IOException {
+
+		List<String> terms = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(getTermsFile(vocabularyFile)), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null)
+				terms.add(line);
+		} finally {
+			in.close();
+		}
+		return terms;
+
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~
+	// Getters
+	// ~~~~~~~~~~~~~~~~~~~
+	public int size() {
+		return size;
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	/**
+	 * Returns the id of the n-gram with the given fingerprint, or -1 if it
+	 * was not seen at training time.
+	 */
+	public int getId(long fingerprint) {
+
+		int low = 0, high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long f = fingerprints.get(mid);
+			if (f < fingerprint)
+				low = mid + 1;
+			else if (f > fingerprint)
+				high = mid - 1;
+			else
+				return ids.get(mid);
+		}
+		return -1;
+
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	/**
+	 * Assigns ids to n-grams in the order they are first added.
+	 */
+	public static class Builder {
+
+		private long[] keys = new long[1 << 16];
+
+		/**
+		 * ids by slot, -1 for empty slots.
+		 */
+		private int[] slots = new int[1 << 16];
+
+		private long[] fingerprintsById = new long[1 << 15];
+
+		private List<String> terms = new ArrayList<String>();
+
+		public Builder() {
+			Arrays.fill(slots, -1);
+		}
+
+		public int size() {
+			return terms.size();
+		}
+
+		/**
+		 * Returns the id of the n-gram with the given fingerprint, or -1 if it
+		 * hasn't been added yet.
+		 */
+		public int getId(long fingerprint) {
+			return slots[this.find(fingerprint)];
+		}
+
+		/**
+		 * Adds a new n-gram and returns its id.
+		 */
+		public int add(long fingerprint, String term) {
+
+			int slot = this.find(fingerprint);
+			if (slots[slot] != -1)
+				return slots[slot];
+
+			int id = terms.size();
+			if ((id + 1) * 2 > keys.length) {
+				this.rehash();
+				slot = this.find(fingerprint);
+			}
+			if (id == fingerprintsById.length)
+				fingerprintsById = Arrays.copyOf(fingerprintsById, id * 2);
+
+			keys[slot] = fingerprint;
+			slots[slot] = id;
+			fingerprintsById[id] = fingerprint;
+			terms.add(term);
+			return id;
+
+		}
+
+		/**
+		 * Writes the vocabulary and its terms file.
+		 */
+		public void write(File file) throws IOException {
+
+			int n = terms.size();
+			long[] sorted = Arrays.copyOf(fingerprintsById, n);
+			Arrays.sort(sorted);
+
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(file)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(n);
+				for (long f : sorted)
+					out.writeLong(f);
+				for (long f : sorted)
+					out.writeInt(this.getId(f));
+			} finally {
+				out.close();
+			}
+
+			Writer w = new OutputStreamWriter(new BufferedOutputStream(
+					new FileOutputStream(getTermsFile(file))), "UTF-8");
+			try {
+				for (String term : terms) {
+					w.write(term);
+					w.write('\n');
+				}
+			} finally {
+				w.close();
+			}
+
+		}
+
+		private int find(long fingerprint) {
+			int mask = keys.length - 1;
+			int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+			while (slots[slot] != -1 && keys[slot] != fingerprint)
+				slot = (slot + 1) & mask;
+			return slot;
+		}
+
+		private void rehash() {
+
+			int n = terms.size();
+			keys = new long[keys.length * 2];
+			slots = new int[keys.length];
+			Arrays.fill(slots, -1);
+
+			for (int id = 0; id < n; id++) {
+				int slot = this.find(fingerprintsById[id]);
+				keys[slot] = fingerprintsById[id];
+				slots[slot] = id;
+			}
+
+		}
+
+	}
+
+}
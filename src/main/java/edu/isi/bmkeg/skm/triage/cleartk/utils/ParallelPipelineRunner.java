@@ -0,0 +1,439 @@
+package edu.isi.bmkeg.skm.triage.cleartk.utils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.apache.uima.UIMAFramework;
+import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.analysis_engine.AnalysisEngineDescription;
+import org.apache.uima.collection.CollectionReader;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.ResourceManager;
+import org.apache.uima.resource.ResourceSpecifier;
+import org.apache.uima.resource.metadata.ProcessingResourceMetaData;
+import org.apache.uima.util.CasCreationUtils;
+import org.apache.uima.util.InvalidXMLException;
+import org.cleartk.ml.CleartkAnnotator;
+import org.cleartk.opennlp.tools.SentenceAnnotator;
+import org.cleartk.token.tokenizer.TokenAnnotator;
+import org.uimafit.component.ViewTextCopierAnnotator;
+
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.CachingSnowballStemmer;
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.GoldDocumentCategoryAnnotator;
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.TriageDocumentGoldDocumentCategoryAnnotator;
+
+/**
+ * Runs the documents of a collection reader through a sequence of stages
+ * (analysis engine descriptions) on several threads, replacing JCasIterable
+ * and SimplePipeline.runPipeline in the triage command line tools.
+ *
+ * A stage is replicated, one instance per worker thread, if all of its
+ * annotators are registered as replicable (see {@link #registerReplicable})
+ * or are ClearTK annotators in classification mode. Annotators that write a
+ * single output or accumulate state over the collection (data writers,
+ * training annotators, file writers, database checkpoints...) are not. The
+ * first stage that is not replicable and all the stages after it are
+ * created once and run on the calling thread, in reader order, as each
+ * document comes out of the replicated stages.
+ *
+ * Documents are read into a pool of 2 * threads CASes. They are returned by
+ * the iterator in reader order if ordered is set (the default), else as soon
+ * as they are done. A returned JCas is recycled when the iteration moves on.
+ * When the reader is exhausted, collectionProcessComplete() is called on
+ * every engine and the reader is closed. With a single thread everything
+ * runs on the calling thread, like JCasIterable.
+ */
+public class ParallelPipelineRunner implements Iterable<JCas> {
+
+	private static Logger logger = Logger.getLogger(ParallelPipelineRunner.class);
+
+	private static Set<Class<?>> replicable = new HashSet<Class<?>>();
+
+	static {
+		registerReplicable(SentenceAnnotator.class, TokenAnnotator.class,
+				CachingSnowballStemmer.class, ViewTextCopierAnnotator.class,
+				GoldDocumentCategoryAnnotator.class,
+				TriageDocumentGoldDocumentCategoryAnnotator.class);
+	}
+
+	private CollectionReader reader;
+
+	private int threads;
+
+	private boolean ordered = true;
+
+	private ResourceManager resourceManager;
+
+	private List<AnalysisEngineDescription> stages = new ArrayList<AnalysisEngineDescription>();
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	/**
+	 * Replica chains (one engine per replicated stage) not in use.
+	 */
+	private BlockingQueue<AnalysisEngine[]> replicas;
+
+	private List<AnalysisEngine[]> allReplicas = new ArrayList<AnalysisEngine[]>();
+
+	private AnalysisEngine[] serial;
+
+	private LinkedList<JCas> free = new LinkedList<JCas>();
+
+	private ExecutorService executor;
+
+	private CompletionService<JCas> completion;
+
+	private LinkedList<Future<JCas>> inFlight = new LinkedList<Future<JCas>>();
+
+	private JCas current;
+
+	private JCas ready;
+
+	private boolean started = false;
+
+	private boolean finished = false;
+
+	private boolean released = false;
+
+	public ParallelPipelineRunner(CollectionReader reader, int threads) {
+		this.reader = reader;
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Declares annotators that can be run as several independent instances
+	 * on different threads.
+	 */
+	public static synchronized void registerReplicable(Class<?>... classes) {
+		for (Class<?> c : classes)
+			replicable.add(c);
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~
+	// Getters and Setters
+	// ~~~~~~~~~~~~~~~~~~~
+	public int getThreads() {
+		return threads;
+	}
+
+	public boolean isOrdered() {
+		return ordered;
+	}
+
+	public void setOrdered(boolean ordered) {
+		this.ordered = ordered;
+	}
+
+	/**
+	 * Sets the ResourceManager the engines are created with, e.g., to share
+	 * external resources with the reader.
+	 */
+	public void setResourceManager(ResourceManager resourceManager) {
+		this.resourceManager = resourceManager;
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	/**
+	 * Appends a stage to the pipeline. Empty aggregates (e.g., when no
+	 * preprocessing is needed) are skipped.
+	 */
+	public ParallelPipelineRunner add(AnalysisEngineDescription stage)
+			throws InvalidXMLException {
+		if (started)
+			throw new IllegalStateException("Pipeline already started");
+		if (stage.isPrimitive()
+				|| !stage.getDelegateAnalysisEngineSpecifiers().isEmpty())
+			stages.add(stage);
+		return this;
+	}
+
+	/**
+	 * Runs every document through the pipeline.
+	 */
+	public void run() {
+		for (Iterator<JCas> it = this.iterator(); it.hasNext();)
+			it.next();
+	}
+
+	/**
+	 * Returns whether every annotator of the description can be replicated.
+	 */
+	public static synchronized boolean isReplicable(
+			AnalysisEngineDescription desc) throws Exception {
+
+		if (!desc.isPrimitive()) {
+			for (ResourceSpecifier delegate : desc
+					.getDelegateAnalysisEngineSpecifiers().values()) {
+				if (!(delegate instanceof AnalysisEngineDescription)
+						|| !isReplicable((AnalysisEngineDescription) delegate))
+					return false;
+			}
+			return true;
+		}
+
+		Class<?> c = Class.forName(desc.getAnnotatorImplementationName());
+		if (CleartkAnnotator.class.isAssignableFrom(c)) {
+			Object training = desc.getAnalysisEngineMetaData()
+					.getConfigurationParameterSettings()
+					.getParameterValue(CleartkAnnotator.PARAM_IS_TRAINING);
+			return Boolean.FALSE.equals(training);
+		}
+		return replicable.contains(c);
+
+	}
+
+	public Iterator<JCas> iterator() {
+
+		if (started)
+			throw new IllegalStateException("Pipeline already started");
+
+		return new Iterator<JCas>() {
+
+			public boolean hasNext() {
+				try {
+					return advance();
+				} catch (Exception e) {
+					release();
+					if (e instanceof RuntimeException)
+						throw (RuntimeException) e;
+					throw new RuntimeException(e);
+				}
+			}
+
+			public JCas next() {
+				if (!this.hasNext())
+					throw new NoSuchElementException();
+				current = ready;
+				ready = null;
+				return current;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+		};
+
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	private void start() throws Exception {
+
+		started = true;
+
+		//
+		// stages are replicated up to the first one that can't be
+		//
+		int nReplicated = 0;
+		if (threads > 1) {
+			while (nReplicated < stages.size()
+					&& isReplicable(stages.get(nReplicated)))
+				nReplicated++;
+			if (nReplicated < stages.size())
+				logger.info("Stages " + (nReplicated + 1) + " to "
+						+ stages.size() + " are not replicable and run on a "
+						+ "single instance.");
+		}
+
+		List<ProcessingResourceMetaData> metaData = new ArrayList<ProcessingResourceMetaData>();
+		metaData.add(reader.getProcessingResourceMetaData());
+
+		if (nReplicated > 0) {
+			replicas = new LinkedBlockingQueue<AnalysisEngine[]>();
+			for (int t = 0; t < threads; t++) {
+				AnalysisEngine[] chain = new AnalysisEngine[nReplicated];
+				for (int i = 0; i < nReplicated; i++)
+					chain[i] = this.produce(stages.get(i));
+				replicas.add(chain);
+				allReplicas.add(chain);
+			}
+			for (AnalysisEngine ae : allReplicas.get(0))
+				metaData.add(ae.getProcessingResourceMetaData());
+
+			executor = Executors.newFixedThreadPool(threads,
+					new ThreadFactory() {
+						private int n = 0;
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, "triage-pipeline-" + (n++));
+							t.setDaemon(true);
+							return t;
+						}
+					});
+			completion = new ExecutorCompletionService<JCas>(executor);
+		}
+
+		serial = new AnalysisEngine[stages.size() - nReplicated];
+		for (int i = 0; i < serial.length; i++) {
+			serial[i] = this.produce(stages.get(nReplicated + i));
+			metaData.add(serial[i].getProcessingResourceMetaData());
+		}
+
+		int poolSize = (nReplicated > 0) ? 2 * threads : 1;
+		for (int i = 0; i < poolSize; i++)
+			free.add(CasCreationUtils.createCas(metaData).getJCas());
+
+	}
+
+	private AnalysisEngine produce(AnalysisEngineDescription desc)
+			throws Exception {
+		if (resourceManager != null)
+			return UIMAFramework.produceAnalysisEngine(desc, resourceManager,
+					null);
+		return UIMAFramework.produceAnalysisEngine(desc);
+	}
+
+	/**
+	 * Moves the pipeline forward until a document is ready, returning false
+	 * once every document has been returned.
+	 */
+	private boolean advance() throws Exception {
+
+		if (ready != null)
+			return true;
+		if (finished)
+			return false;
+		if (!started)
+			this.start();
+
+		if (current != null) {
+			current.reset();
+			free.add(current);
+			current = null;
+		}
+
+		if (executor == null) {
+
+			if (!reader.hasNext()) {
+				this.finish();
+				return false;
+			}
+			JCas jCas = free.removeFirst();
+			reader.getNext(jCas.getCas());
+			ready = this.runSerial(jCas);
+			return true;
+
+		}
+
+		//
+		// keep every free CAS busy, then wait for the next document out
+		//
+		while (!free.isEmpty() && reader.hasNext()) {
+			JCas jCas = free.removeFirst();
+			reader.getNext(jCas.getCas());
+			this.submit(jCas);
+		}
+
+		if (inFlight.isEmpty()) {
+			this.finish();
+			return false;
+		}
+
+		Future<JCas> done;
+		if (ordered) {
+			done = inFlight.removeFirst();
+		} else {
+			done = completion.take();
+			inFlight.remove(done);
+		}
+
+		try {
+			ready = this.runSerial(done.get());
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
+		return true;
+
+	}
+
+	private void submit(final JCas jCas) {
+
+		Callable<JCas> task = new Callable<JCas>() {
+			public JCas call() throws Exception {
+				AnalysisEngine[] chain = replicas.take();
+				try {
+					for (AnalysisEngine ae : chain)
+						ae.process(jCas);
+				} finally {
+					replicas.add(chain);
+				}
+				return jCas;
+			}
+		};
+		// in ordered mode documents are waited for in submission order
+		inFlight.add(ordered ? executor.submit(task) : completion.submit(task));
+
+	}
+
+	private JCas runSerial(JCas jCas) throws Exception {
+		for (AnalysisEngine ae : serial)
+			ae.process(jCas);
+		return jCas;
+	}
+
+	private void finish() throws Exception {
+
+		finished = true;
+		try {
+			for (AnalysisEngine[] chain : allReplicas)
+				for (AnalysisEngine ae : chain)
+					ae.collectionProcessComplete();
+			for (AnalysisEngine ae : serial)
+				ae.collectionProcessComplete();
+		} finally {
+			this.release();
+		}
+
+	}
+
+	/**
+	 * Stops the workers and releases the engines and the reader.
+	 */
+	private void release() {
+
+		if (released)
+			return;
+		released = finished = true;
+		if (executor != null) {
+			executor.shutdownNow();
+			try {
+				executor.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		for (AnalysisEngine[] chain : allReplicas)
+			for (AnalysisEngine ae : chain)
+				ae.destroy();
+		if (serial != null)
+			for (AnalysisEngine ae : serial)
+				ae.destroy();
+		try {
+			reader.close();
+		} catch (Exception e) {
+			logger.warn("Error closing the reader: " + e.getMessage());
+		}
+
+	}
+
+}
@@ -0,0 +1,139 @@
+package edu.isi.bmkeg.skm.triage.cleartk.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Properties;
+
+/**
+ * Progress of a long run over a target corpus (e.g., prediction or feature
+ * extraction), persisted as a small properties file so that an interrupted
+ * run can be resumed.
+ *
+ * Documents are read in citation_id order, so the checkpoint only records the
+ * last citation_id whose results have been committed, together with the model
+ * the run was using and an identifier for the run itself.
+ */
+public class RunCheckpoint {
+
+	private static final String RUN_ID = "runId";
+	private static final String MODEL_ID = "modelId";
+	private static final String LAST_CITATION_ID = "lastCitationId";
+	private static final String PROCESSED = "processed";
+
+	private File file;
+
+	private String runId;
+
+	private String modelId;
+
+	private long lastCitationId = -1;
+
+	private long processed = 0;
+
+	public RunCheckpoint(File file, String modelId) {
+		this.file = file;
+		this.modelId = modelId;
+		this.runId = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+	}
+
+	/**
+	 * Reads the checkpoint stored in the given file, or returns null if there
+	 * is none.
+	 */
+	public static RunCheckpoint load(File file) throws IOException {
+
+		if (!file.exists())
+			return null;
+
+		Properties p = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			p.load(in);
+		} finally {
+			in.close();
+		}
+
+		RunCheckpoint cp = new RunCheckpoint(file, p.getProperty(MODEL_ID));
+		cp.runId = p.getProperty(RUN_ID);
+		cp.lastCitationId = Long.parseLong(p.getProperty(LAST_CITATION_ID, "-1"));
+		cp.processed = Long.parseLong(p.getProperty(PROCESSED, "0"));
+		return cp;
+
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~
+	// Getters and Setters
+	// ~~~~~~~~~~~~~~~~~~~
+	public File getFile() {
+		return file;
+	}
+
+	public String getRunId() {
+		return runId;
+	}
+
+	public String getModelId() {
+		return modelId;
+	}
+
+	public long getLastCitationId() {
+		return lastCitationId;
+	}
+
+	public long getProcessed() {
+		return processed;
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	/**
+	 * Records that every document up to (and including) the given citation has
+	 * been committed and writes the checkpoint to disk.
+	 */
+	public void save(long lastCitationId, long processed) throws IOException {
+
+		this.lastCitationId = lastCitationId;
+		this.processed = processed;
+
+		Properties p = new Properties();
+		p.setProperty(RUN_ID, runId);
+		if (modelId != null)
+			p.setProperty(MODEL_ID, modelId);
+		p.setProperty(LAST_CITATION_ID, String.valueOf(lastCitationId));
+		p.setProperty(PROCESSED, String.valueOf(processed));
+
+		// write a temporary file first so an interruption never leaves a
+		// truncated checkpoint behind.
+		File tmp = new File(file.getPath() + ".tmp");
+		OutputStream out = new FileOutputStream(tmp);
+		try {
+			p.store(out, "Checkpoint of triage run " + runId);
+		} finally {
+			out.close();
+		}
+		if (file.exists() && !file.delete())
+			throw new IOException("Can't replace checkpoint " + file.getPath());
+		if (!tmp.renameTo(file))
+			throw new IOException("Can't write checkpoint " + file.getPath());
+
+	}
+
+	/**
+	 * Removes the checkpoint once the run has completed.
+	 */
+	public void delete() {
+		file.delete();
+	}
+
+	public String toString() {
+		return "run " + runId + " (model " + modelId + "): " + processed
+				+ " documents up to citation " + lastCitationId;
+	}
+
+}
@@ -0,0 +1,126 @@
+package edu.isi.bmkeg.skm.triage.cleartk.utils;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of word stems, shared by all the stemmers of a JVM that
+ * use the same stemming settings, so that the frequent words of a corpus are
+ * only stemmed once.
+ *
+ * The cache is split into segments, each guarded by its own lock, so that
+ * stemmers running in parallel pipelines rarely wait on each other.
+ */
+public class StemCache {
+
+	private static final int SEGMENTS = 16;
+
+	private static Map<String, StemCache> shared = new HashMap<String, StemCache>();
+
+	private Segment[] segments = new Segment[SEGMENTS];
+
+	private AtomicLong hits = new AtomicLong();
+
+	private AtomicLong misses = new AtomicLong();
+
+	@SuppressWarnings("serial")
+	private static class Segment extends LinkedHashMap<String, String> {
+
+		private int capacity;
+
+		Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > capacity;
+		}
+
+	}
+
+	public StemCache(int capacity) {
+		int perSegment = Math.max(1, capacity / SEGMENTS);
+		for (int i = 0; i < SEGMENTS; i++)
+			segments[i] = new Segment(perSegment);
+	}
+
+	/**
+	 * Returns the cache shared under the given name, creating it with the
+	 * given capacity if needed.
+	 */
+	public static synchronized StemCache getShared(String name, int capacity) {
+		StemCache cache = shared.get(name);
+		if (cache == null) {
+			cache = new StemCache(capacity);
+			shared.put(name, cache);
+		}
+		return cache;
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~
+	// Getters
+	// ~~~~~~~~~~~~~~~~~~~
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public double getHitRate() {
+		long h = hits.get(), m = misses.get();
+		return h + m == 0 ? 0 : (double) h / (h + m);
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment s : segments) {
+			synchronized (s) {
+				size += s.size();
+			}
+		}
+		return size;
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	/**
+	 * Returns the cached stem of the word, or null.
+	 */
+	public String get(String word) {
+
+		Segment s = this.segmentFor(word);
+		String stem;
+		synchronized (s) {
+			stem = s.get(word);
+		}
+		if (stem != null)
+			hits.incrementAndGet();
+		else
+			misses.incrementAndGet();
+		return stem;
+
+	}
+
+	public void put(String word, String stem) {
+		Segment s = this.segmentFor(word);
+		synchronized (s) {
+			s.put(word, stem);
+		}
+	}
+
+	public String toString() {
+		return String.format("%d stems cached, %d hits, %d misses (%.1f%% hit rate)",
+				this.size(), hits.get(), misses.get(), 100 * this.getHitRate());
+	}
+
+	private Segment segmentFor(String word) {
+		int h = word.hashCode();
+		return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+	}
+
+}
@@ -0,0 +1,150 @@
+package edu.isi.bmkeg.skm.triage.cleartk.utils;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.cleartk.opennlp.tools.SentenceAnnotator;
+import org.cleartk.token.tokenizer.TokenAnnotator;
+import org.uimafit.factory.AggregateBuilder;
+
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.BigramCountAnnotator;
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.CachingSnowballStemmer;
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.FeatureSelection_Annotator;
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.HashedUni_and_BigramCountAnnotator;
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.MutualInformation_Annotator;
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.SaveFeaturesToDbAnnotator;
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.SimpleOneLinePerDocWriter;
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.TfIdfCentroidAnnotator;
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.TfIdf_Annotator;
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.Uni_and_BigramCountAnnotator;
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.UnigramCountAnnotator;
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.mgi.AlleleMutantPatternAnnotator;
+
+/**
+ * The single definition of the NLP preprocessing run before the triage
+ * feature annotators, shared by training, prediction and evaluation so that
+ * documents are always tokenized the same way.
+ *
+ * Each feature annotator declares the annotation types it reads, and only
+ * the preprocessing components producing them are added to the pipeline
+ * (e.g., none of the n-gram annotators read stems, so the stemmer is not
+ * run for them). Annotators that haven't been registered get the full
+ * preprocessing. Stems are computed by a {@link CachingSnowballStemmer}.
+ */
+public class TriagePipelines {
+
+	private static Logger logger = Logger.getLogger(TriagePipelines.class);
+
+	/**
+	 * Annotation types produced by the preprocessing components.
+	 */
+	public static enum Requirement {
+		SENTENCES, TOKENS, STEMS
+	}
+
+	private static Map<Class<?>, EnumSet<Requirement>> requirements =
+			new HashMap<Class<?>, EnumSet<Requirement>>();
+
+	static {
+		register(UnigramCountAnnotator.class, Requirement.TOKENS);
+		register(BigramCountAnnotator.class, Requirement.TOKENS);
+		register(Uni_and_BigramCountAnnotator.class, Requirement.TOKENS);
+		register(HashedUni_and_BigramCountAnnotator.class, Requirement.TOKENS);
+		register(TfIdf_Annotator.class, Requirement.TOKENS);
+		register(MutualInformation_Annotator.class, Requirement.TOKENS);
+		register(FeatureSelection_Annotator.class, Requirement.TOKENS);
+		register(AlleleMutantPatternAnnotator.class, Requirement.TOKENS);
+		register(SaveFeaturesToDbAnnotator.class);
+		register(TfIdfCentroidAnnotator.class, Requirement.SENTENCES,
+				Requirement.TOKENS);
+		register(SimpleOneLinePerDocWriter.class, Requirement.SENTENCES,
+				Requirement.TOKENS);
+	}
+
+	private TriagePipelines() {
+	}
+
+	/**
+	 * Declares the annotation types read by an annotator.
+	 */
+	public static synchronized void register(Class<?> annotatorClass,
+			Requirement... needs) {
+		EnumSet<Requirement> set = EnumSet.noneOf(Requirement.class);
+		for (Requirement r : needs)
+			set.add(r);
+		requirements.put(annotatorClass, set);
+	}
+
+	/**
+	 * Returns the annotation types the given annotators need, including the
+	 * ones the preprocessing components themselves depend on: tokens are
+	 * found within sentences (TokenAnnotator's default window) and stems
+	 * are computed on tokens.
+	 */
+	public static EnumSet<Requirement> getRequirements(
+			Class<?>... annotatorClasses) {
+		return getRequirements(false, annotatorClasses);
+	}
+
+	/**
+	 * Same as {@link #getRequirements(Class...)}, leaving out the tokens if
+	 * the annotators tokenize the sentences themselves with a
+	 * {@link FastTokenizer} (unless they need stems).
+	 */
+	public static synchronized EnumSet<Requirement> getRequirements(
+			boolean fastTokenizer, Class<?>... annotatorClasses) {
+
+		EnumSet<Requirement> needs = EnumSet.noneOf(Requirement.class);
+		for (Class<?> c : annotatorClasses) {
+			EnumSet<Requirement> r = requirements.get(c);
+			if (r == null) {
+				logger.warn("No preprocessing requirements registered for "
+						+ c.getName() + ", running the full preprocessing.");
+				r = EnumSet.allOf(Requirement.class);
+			}
+			needs.addAll(r);
+		}
+
+		if (needs.contains(Requirement.STEMS))
+			needs.add(Requirement.TOKENS);
+		if (needs.contains(Requirement.TOKENS))
+			needs.add(Requirement.SENTENCES);
+
+		if (fastTokenizer && !needs.contains(Requirement.STEMS))
+			needs.remove(Requirement.TOKENS);
+
+		return needs;
+
+	}
+
+	/**
+	 * Adds the minimal preprocessing needed by the given feature annotators
+	 * to the builder.
+	 */
+	public static void addPreprocessing(AggregateBuilder builder,
+			Class<?>... annotatorClasses) throws Exception {
+		addPreprocessing(builder, false, annotatorClasses);
+	}
+
+	/**
+	 * Adds the minimal preprocessing needed by the given feature annotators
+	 * when they tokenize the text themselves (fastTokenizer) or not.
+	 */
+	public static void addPreprocessing(AggregateBuilder builder,
+			boolean fastTokenizer, Class<?>... annotatorClasses) throws Exception {
+
+		EnumSet<Requirement> needs = getRequirements(fastTokenizer,
+				annotatorClasses);
+
+		if (needs.contains(Requirement.SENTENCES))
+			builder.add(SentenceAnnotator.getDescription());
+		if (needs.contains(Requirement.TOKENS))
+			builder.add(TokenAnnotator.getDescription());
+		if (needs.contains(Requirement.STEMS))
+			builder.add(CachingSnowballStemmer.getDescription("English"));
+
+	}
+
+}
@@ -0,0 +1,193 @@
+package edu.isi.bmkeg.skm.triage.cleartk.utils;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.apache.uima.UIMAFramework;
+import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.analysis_engine.AnalysisEngineDescription;
+import org.apache.uima.collection.CollectionReader;
+import org.apache.uima.collection.CollectionReaderDescription;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.ResourceManager;
+import org.apache.uima.resource.metadata.ProcessingResourceMetaData;
+import org.apache.uima.util.CasCreationUtils;
+
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.SaveFeaturesToDbAnnotator;
+import edu.isi.bmkeg.skm.triage.cleartk.cr.TriageScoreCollectionReader;
+import edu.isi.bmkeg.triage.model.TriageFeature;
+
+/**
+ * Computes the explanation features of a single TriageScore when they are
+ * asked for (e.g., when a curator opens the score) rather than for a whole
+ * corpus in advance: the citation's text is read and run through the
+ * model's feature extractor, which annotates the features that weigh most
+ * on its score.
+ *
+ * Explanations are cached by score id for the current model. The pipeline
+ * is created on the first request and recreated, with an empty cache, when
+ * model.jar changes (i.e., the model is retrained).
+ *
+ * Requests are served one at a time.
+ */
+public class TriageScoreExplainer {
+
+	private static Logger logger = Logger.getLogger(TriageScoreExplainer.class);
+
+	public static final int DEFAULT_CACHE_SIZE = 1000;
+
+	private CollectionReaderDescription readerDescription;
+
+	private AnalysisEngineDescription engineDescription;
+
+	private ResourceManager resourceManager;
+
+	private File modelJar;
+
+	private AnalysisEngine engine;
+
+	private JCas jCas;
+
+	private boolean loaded;
+
+	/**
+	 * model.jar's modification time when the engine was created.
+	 */
+	private long modelTimestamp;
+
+	private Map<Long, List<TriageFeature>> cache;
+
+	/**
+	 * @param readerDescription
+	 *            a TriageScoreCollectionReader of the target corpus
+	 * @param engineDescription
+	 *            the preprocessing and feature extractor of the model, set to
+	 *            add ExplanationFeatures
+	 */
+	public TriageScoreExplainer(CollectionReaderDescription readerDescription,
+			AnalysisEngineDescription engineDescription,
+			ResourceManager resourceManager, File modelJar, final int cacheSize) {
+
+		this.readerDescription = readerDescription;
+		this.engineDescription = engineDescription;
+		this.resourceManager = resourceManager;
+		this.modelJar = modelJar;
+
+		this.cache = new LinkedHashMap<Long, List<TriageFeature>>(16, 0.75f,
+				true) {
+			protected boolean removeEldestEntry(
+					Map.Entry<Long, List<TriageFeature>> eldest) {
+				return size() > cacheSize;
+			}
+		};
+
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~
+	// Getters
+	// ~~~~~~~~~~~~~~~~~~~
+	public synchronized int getCachedScores() {
+		return cache.size();
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	/**
+	 * Returns the explanation features of a TriageScore of the target corpus,
+	 * from the one that weighs most on its score, or an empty list if the
+	 * score or its text can't be found.
+	 */
+	public synchronized List<TriageFeature> explain(long scoreId)
+			throws Exception {
+
+		if (scoreId < 0)
+			throw new IllegalArgumentException("Invalid score id " + scoreId);
+
+		if (!this.loaded || this.modelTimestamp != this.modelJar.lastModified()) {
+			this.destroy();
+			this.modelTimestamp = this.modelJar.lastModified();
+			this.createEngine();
+			this.loaded = true;
+		}
+
+		List<TriageFeature> features = this.cache.get(scoreId);
+		if (features != null)
+			return features;
+
+		long t = System.currentTimeMillis();
+		features = this.computeExplanation(scoreId);
+		logger.debug("Explained score " + scoreId + " in "
+				+ (System.currentTimeMillis() - t) + " ms");
+
+		this.cache.put(scoreId, features);
+		return features;
+
+	}
+
+	/**
+	 * Releases the pipeline and the cache.
+	 */
+	public synchronized void destroy() {
+		if (this.engine != null)
+			this.engine.destroy();
+		this.engine = null;
+		this.jCas = null;
+		this.loaded = false;
+		this.cache.clear();
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	/**
+	 * Creates the pipeline for the current model.
+	 */
+	protected void createEngine() throws Exception {
+
+		this.engine = UIMAFramework.produceAnalysisEngine(
+				this.engineDescription, this.resourceManager, null);
+		this.jCas = CasCreationUtils.createCas(
+				Arrays.<ProcessingResourceMetaData> asList(
+						this.readerDescription.getCollectionReaderMetaData(),
+						this.engine.getProcessingResourceMetaData())).getJCas();
+
+		logger.info("Loaded the explanation pipeline for " + this.modelJar);
+
+	}
+
+	/**
+	 * Reads the citation of a score and runs it through the pipeline.
+	 */
+	protected List<TriageFeature> computeExplanation(long scoreId)
+			throws Exception {
+
+		CollectionReaderDescription desc = (CollectionReaderDescription)
+				this.readerDescription.clone();
+		desc.getCollectionReaderMetaData().getConfigurationParameterSettings()
+				.setParameterValue(TriageScoreCollectionReader.SCORE_ID,
+						Long.toString(scoreId));
+
+		CollectionReader cr = UIMAFramework.produceCollectionReader(desc,
+				this.resourceManager, null);
+		try {
+
+			if (!cr.hasNext())
+				return Collections.emptyList();
+
+			this.jCas.reset();
+			cr.getNext(this.jCas.getCas());
+			this.engine.process(this.jCas);
+			return SaveFeaturesToDbAnnotator.getExplanationFeatures(this.jCas);
+
+		} finally {
+			cr.close();
+			cr.destroy();
+		}
+
+	}
+
+}
@@ -8,11 +8,11 @@ import java.io.FileNotFoundException;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -21,38 +21,82 @@ import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
 import org.apache.uima.resource.DataResource;
+import org.apache.uima.resource.ExternalResourceDescription;
 import org.apache.uima.resource.ResourceInitializationException;
 import org.apache.uima.resource.SharedResourceObject;
+import org.apache.uima.resource.metadata.ConfigurationParameterSettings;
+import org.uimafit.factory.ExternalResourceFactory;
 
 import edu.isi.bmkeg.digitalLibrary.controller.DigitalLibraryEngine;
 import edu.isi.bmkeg.digitalLibrary.model.citations.ArticleCitation;
 import edu.isi.bmkeg.digitalLibrary.model.citations.Corpus;
 import edu.isi.bmkeg.digitalLibrary.model.citations.Journal;
-import edu.isi.bmkeg.digitalLibrary.model.qo.citations.Corpus_qo;
 import edu.isi.bmkeg.digitalLibrary.utils.pubmed.EFetcher;
 import edu.isi.bmkeg.skm.triage.dao.TriageDaoEx;
+import edu.isi.bmkeg.skm.triage.dao.vpdmf.JdbcConnectionFactory;
+import edu.isi.bmkeg.skm.triage.dao.vpdmf.JdbcConnectionPool;
+import edu.isi.bmkeg.skm.triage.dao.vpdmf.TriageSession;
 import edu.isi.bmkeg.skm.triage.dao.vpdmf.TriageDaoExImpl;
 import edu.isi.bmkeg.skm.triage.model.TriageCode;
 import edu.isi.bmkeg.triage.dao.TriageDao;
 import edu.isi.bmkeg.triage.dao.impl.TriageDaoImpl;
 import edu.isi.bmkeg.triage.model.TriageCorpus;
-import edu.isi.bmkeg.triage.model.TriageFeature;
-import edu.isi.bmkeg.triage.model.TriageScore;
 import edu.isi.bmkeg.triage.model.qo.TriageCorpus_qo;
 import edu.isi.bmkeg.utils.Converters;
 import edu.isi.bmkeg.vpdmf.controller.queryEngineTools.ChangeEngineImpl;
 import edu.isi.bmkeg.vpdmf.dao.CoreDao;
 import edu.isi.bmkeg.vpdmf.model.instances.LightViewInstance;
 
+/**
+ * When used in a UIMA pipeline, a single TriageEngine is bound as an external
+ * resource (see {@link #getResourceDescription}) to the components that need
+ * the database, so the VPDMf spec is read once and connections come from a 
+ * shared pool. Components running in parallel each open their own
+ * {@link TriageSession} rather than sharing the ChangeEngine's connection.
+ *
+ * UIMA never unloads shared resources, so the components bound to the engine
+ * {@link #retain()} it when they are initialized and {@link #release()} it 
+ * when they are closed; the pool is closed when the last one releases it.
+ */
 public class TriageEngine extends DigitalLibraryEngine 
 		implements SharedResourceObject {
 
 	private static Logger logger = Logger.getLogger(TriageEngine.class);
 
+	/**
+	 * Key under which components declare the engine as an external resource.
+	 */
+	public static final String RESOURCE_KEY = "triageEngine";
+
+	public static final String PARAM_LOGIN = "login";
+
+	public static final String PARAM_PASSWORD = "password";
+
+	public static final String PARAM_DB_NAME = "dbName";
+
+	public static final String PARAM_WORKING_DIRECTORY = "workingDirectory";
+
+	public static final String PARAM_POOL_SIZE = "poolSize";
+
+	public static final int DEFAULT_POOL_SIZE = 8;
+
 	private TriageDaoEx exTriageDao;
 
 	private TriageDao triageDao;
 
+	private JdbcConnectionPool connectionPool;
+
+	/**
+	 * Number of pipeline components currently using the pool.
+	 */
+	private int users = 0;
+
+	/**
+	 * If set, code lists update the scores documents already have in a
+	 * corpus rather than adding new ones.
+	 */
+	private boolean upsertScores = false;
+
 	public TriageEngine() throws Exception {
 		super();
 	}
@@ -83,16 +127,137 @@ public class TriageEngine extends DigitalLibraryEngine
 		this.triageDao = triageDao;
 	}
 
+	public JdbcConnectionPool getConnectionPool() {
+		return connectionPool;
+	}
+
+	public boolean isUpsertScores() {
+		return upsertScores;
+	}
+
+	public void setUpsertScores(boolean upsertScores) {
+		this.upsertScores = upsertScores;
+	}
+
 	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
 	// When being used in a UIMA Pipeline.
 	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
 
+	/**
+	 * Describes a TriageEngine resource to be bound under RESOURCE_KEY. All
+	 * the components of a pipeline created with the same ResourceManager 
+	 * share the one engine.
+	 */
+	public static ExternalResourceDescription getResourceDescription(
+			String login, String password, String dbName,
+			String workingDirectory, int poolSize) throws Exception {
+
+		return ExternalResourceFactory.createExternalResourceDescription(
+				TriageEngine.class, 
+				new File(workingDirectory).toURI().toURL().toString(),
+				PARAM_LOGIN, login, 
+				PARAM_PASSWORD, password, 
+				PARAM_DB_NAME, dbName,
+				PARAM_WORKING_DIRECTORY, workingDirectory, 
+				PARAM_POOL_SIZE, poolSize);
+
+	}
+
 	@Override
 	public void load(DataResource aData) throws ResourceInitializationException {
-		// TODO Auto-generated method stub
-		int pause = 0;
-		pause++;
-		
+
+		ConfigurationParameterSettings settings = aData.getMetaData()
+				.getConfigurationParameterSettings();
+
+		String login = (String) settings.getParameterValue(PARAM_LOGIN);
+		String password = (String) settings.getParameterValue(PARAM_PASSWORD);
+		String dbName = (String) settings.getParameterValue(PARAM_DB_NAME);
+		String workingDirectory = (String) settings
+				.getParameterValue(PARAM_WORKING_DIRECTORY);
+		Integer poolSize = (Integer) settings.getParameterValue(PARAM_POOL_SIZE);
+
+		if (login == null || dbName == null || workingDirectory == null)
+			throw new ResourceInitializationException(new IllegalArgumentException(
+					"TriageEngine resource needs " + PARAM_LOGIN + ", " 
+					+ PARAM_DB_NAME + " and " + PARAM_WORKING_DIRECTORY));
+
+		try {
+
+			this.initializeVpdmfDao(login, password, dbName, workingDirectory);
+			this.initializeConnectionPool(login, password, dbName, 
+					poolSize == null ? DEFAULT_POOL_SIZE : poolSize);
+
+		} catch (Exception e) {
+
+			throw new ResourceInitializationException(e);
+
+		}
+
+		logger.info("Loaded shared TriageEngine for " + dbName);
+
+	}
+
+	/**
+	 * Sets up the pool that sessions are opened on. Connections are only
+	 * opened when sessions need them.
+	 */
+	public synchronized void initializeConnectionPool(String login, 
+			String password, String dbName, int poolSize) {
+
+		if (this.connectionPool != null)
+			this.connectionPool.close();
+		this.connectionPool = new JdbcConnectionPool(
+				new JdbcConnectionFactory(login, password, dbName), poolSize);
+
+	}
+
+	/**
+	 * Opens a session on a pooled connection. It must only be used by the
+	 * calling thread (or annotator replica) and be closed when done.
+	 */
+	public TriageSession openSession() throws Exception {
+
+		if (this.connectionPool == null)
+			throw new IllegalStateException("No connection pool, " 
+					+ "call initializeConnectionPool() first");
+
+		return new TriageSession(this.connectionPool.borrow(), 
+				this.connectionPool);
+
+	}
+
+	/**
+	 * Closes the idle pooled connections. Sessions still open release
+	 * theirs when they are closed.
+	 */
+	public synchronized void closeConnectionPool() {
+		if (this.connectionPool != null)
+			this.connectionPool.close();
+	}
+
+	/**
+	 * Registers a pipeline component that opens sessions on the engine. The
+	 * pool is reopened if the last component closed it.
+	 */
+	public synchronized void retain() {
+
+		if (this.users++ == 0 && this.connectionPool != null
+				&& this.connectionPool.isClosed())
+			this.connectionPool = new JdbcConnectionPool(
+					this.connectionPool.getConnectionFactory(),
+					this.connectionPool.getMaxSize());
+
+	}
+
+	/**
+	 * Unregisters a component registered with retain(), closing the pool
+	 * when no component uses it anymore.
+	 */
+	public synchronized void release() {
+
+		if (this.users > 0 && --this.users == 0)
+			this.closeConnectionPool();
+
 	}
 
 	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
@@ -120,70 +285,89 @@ public class TriageEngine extends DigitalLibraryEngine
 
 	}
 
-	public void deleteArticlesFromTriageCorpusBasedOnCodeFile(TriageCorpus tc,
-			File codeFile) throws Exception {
+	/**
+	 * Deletes the scores (with their features) of the PMIDs listed in the 
+	 * code file from the triage corpus, returning the number of rows deleted
+	 * by table.
+	 */
+	public Map<String, Integer> deleteArticlesFromTriageCorpusBasedOnCodeFile(
+			TriageCorpus tc, File codeFile) throws Exception {
 
 		Map<Integer, String> pmidCodes = this.compileCodeList(codeFile);
 
 		ChangeEngineImpl ce = (ChangeEngineImpl) this.getDigLibDao().getCoreDao()
 				.getCe();
 
-		List<Integer> pmids = new ArrayList<Integer>(pmidCodes.keySet());
-		int nRowsChanged = 0;
-		Collections.sort(pmids);
-		Iterator<Integer> it = pmids.iterator();
-		while (it.hasNext()) {
-			Integer pmid = it.next();
-
-			String sql = "DELETE ts.*, vt.* " + "FROM TriageScore AS ts, "
-					+ " ViewTable AS vt, "
-					+ " LiteratureCitation AS litcit, "
-					+ " ArticleCitation AS artcit, "
-					+ " Corpus AS triagec "
-					+ "WHERE vt.vpdmfId = ts.vpdmfId "
-					+ "  AND ts.citation_id = litcit.vpdmfId "
-					+ "  AND litcit.vpdmfId = artcit.vpdmfId "
-					+ "  AND artcit.pmid = '" + pmid + "'"
-					+ "  AND ts.triageCorpus_id = triagec.vpdmfId "
-					+ "  AND triagec.name = '" + tc.getName() + "';";
-
-			nRowsChanged += ce.executeRawUpdateQuery(sql);
-
-			ce.prettyPrintSQL(sql);
-
-		}
+		Map<String, Integer> counts = this.exTriageDao.deleteTriageScoresByPmid(
+				tc.getName(), pmidCodes.keySet());
 
 		ce.commitTransaction();
-		logger.info(nRowsChanged + " rows altered.");
+		logger.info(counts + " rows deleted.");
+
+		return counts;
 
 	}
 
+	/**
+	 * Adds the documents of a code list to the triage corpus, for every
+	 * target corpus that has a regex. The regexes are all evaluated in one
+	 * pass over the codes and the scores of all target corpora are written
+	 * together.
+	 */
 	public void addCodeListToCorpus(TriageCorpus tc,
 			Map<Integer, String> codeList) throws Exception {
 
-		Corpus_qo cq = new Corpus_qo();
-		List<LightViewInstance> cList = this.getDigLibDao().getCoreDao()
-				.listInTrans(cq, "Corpus");
-		for (LightViewInstance lvi : cList) {
-			Corpus c = this.getDigLibDao().getCoreDao().findByIdInTrans(
-					lvi.getVpdmfId(), 
-					new Corpus(),
-					"Corpus");
-			if (c.getRegex() == null)
-				continue;
+		Map<String, String> regexes = this.exTriageDao.listCorpusRegexes();
+		if (regexes.isEmpty())
+			return;
+
+		String[] names = regexes.keySet().toArray(new String[regexes.size()]);
+		String[] regexArray = regexes.values().toArray(new String[regexes.size()]);
+
+		Map<String, Map<Integer, String>> targetPmidCodes = 
+				new LinkedHashMap<String, Map<Integer, String>>();
+		List<Map<Integer, String>> pmidCodes = new ArrayList<Map<Integer, String>>();
+		for (String name : names) {
+			Map<Integer, String> m = new HashMap<Integer, String>();
+			targetPmidCodes.put(name, m);
+			pmidCodes.add(m);
+		}
+
+		boolean allInOut = this.isClassified(codeList);
 
-			this.addCodeListToCorpus(tc, c, codeList);
-			
+		for (Map.Entry<Integer, String> e : codeList.entrySet()) {
+			String code = e.getValue();
+			for (int i = 0; i < names.length; i++) 
+				pmidCodes.get(i).put(e.getKey(), 
+						this.assignCode(allInOut, code, regexArray[i]));
 		}
+
+		this.exTriageDao.bulkAddTriageDocumentsToCorpora(tc.getName(),
+				targetPmidCodes, this.upsertScores);
+
 	}
 
 	public void addCodeListToCorpus(TriageCorpus tc, 
 			Corpus c, Map<Integer, String> codeList) throws Exception {
 
-		// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
-		// Are there any codes assigned? If so, we assume that
-		// ALL PAPERS IN THE COLLECTION ARE 'IN' OR 'OUT'
-		// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+		boolean allInOut = this.isClassified(codeList);
+
+		Map<Integer, String> pmidCodes = new HashMap<Integer, String>();
+		for (Integer pmid : codeList.keySet())
+			pmidCodes.put(pmid, this.assignCode(allInOut, codeList.get(pmid),
+					c.getRegex()));
+
+		this.exTriageDao.bulkAddTriageDocumentsToCorpus(tc.getName(),
+				c.getName(), pmidCodes, this.upsertScores);
+
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+	// Are there any codes assigned? If so, we assume that
+	// ALL PAPERS IN THE COLLECTION ARE 'IN' OR 'OUT'
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+	private boolean isClassified(Map<Integer, String> codeList) {
+
 		boolean allInOut = false;
 		for (String s : codeList.values()) {
 			if (s.length() > 0) {
@@ -198,23 +382,14 @@ public class TriageEngine extends DigitalLibraryEngine
 			logger.info("ASSUMING THAT ALL DOCUMENTS ARE UNCLASSIFED");
 		}
 
-		Map<Integer, String> pmidCodes = new HashMap<Integer, String>();
-		for (Integer pmid : codeList.keySet()) {
-			String code = codeList.get(pmid);
-			if (!allInOut) {
-				pmidCodes.put(pmid, TriageCode.UNCLASSIFIED);
-			} else {
-				if (code.contains(c.getRegex())) {
-					pmidCodes.put(pmid, TriageCode.IN);
-				} else {
-					pmidCodes.put(pmid, TriageCode.OUT);
-				}
-			}
-		}
+		return allInOut;
 
-		this.exTriageDao.addTriageDocumentsToCorpus(tc.getName(),
-				c.getName(), pmidCodes);
+	}
 
+	private String assignCode(boolean allInOut, String code, String regex) {
+		if (!allInOut)
+			return TriageCode.UNCLASSIFIED;
+		return code.contains(regex) ? TriageCode.IN : TriageCode.OUT;
 	}
 	
 	
@@ -469,62 +644,30 @@ public class TriageEngine extends DigitalLibraryEngine
 
 	}
 
+	/**
+	 * Writes the inScore and scoredTimestamp of a single TriageScore row. 
+	 * 
+	 * This touches only that row (rather than updating the whole TriagedArticle 
+	 * view) so that several classifier processes, each scoring a different 
+	 * shard of a target corpus, can write their scores concurrently. The 
+	 * update runs and is committed on a session of the connection pool.
+	 */
 	public void updateInScore(long vpdmfId, float inScore, Date timestamp)
 			throws Exception {
 
-		TriageScore td = this.triageDao.getCoreDao().findByIdInTrans(vpdmfId,
-				new TriageScore(), "TriagedArticle");
+		TriageSession session = this.openSession();
+		try {
 
-		if (td == null) {
-			logger.warn("Failed to find TriagedDocument with id:" + vpdmfId);
-			return;
-		}
-
-		td.setInScore(inScore);
-		td.setScoredTimestamp(timestamp);
+			if (!session.updateInScore(vpdmfId, inScore, timestamp))
+				logger.warn("Failed to find TriagedDocument with id:" + vpdmfId);
+			session.commit();
 
-		getExTriageDao().getCoreDao().updateInTrans(td, "TriagedArticle");
+		} finally {
 
-	}
+			session.close();
 
-	public int removeAllExplanationFeatures(
-			Long tsId
-			) throws Exception {
+		}
 
-		ChangeEngineImpl ce = (ChangeEngineImpl) this.getDigLibDao().getCoreDao().getCe();
-		
-		String sql = "DELETE tf.* FROM TriageFeature as tf " + 
-				"WHERE tf.score_id = " + tsId +";";
-	
-		ce.prettyPrintSQL(sql);				
-		
-		return ce.executeRawUpdateQuery(sql);
-						
 	}
-	
-	/**
-	 * TODO GENERALIZE THIS ASPECT OF THIS SYSTEM!!!
-	 * 
-	 * @param tfMap
-	 * @throws Exception
-	 */
-	public int insertExplanationFeatures(
-			Long tsId, TriageFeature tf
-			) throws Exception {
 
-		ChangeEngineImpl ce = (ChangeEngineImpl) this.getDigLibDao().getCoreDao().getCe();
-		
-		String sql = "INSERT INTO TriageFeature " +
-				" (featName, featValue, score_id) " +
-				" VALUES (\"" + 
-				tf.getFeatName() + "\", \"" + 
-				tf.getFeatValue() + "\"," +
-				tsId + ");";
-	
-		ce.prettyPrintSQL(sql);				
-		
-		return ce.executeRawUpdateQuery(sql);
-						
-	}
-	
 }
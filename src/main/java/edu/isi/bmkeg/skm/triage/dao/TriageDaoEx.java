@@ -1,5 +1,6 @@
 package edu.isi.bmkeg.skm.triage.dao;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -56,6 +57,11 @@ public interface TriageDaoEx {
 	// List functions
 	// ~~~~~~~~~~~~~~
 
+	/**
+	 * Returns the regex of every corpus that has one, by corpus name.
+	 */
+	public Map<String, String> listCorpusRegexes() throws Exception;
+
 	// ~~~~~~~~~~~~~~~~~~~~
 	// Add x to y functions
 	// ~~~~~~~~~~~~~~~~~~~~
@@ -64,9 +70,42 @@ public interface TriageDaoEx {
 			String targetCorpus,
 			Map<Integer, String> pmidCodes) throws Exception;
 
+	/**
+	 * Same as addTriageDocumentsToCorpus, writing the ViewTable and
+	 * TriageScore rows with multi-row INSERTs instead of one VPDMf view
+	 * insert per document. If upsert is set, documents that already have a
+	 * score in these corpora get their code updated instead of a second
+	 * score. Returns the number of scores inserted.
+	 */
+	public int bulkAddTriageDocumentsToCorpus(String triageCorpus,
+			String targetCorpus, Map<Integer, String> pmidCodes,
+			boolean upsert) throws Exception;
+
+	/**
+	 * Bulk adds the documents of a triage corpus to several target corpora
+	 * at once, given the PMID codes for each target corpus name. PMIDs are
+	 * resolved once and all the rows are written together.
+	 */
+	public int bulkAddTriageDocumentsToCorpora(String triageCorpus,
+			Map<String, Map<Integer, String>> targetPmidCodes, boolean upsert)
+			throws Exception;
+
+	/**
+	 * Deletes the scores of a triage / target corpus pair in committed
+	 * chunks, so the caller's transaction is committed partway through and
+	 * the chunks already deleted stay deleted if a later one fails.
+	 */
 	void deleteExistingTriageScores(String triageCorpus, String targetCorpus)
 			throws Exception;
 
+	/**
+	 * Deletes the scores of the given PMIDs in a triage corpus, with their
+	 * TriageFeature and ViewTable rows, using a few set-based DELETEs per
+	 * chunk of PMIDs. Returns the number of rows deleted by table name.
+	 */
+	public Map<String, Integer> deleteTriageScoresByPmid(String triageCorpus,
+			Collection<Integer> pmids) throws Exception;
+
 
 
 	// ~~~~~~~~~~~~~~~~~~~~~~~~~
@@ -0,0 +1,139 @@
+package edu.isi.bmkeg.skm.triage.dao.vpdmf;
+
+import java.util.Arrays;
+
+/**
+ * Maps non-negative int keys (e.g., PMIDs) to long values (e.g., vpdmfIds) in
+ * an open addressing table of primitives. Entries are numbered in insertion
+ * order, so that values kept alongside the map (e.g., labels) can be stored
+ * in a list indexed by {@link #indexOf(int)}.
+ */
+public class IntLongMap {
+
+	private static final int EMPTY = -1;
+
+	private int[] keys;
+
+	/**
+	 * Insertion index of the key in each slot.
+	 */
+	private int[] indices;
+
+	private int[] orderedKeys;
+
+	private long[] orderedValues;
+
+	private int size;
+
+	private int mask;
+
+	public IntLongMap(int expectedSize) {
+		int capacity = 16;
+		while (capacity < expectedSize * 2)
+			capacity <<= 1;
+		this.allocate(capacity);
+		this.orderedKeys = new int[capacity / 2];
+		this.orderedValues = new long[capacity / 2];
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~
+	// Getters
+	// ~~~~~~~~~~~~~~~~~~~
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * The i-th key, in insertion order.
+	 */
+	public int keyAt(int i) {
+		return orderedKeys[i];
+	}
+
+	/**
+	 * The value of the i-th key.
+	 */
+	public long valueAt(int i) {
+		return orderedValues[i];
+	}
+
+	/**
+	 * Returns the insertion index of the key, or -1 if it is not mapped.
+	 */
+	public int indexOf(int key) {
+		int slot = this.find(key);
+		return keys[slot] == EMPTY ? -1 : indices[slot];
+	}
+
+	public boolean containsKey(int key) {
+		return this.indexOf(key) >= 0;
+	}
+
+	/**
+	 * Returns the value of the key, or missing if it is not mapped.
+	 */
+	public long get(int key, long missing) {
+		int i = this.indexOf(key);
+		return i < 0 ? missing : orderedValues[i];
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	/**
+	 * Maps the key to the value, returning its insertion index.
+	 */
+	public int put(int key, long value) {
+
+		if (key < 0)
+			throw new IllegalArgumentException("Negative key " + key);
+
+		int slot = this.find(key);
+		if (keys[slot] != EMPTY) {
+			orderedValues[indices[slot]] = value;
+			return indices[slot];
+		}
+
+		if ((size + 1) * 2 > keys.length) {
+			this.rehash();
+			slot = this.find(key);
+		}
+		keys[slot] = key;
+		indices[slot] = size;
+		orderedKeys[size] = key;
+		orderedValues[size] = value;
+		return size++;
+
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	private int find(int key) {
+		int h = key * 0x9e3779b9;
+		int slot = (h ^ (h >>> 16)) & mask;
+		while (keys[slot] != EMPTY && keys[slot] != key)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	private void allocate(int capacity) {
+		this.keys = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		this.indices = new int[capacity];
+		this.mask = capacity - 1;
+	}
+
+	private void rehash() {
+
+		this.allocate(keys.length * 2);
+		this.orderedKeys = Arrays.copyOf(orderedKeys, keys.length / 2);
+		this.orderedValues = Arrays.copyOf(orderedValues, keys.length / 2);
+
+		for (int i = 0; i < size; i++) {
+			int slot = this.find(orderedKeys[i]);
+			keys[slot] = orderedKeys[i];
+			indices[slot] = i;
+		}
+
+	}
+
+}
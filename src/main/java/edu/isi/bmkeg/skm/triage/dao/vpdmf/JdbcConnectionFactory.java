@@ -0,0 +1,104 @@
+package edu.isi.bmkeg.skm.triage.dao.vpdmf;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Opens plain JDBC connections to the same MySQL database as the VPDMf
+ * CoreDao, for the few places where we need control over the connection that
+ * the ChangeEngine does not give us (e.g., streaming result sets, which
+ * monopolize their connection until they are closed).
+ *
+ * The database is given either as a database name (as used everywhere else
+ * in this project, e.g., the -db option) or as a full JDBC URL.
+ */
+public class JdbcConnectionFactory {
+
+	public static final String DRIVER = "com.mysql.jdbc.Driver";
+
+	public static final String URL_PREFIX = "jdbc:mysql://localhost:3306/";
+
+	private String login;
+
+	private String password;
+
+	private String url;
+
+	public JdbcConnectionFactory(String login, String password, String dbName) {
+		this.login = login;
+		this.password = password;
+		this.url = toJdbcUrl(dbName);
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~
+	// Getters
+	// ~~~~~~~~~~~~~~~~~~~
+	public String getUrl() {
+		return url;
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	public static String toJdbcUrl(String dbName) {
+		if (dbName.startsWith("jdbc:"))
+			return dbName;
+		return URL_PREFIX + dbName;
+	}
+
+	public Connection openConnection() throws SQLException {
+
+		try {
+			Class.forName(DRIVER);
+		} catch (ClassNotFoundException e) {
+			throw new SQLException("Can't load JDBC driver " + DRIVER, e);
+		}
+
+		return DriverManager.getConnection(url, login, password);
+
+	}
+
+	/**
+	 * Creates a statement whose result sets are streamed row by row from the
+	 * server rather than buffered in full by the driver. With MySQL
+	 * Connector/J this requires a forward-only, read-only statement with a
+	 * fetch size of Integer.MIN_VALUE. No other statement may be run on the
+	 * connection until the result set is closed.
+	 */
+	public static Statement createStreamingStatement(Connection conn)
+			throws SQLException {
+
+		Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY,
+				ResultSet.CONCUR_READ_ONLY);
+		stmt.setFetchSize(Integer.MIN_VALUE);
+		return stmt;
+
+	}
+
+	/**
+	 * Closes the given JDBC resources, ignoring nulls and errors.
+	 */
+	public static void closeQuietly(ResultSet rs, Statement stmt,
+			Connection conn) {
+
+		try {
+			if (rs != null)
+				rs.close();
+		} catch (SQLException e) {
+		}
+		try {
+			if (stmt != null)
+				stmt.close();
+		} catch (SQLException e) {
+		}
+		try {
+			if (conn != null)
+				conn.close();
+		} catch (SQLException e) {
+		}
+
+	}
+
+}
@@ -0,0 +1,172 @@
+package edu.isi.bmkeg.skm.triage.dao.vpdmf;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedList;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Small bounded pool of JDBC connections opened by a
+ * {@link JdbcConnectionFactory}.
+ *
+ * Connections are opened on demand, up to maxSize; borrow() waits for a
+ * connection to be released once they are all in use. Released connections
+ * are rolled back (uncommitted work is discarded) and checked for validity
+ * before being handed out again.
+ */
+public class JdbcConnectionPool {
+
+	private static Logger logger = Logger.getLogger(JdbcConnectionPool.class);
+
+	private static final int VALIDATION_TIMEOUT_S = 2;
+
+	private JdbcConnectionFactory connectionFactory;
+
+	private int maxSize;
+
+	// guarded by this
+	private LinkedList<Connection> idle = new LinkedList<Connection>();
+
+	private int opened = 0;
+
+	private boolean closed = false;
+
+	public JdbcConnectionPool(JdbcConnectionFactory connectionFactory,
+			int maxSize) {
+
+		if (maxSize < 1)
+			throw new IllegalArgumentException("maxSize must be positive");
+
+		this.connectionFactory = connectionFactory;
+		this.maxSize = maxSize;
+
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~
+	// Getters
+	// ~~~~~~~~~~~~~~~~~~~
+	public JdbcConnectionFactory getConnectionFactory() {
+		return connectionFactory;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	public synchronized int getOpened() {
+		return opened;
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	/**
+	 * Returns an idle connection, opening a new one if none is idle and
+	 * fewer than maxSize are open, else waits for one to be released. The
+	 * connection is in manual commit mode.
+	 */
+	public Connection borrow() throws SQLException {
+
+		while (true) {
+
+			Connection conn = null;
+			boolean open = false;
+
+			synchronized (this) {
+
+				while (!closed && idle.isEmpty() && opened >= maxSize) {
+					try {
+						this.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted waiting for a connection", e);
+					}
+				}
+
+				if (closed)
+					throw new SQLException("Connection pool is closed");
+
+				if (!idle.isEmpty()) {
+					conn = idle.removeFirst();
+				} else {
+					opened++;
+					open = true;
+				}
+
+			}
+
+			if (open) {
+				try {
+					conn = connectionFactory.openConnection();
+					conn.setAutoCommit(false);
+					return conn;
+				} catch (SQLException e) {
+					this.discard(conn);
+					throw e;
+				}
+			}
+
+			if (conn.isValid(VALIDATION_TIMEOUT_S))
+				return conn;
+
+			logger.info("Discarding stale pooled connection.");
+			this.discard(conn);
+
+		}
+
+	}
+
+	/**
+	 * Returns a borrowed connection to the pool, rolling back whatever it
+	 * did not commit.
+	 */
+	public void release(Connection conn) {
+
+		try {
+			conn.rollback();
+		} catch (SQLException e) {
+			logger.warn("Discarding pooled connection: " + e.getMessage());
+			this.discard(conn);
+			return;
+		}
+
+		synchronized (this) {
+			if (closed) {
+				opened--;
+				JdbcConnectionFactory.closeQuietly(null, null, conn);
+			} else {
+				idle.addFirst(conn);
+			}
+			this.notifyAll();
+		}
+
+	}
+
+	/**
+	 * Closes the idle connections. Connections still borrowed are closed when
+	 * they are released.
+	 */
+	public synchronized void close() {
+
+		closed = true;
+		for (Connection conn : idle)
+			JdbcConnectionFactory.closeQuietly(null, null, conn);
+		opened -= idle.size();
+		idle.clear();
+		this.notifyAll();
+
+	}
+
+	private void discard(Connection conn) {
+		JdbcConnectionFactory.closeQuietly(null, null, conn);
+		synchronized (this) {
+			opened--;
+			this.notifyAll();
+		}
+	}
+
+}
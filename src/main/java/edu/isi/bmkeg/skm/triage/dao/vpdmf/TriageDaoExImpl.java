@@ -1,12 +1,18 @@
 package edu.isi.bmkeg.skm.triage.dao.vpdmf;
 
+import java.sql.ResultSet;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -31,6 +37,18 @@ public class TriageDaoExImpl implements TriageDaoEx {
 
 	private static Logger logger = Logger.getLogger(TriageDaoExImpl.class);
 
+	/**
+	 * Number of PMIDs looked up per query.
+	 */
+	private static final int PMID_CHUNK_SIZE = 1000;
+
+	private static final int MAX_REPORTED_PMIDS = 20;
+
+	/**
+	 * Number of rows written per INSERT statement by the bulk insert path.
+	 */
+	private static final int ROWS_PER_INSERT = 500;
+
 	@Autowired
 	private CoreDao coreDao;
 
@@ -103,43 +121,88 @@ public class TriageDaoExImpl implements TriageDaoEx {
 	// ~~~~~~~~~~~~~~~~~~~
 	// Delete Functions
 	// ~~~~~~~~~~~~~~~~~~~
+	/**
+	 * Deletes the scores (with their features) of a triage / target corpus 
+	 * pair in chunks, see {@link TriageScoreDeleter}. Each chunk is 
+	 * committed on the DAO's ChangeEngine: the caller's transaction is
+	 * committed partway through, with the first chunk, and the chunks
+	 * already deleted stay deleted if a later one fails.
+	 */
 	@Override
 	public void deleteExistingTriageScores(String triageCorpus, 
 			String targetCorpus) throws Exception {
 
-		
-		//
-		// REMOVE EXISTING DATA FROM THE TRIAGE SCORE
-		// (AND TRIAGEFEATURE) TABLE.
-		// NEED TO UPDATE THE DELETION FUNCTIONS WITHIN VPDMf
-		//
-		String sql1 = "DELETE tf.* " + "FROM TriageScore AS ts, "
-				+ " TriageFeature AS tf, " + " Corpus AS targetc, "
-				+ " Corpus AS triagec "
-				+ "WHERE ts.targetCorpus_id = targetc.vpdmfId "
-				+ "  AND targetc.name = '" + targetCorpus + "'"
-				+ "  AND ts.triageCorpus_id = triagec.vpdmfId "
-				+ "  AND triagec.name = '" + triageCorpus + "';";
-
-		int nRowsChanged = this.getCoreDao().getCe()
-				.executeRawUpdateQuery(sql1);
-		this.coreDao.getCe().prettyPrintSQL(sql1);
-		logger.debug(nRowsChanged + " rows altered.");
-
-		String sql2 = "DELETE ts.*, vt.* " + "FROM TriageScore AS ts, "
-				+ " ViewTable AS vt, " + " Corpus AS targetc, "
-				+ " Corpus AS triagec " + "WHERE vt.vpdmfId = ts.vpdmfId "
-				+ "  AND ts.targetCorpus_id = targetc.vpdmfId "
-				+ "  AND targetc.name = '" + targetCorpus + "'"
-				+ "  AND ts.triageCorpus_id = triagec.vpdmfId "
-				+ "  AND triagec.name = '" + triageCorpus + "';";
-
-		nRowsChanged = this.getCoreDao().getCe().executeRawUpdateQuery(sql2);
-		this.coreDao.getCe().prettyPrintSQL(sql2);
-		logger.debug(nRowsChanged + " rows altered.");
+		TriageScoreDeleter deleter = new TriageScoreDeleter(getCe(),
+				TriageScoreDeleter.DEFAULT_CHUNK_SIZE);
+
+		long triageCorpusId = deleter.findCorpusId(triageCorpus);
+		long targetCorpusId = deleter.findCorpusId(targetCorpus);
+		if (triageCorpusId < 0 || targetCorpusId < 0) {
+			logger.debug("No scores to delete.");
+			return;
+		}
+
+		Map<String, Integer> counts = deleter.deleteScores(triageCorpusId,
+				targetCorpusId);
+		logger.debug(counts + " rows deleted.");
 			
 	}
 	
+	@Override
+	public Map<String, Integer> deleteTriageScoresByPmid(String triageCorpus,
+			Collection<Integer> pmids) throws Exception {
+
+		long t = System.currentTimeMillis();
+
+		Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+		counts.put("TriageFeature", 0);
+		counts.put("TriageScore", 0);
+		counts.put("ViewTable", 0);
+
+		long triageCorpusId = this.findCorpusId(triageCorpus);
+
+		List<Integer> sorted = new ArrayList<Integer>(pmids);
+		Collections.sort(sorted);
+
+		for (int from = 0; from < sorted.size(); from += PMID_CHUNK_SIZE) {
+
+			List<Integer> chunk = sorted.subList(from,
+					Math.min(from + PMID_CHUNK_SIZE, sorted.size()));
+
+			List<Long> scoreIds = new ArrayList<Long>();
+			ResultSet rs = getCe().executeRawSqlQuery(
+					"SELECT ts.vpdmfId "
+					+ "FROM TriageScore AS ts, ArticleCitation AS a "
+					+ "WHERE a.vpdmfId = ts.citation_id "
+					+ "  AND ts.triageCorpus_id = " + triageCorpusId
+					+ "  AND a.pmid IN (" + join(chunk) + ");");
+			try {
+				while (rs.next())
+					scoreIds.add(rs.getLong(1));
+			} finally {
+				rs.close();
+			}
+
+			if (scoreIds.isEmpty())
+				continue;
+
+			String ids = join(scoreIds);
+			add(counts, "TriageFeature", getCe().executeRawUpdateQuery(
+					"DELETE FROM TriageFeature WHERE score_id IN (" + ids + ");"));
+			add(counts, "TriageScore", getCe().executeRawUpdateQuery(
+					"DELETE FROM TriageScore WHERE vpdmfId IN (" + ids + ");"));
+			add(counts, "ViewTable", getCe().executeRawUpdateQuery(
+					"DELETE FROM ViewTable WHERE vpdmfId IN (" + ids + ");"));
+
+		}
+
+		logger.info("Deleted " + counts + " for " + sorted.size() + " PMIDs in "
+				+ (System.currentTimeMillis() - t) / 1000.0 + " s");
+
+		return counts;
+
+	}
+
 	// ~~~~~~~~~~~~~~~~~~~~
 	// Find by id Functions
 	// ~~~~~~~~~~~~~~~~~~~~
@@ -172,7 +235,6 @@ public class TriageDaoExImpl implements TriageDaoEx {
 	// Add x to y functions
 	// ~~~~~~~~~~~~~~~~~~~~
 	
-	// TODO: CONVERT THIS TO A SIMPLER, QUICKER BATCH UPLOAD FUNCTION.
 	@Override
 	public void addTriageDocumentsToCorpus(String triageCorpus, 
 			String targetCorpus,
@@ -188,29 +250,30 @@ public class TriageDaoExImpl implements TriageDaoEx {
 		VPDMf top = ce.readTop();
 
 		ViewDefinition vd = top.getViews().get("TriagedArticle");
-		ViewDefinition articleVd = top.getViews().get("ArticleCitation");
 
 		List<Integer> pmids = new ArrayList<Integer>(pmidCodes.keySet());
 		Collections.sort(pmids);
+
+		List<String> labels = new ArrayList<String>(pmids.size());
+		IntLongMap citationIds = this.resolvePmids(pmids, labels);
+		logger.info("Resolved " + citationIds.size() + " / " + pmids.size()
+				+ " PMIDs in " + (System.currentTimeMillis() - t) / 1000.0
+				+ " s");
+
+		List<Integer> unknown = new ArrayList<Integer>();
 		Iterator<Integer> it = pmids.iterator();
 		while (it.hasNext()) {
 			Integer pmid = it.next();
 
-			ViewInstance qvi = new ViewInstance(articleVd);
-			AttributeInstance ai = qvi.readAttributeInstance(
-					"]LiteratureCitation|ArticleCitation.pmid", 0);
-			ai.writeValueString(pmid + "");
-			List<LightViewInstance> l = ce.executeListQuery(qvi);
-			if( l.size() == 0 ) {
+			int i = citationIds.indexOf(pmid);
+			if( i < 0 ) {
+				unknown.add(pmid);
 				continue;
-			} else if( l.size() > 1 ) {
-				throw new Exception("PMID " + pmid + " ambiguous.");
 			}
-			LightViewInstance lvi = l.get(0);
 				
 			ViewInstance vi = new ViewInstance(vd);
 
-			ai = vi.readAttributeInstance(
+			AttributeInstance ai = vi.readAttributeInstance(
 					"]TriageCorpus|Corpus.name", 0);
 			ai.writeValueString(triageCorpus);
 
@@ -222,11 +285,11 @@ public class TriageDaoExImpl implements TriageDaoEx {
 			
 			ai = vi.readAttributeInstance(
 					"]LiteratureCitation|ViewTable.vpdmfLabel", 0);
-			ai.writeValueString(lvi.getVpdmfLabel());
+			ai.writeValueString(labels.get(i));
 
 			ai = vi.readAttributeInstance(
 					"]LiteratureCitation|ViewTable.vpdmfId", 0);
-			ai.writeValueString(lvi.getVpdmfId() + "");
+			ai.writeValueString(citationIds.valueAt(i) + "");
 			
 			count++;
 
@@ -255,9 +318,335 @@ public class TriageDaoExImpl implements TriageDaoEx {
 
 		}
 
+		if( !unknown.isEmpty() )
+			logger.warn(unknown.size() + " PMIDs not found in the database: "
+					+ summarize(unknown, MAX_REPORTED_PMIDS));
+
 		long deltaT = System.currentTimeMillis() - t;
 		logger.info("Added " + count + " entries in " + deltaT / 1000.0 + " s\n");
 
 	}
 
+	@Override
+	public int bulkAddTriageDocumentsToCorpus(String triageCorpus,
+			String targetCorpus, Map<Integer, String> pmidCodes,
+			boolean upsert) throws Exception {
+
+		return this.bulkAddTriageDocumentsToCorpora(triageCorpus,
+				Collections.singletonMap(targetCorpus, pmidCodes), upsert);
+
+	}
+
+	@Override
+	public int bulkAddTriageDocumentsToCorpora(String triageCorpus,
+			Map<String, Map<Integer, String>> targetPmidCodes, boolean upsert)
+			throws Exception {
+
+		long t = System.currentTimeMillis();
+
+		SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		String timestamp = sqlString(df.format(new Date()));
+
+		long triageCorpusId = this.findCorpusId(triageCorpus);
+
+		//
+		// the PMIDs of all target corpora are resolved together
+		//
+		Set<Integer> pmidSet = new HashSet<Integer>();
+		for (Map<Integer, String> pmidCodes : targetPmidCodes.values())
+			pmidSet.addAll(pmidCodes.keySet());
+		List<Integer> pmids = new ArrayList<Integer>(pmidSet);
+		Collections.sort(pmids);
+
+		List<String> labels = new ArrayList<String>(pmids.size());
+		IntLongMap citationIds = this.resolvePmids(pmids, labels);
+
+		List<Integer> unknown = new ArrayList<Integer>();
+		for (Integer pmid : pmids)
+			if (!citationIds.containsKey(pmid))
+				unknown.add(pmid);
+
+		//
+		// new rows, as parallel lists, and updated rows by code
+		//
+		List<Integer> insertPmids = new ArrayList<Integer>();
+		List<Long> insertTargets = new ArrayList<Long>();
+		List<String> insertCodes = new ArrayList<String>();
+		Map<String, List<Long>> updates = new HashMap<String, List<Long>>();
+		int nUpdated = 0;
+
+		for (Map.Entry<String, Map<Integer, String>> target : targetPmidCodes
+				.entrySet()) {
+
+			long targetCorpusId = this.findCorpusId(target.getKey());
+			Map<Integer, String> pmidCodes = target.getValue();
+
+			// scores already in these corpora, by PMID
+			List<String> existingCodes = new ArrayList<String>();
+			IntLongMap existing = upsert ? this.findExistingScores(
+					triageCorpusId, targetCorpusId, existingCodes)
+					: new IntLongMap(0);
+
+			for (Integer pmid : pmids) {
+
+				String code = pmidCodes.get(pmid);
+				if (code == null || !citationIds.containsKey(pmid))
+					continue;
+
+				int e = existing.indexOf(pmid);
+				if (e < 0) {
+					insertPmids.add(pmid);
+					insertTargets.add(targetCorpusId);
+					insertCodes.add(code);
+					continue;
+				}
+
+				if (code.equals(existingCodes.get(e)))
+					continue;
+				List<Long> ids = updates.get(code);
+				if (ids == null) {
+					ids = new ArrayList<Long>();
+					updates.put(code, ids);
+				}
+				ids.add(existing.valueAt(e));
+
+			}
+
+		}
+
+		//
+		// changed codes are updated with one statement per code and chunk
+		//
+		for (Map.Entry<String, List<Long>> e : updates.entrySet()) {
+			List<Long> ids = e.getValue();
+			for (int from = 0; from < ids.size(); from += ROWS_PER_INSERT) {
+				List<Long> chunk = ids.subList(from,
+						Math.min(from + ROWS_PER_INSERT, ids.size()));
+				nUpdated += getCe().executeRawUpdateQuery(
+						"UPDATE TriageScore SET inOutCode = "
+						+ sqlString(e.getKey()) + " WHERE vpdmfId IN ("
+						+ join(chunk) + ");");
+			}
+		}
+
+		//
+		// new rows get a block of vpdmfIds after the current maximum, the
+		// ViewTable rows are locked until the caller's transaction ends
+		//
+		int nInserts = insertPmids.size();
+		long firstId = 1;
+		if (nInserts > 0) {
+			ResultSet rs = getCe().executeRawSqlQuery(
+					"SELECT MAX(vpdmfId) FROM ViewTable FOR UPDATE;");
+			try {
+				if (rs.next())
+					firstId = rs.getLong(1) + 1;
+			} finally {
+				rs.close();
+			}
+		}
+
+		for (int from = 0; from < nInserts; from += ROWS_PER_INSERT) {
+
+			int to = Math.min(from + ROWS_PER_INSERT, nInserts);
+
+			StringBuilder vtSql = new StringBuilder("INSERT INTO ViewTable "
+					+ "(vpdmfId, vpdmfType, vpdmfLabel) VALUES ");
+			StringBuilder tsSql = new StringBuilder("INSERT INTO TriageScore "
+					+ "(vpdmfId, inOutCode, inScore, classifyTimestamp, "
+					+ "scoredTimestamp, citation_id, triageCorpus_id, "
+					+ "targetCorpus_id) VALUES ");
+
+			for (int j = from; j < to; j++) {
+
+				int i = citationIds.indexOf(insertPmids.get(j));
+				long id = firstId + j;
+
+				if (j > from) {
+					vtSql.append(',');
+					tsSql.append(',');
+				}
+				vtSql.append('(').append(id).append(",'TriagedArticle',")
+						.append(sqlString(labels.get(i))).append(')');
+				tsSql.append('(').append(id).append(',')
+						.append(sqlString(insertCodes.get(j))).append(",-1,")
+						.append(timestamp).append(',').append(timestamp)
+						.append(',').append(citationIds.valueAt(i))
+						.append(',').append(triageCorpusId)
+						.append(',').append(insertTargets.get(j).longValue())
+						.append(')');
+
+			}
+
+			getCe().executeRawUpdateQuery(vtSql.append(';').toString());
+			getCe().executeRawUpdateQuery(tsSql.append(';').toString());
+
+			logger.info("Inserted " + to + " / " + nInserts 
+					+ " scores in " + 
+					(System.currentTimeMillis() - t) / 1000.0 + " s");
+
+		}
+
+		if (!unknown.isEmpty())
+			logger.warn(unknown.size() + " PMIDs not found in the database: "
+					+ summarize(unknown, MAX_REPORTED_PMIDS));
+
+		long deltaT = System.currentTimeMillis() - t;
+		logger.info("Added " + nInserts + " entries and updated " + nUpdated
+				+ " in " + targetPmidCodes.size() + " target corpora in "
+				+ deltaT / 1000.0 + " s\n");
+
+		return nInserts;
+
+	}
+
+	@Override
+	public Map<String, String> listCorpusRegexes() throws Exception {
+
+		Map<String, String> regexes = new LinkedHashMap<String, String>();
+
+		ResultSet rs = getCe().executeRawSqlQuery(
+				"SELECT name, regex FROM Corpus "
+				+ "WHERE regex IS NOT NULL ORDER BY vpdmfId;");
+		try {
+			while (rs.next())
+				regexes.put(rs.getString(1), rs.getString(2));
+		} finally {
+			rs.close();
+		}
+
+		return regexes;
+
+	}
+
+	private long findCorpusId(String corpusName) throws Exception {
+
+		ResultSet rs = getCe().executeRawSqlQuery(
+				"SELECT vpdmfId FROM Corpus WHERE name = "
+				+ sqlString(corpusName) + ";");
+		try {
+			if (!rs.next())
+				throw new Exception("Corpus " + corpusName + " does not exist.");
+			long id = rs.getLong(1);
+			if (rs.next())
+				throw new Exception("Corpus name " + corpusName + " ambiguous.");
+			return id;
+		} finally {
+			rs.close();
+		}
+
+	}
+
+	/**
+	 * Returns the vpdmfIds of the scores of a triage / target corpus pair by
+	 * PMID, their codes are added to codes in the map's insertion order.
+	 */
+	private IntLongMap findExistingScores(long triageCorpusId,
+			long targetCorpusId, List<String> codes) throws Exception {
+
+		IntLongMap scoreIds = new IntLongMap(1024);
+
+		ResultSet rs = getCe().executeRawSqlQuery(
+				"SELECT a.pmid, ts.vpdmfId, ts.inOutCode "
+				+ "FROM TriageScore AS ts, ArticleCitation AS a "
+				+ "WHERE a.vpdmfId = ts.citation_id "
+				+ "  AND ts.triageCorpus_id = " + triageCorpusId
+				+ "  AND ts.targetCorpus_id = " + targetCorpusId + ";");
+		try {
+			while (rs.next()) {
+				int pmid = rs.getInt(1);
+				if (scoreIds.containsKey(pmid))
+					continue;
+				scoreIds.put(pmid, rs.getLong(2));
+				codes.add(rs.getString(3));
+			}
+		} finally {
+			rs.close();
+		}
+
+		return scoreIds;
+
+	}
+
+	/**
+	 * Looks the citations of the given PMIDs up, PMID_CHUNK_SIZE at a time,
+	 * instead of running an ArticleCitation list query per PMID. Returns a
+	 * PMID to citation vpdmfId map, the citation labels are added to labels
+	 * in the map's insertion order. PMIDs that aren't found are not mapped.
+	 */
+	private IntLongMap resolvePmids(List<Integer> pmids, List<String> labels)
+			throws Exception {
+
+		IntLongMap citationIds = new IntLongMap(pmids.size());
+
+		for (int from = 0; from < pmids.size(); from += PMID_CHUNK_SIZE) {
+
+			List<Integer> chunk = pmids.subList(from,
+					Math.min(from + PMID_CHUNK_SIZE, pmids.size()));
+
+			StringBuilder sql = new StringBuilder(
+					"SELECT a.pmid, a.vpdmfId, vt.vpdmfLabel "
+					+ "FROM ArticleCitation AS a, ViewTable AS vt "
+					+ "WHERE vt.vpdmfId = a.vpdmfId AND a.pmid IN (");
+			for (int i = 0; i < chunk.size(); i++) {
+				if (i > 0)
+					sql.append(',');
+				sql.append(chunk.get(i).intValue());
+			}
+			sql.append(");");
+
+			ResultSet rs = getCe().executeRawSqlQuery(sql.toString());
+			try {
+				while (rs.next()) {
+					int pmid = rs.getInt(1);
+					if (citationIds.containsKey(pmid))
+						throw new Exception("PMID " + pmid + " ambiguous.");
+					citationIds.put(pmid, rs.getLong(2));
+					labels.add(rs.getString(3));
+				}
+			} finally {
+				rs.close();
+			}
+
+		}
+
+		return citationIds;
+
+	}
+
+	static String join(List<? extends Number> ids) {
+		StringBuilder sb = new StringBuilder();
+		for (Number id : ids) {
+			if (sb.length() > 0)
+				sb.append(',');
+			sb.append(id.longValue());
+		}
+		return sb.toString();
+	}
+
+	static void add(Map<String, Integer> counts, String table, int n) {
+		counts.put(table, counts.get(table) + n);
+	}
+
+	/**
+	 * Quotes a string as a MySQL literal.
+	 */
+	static String sqlString(String s) {
+		if (s == null)
+			return "NULL";
+		return "'" + s.replace("\\", "\\\\").replace("'", "\\'") + "'";
+	}
+
+	private static String summarize(List<Integer> pmids, int max) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < pmids.size() && i < max; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(pmids.get(i));
+		}
+		if (pmids.size() > max)
+			sb.append(", ...");
+		return sb.toString();
+	}
+
 }
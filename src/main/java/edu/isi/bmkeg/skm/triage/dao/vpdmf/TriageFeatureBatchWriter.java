@@ -0,0 +1,196 @@
+package edu.isi.bmkeg.skm.triage.dao.vpdmf;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import edu.isi.bmkeg.triage.model.TriageFeature;
+
+/**
+ * Replaces the explanation features (TriageFeature rows) of triage scores,
+ * buffering the documents so that the features of maxDocuments scores are
+ * written together: one DELETE of their old features and multi-row INSERTs
+ * of rowsPerInsert rows, all through prepared statements.
+ *
+ * The writer doesn't commit; flush() before committing the connection.
+ */
+public class TriageFeatureBatchWriter {
+
+	public static final int DEFAULT_ROWS_PER_INSERT = 100;
+
+	private Connection conn;
+
+	private int maxDocuments;
+
+	private int rowsPerInsert;
+
+	private List<Long> scoreIds = new ArrayList<Long>();
+
+	private Set<Long> bufferedIds = new HashSet<Long>();
+
+	private List<Long> rowScoreIds = new ArrayList<Long>();
+
+	private List<TriageFeature> rows = new ArrayList<TriageFeature>();
+
+	/**
+	 * Statements for a full buffer of documents and a full INSERT, the
+	 * remainders are prepared when flushed.
+	 */
+	private PreparedStatement deleteStmt;
+
+	private PreparedStatement insertStmt;
+
+	private long written = 0;
+
+	public TriageFeatureBatchWriter(Connection conn, int maxDocuments,
+			int rowsPerInsert) {
+
+		if (maxDocuments < 1 || rowsPerInsert < 1)
+			throw new IllegalArgumentException(
+					"maxDocuments and rowsPerInsert must be positive");
+
+		this.conn = conn;
+		this.maxDocuments = maxDocuments;
+		this.rowsPerInsert = rowsPerInsert;
+
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~
+	// Getters
+	// ~~~~~~~~~~~~~~~~~~~
+	public int getPendingDocuments() {
+		return scoreIds.size();
+	}
+
+	public long getWritten() {
+		return written;
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	/**
+	 * Queues the features that replace those of a score, writing the buffer
+	 * once it holds maxDocuments scores.
+	 */
+	public void replaceFeatures(long scoreId, List<TriageFeature> features)
+			throws SQLException {
+
+		// the same score twice in a buffer would get both feature lists
+		if (bufferedIds.contains(scoreId))
+			this.flush();
+
+		scoreIds.add(scoreId);
+		bufferedIds.add(scoreId);
+		for (TriageFeature tf : features) {
+			rowScoreIds.add(scoreId);
+			rows.add(tf);
+		}
+
+		if (scoreIds.size() >= maxDocuments)
+			this.flush();
+
+	}
+
+	/**
+	 * Writes the buffered documents.
+	 */
+	public void flush() throws SQLException {
+
+		if (scoreIds.isEmpty())
+			return;
+
+		try {
+
+			PreparedStatement delete = this.deleteStatement(scoreIds.size());
+			for (int i = 0; i < scoreIds.size(); i++)
+				delete.setLong(i + 1, scoreIds.get(i));
+			delete.executeUpdate();
+			if (delete != deleteStmt)
+				delete.close();
+
+			for (int from = 0; from < rows.size(); from += rowsPerInsert) {
+
+				int n = Math.min(rowsPerInsert, rows.size() - from);
+				PreparedStatement insert = this.insertStatement(n);
+				int p = 1;
+				for (int i = from; i < from + n; i++) {
+					insert.setString(p++, rows.get(i).getFeatName());
+					insert.setString(p++, rows.get(i).getFeatValue());
+					insert.setLong(p++, rowScoreIds.get(i));
+				}
+				insert.executeUpdate();
+				if (insert != insertStmt)
+					insert.close();
+
+			}
+
+			written += rows.size();
+
+		} finally {
+			this.clear();
+		}
+
+	}
+
+	/**
+	 * Discards the buffered documents, e.g., when rolling back.
+	 */
+	public void clear() {
+		scoreIds.clear();
+		bufferedIds.clear();
+		rowScoreIds.clear();
+		rows.clear();
+	}
+
+	/**
+	 * Closes the statements, without flushing.
+	 */
+	public void close() {
+		JdbcConnectionFactory.closeQuietly(null, deleteStmt, null);
+		JdbcConnectionFactory.closeQuietly(null, insertStmt, null);
+		deleteStmt = insertStmt = null;
+		this.clear();
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	private PreparedStatement deleteStatement(int n) throws SQLException {
+
+		if (n == maxDocuments && deleteStmt != null)
+			return deleteStmt;
+
+		StringBuilder sql = new StringBuilder(
+				"DELETE FROM TriageFeature WHERE score_id IN (");
+		for (int i = 0; i < n; i++)
+			sql.append(i == 0 ? "?" : ",?");
+		sql.append(')');
+
+		PreparedStatement stmt = conn.prepareStatement(sql.toString());
+		if (n == maxDocuments)
+			deleteStmt = stmt;
+		return stmt;
+
+	}
+
+	private PreparedStatement insertStatement(int n) throws SQLException {
+
+		if (n == rowsPerInsert && insertStmt != null)
+			return insertStmt;
+
+		StringBuilder sql = new StringBuilder("INSERT INTO TriageFeature "
+				+ "(featName, featValue, score_id) VALUES ");
+		for (int i = 0; i < n; i++)
+			sql.append(i == 0 ? "(?,?,?)" : ",(?,?,?)");
+
+		PreparedStatement stmt = conn.prepareStatement(sql.toString());
+		if (n == rowsPerInsert)
+			insertStmt = stmt;
+		return stmt;
+
+	}
+
+}
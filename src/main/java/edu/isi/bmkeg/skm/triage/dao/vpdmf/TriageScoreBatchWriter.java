@@ -0,0 +1,332 @@
+package edu.isi.bmkeg.skm.triage.dao.vpdmf;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes classifier scores back to the TriageScore table in JDBC batches, on
+ * a background thread with its own connection.
+ *
+ * Scores are queued with {@link #add(long, float, Date)} and written as
+ * single-row UPDATEs of inScore and scoredTimestamp, committed once per
+ * batch. A batch is written when it reaches batchSize scores or when its
+ * oldest score has waited flushIntervalMs. The queue is bounded, so add()
+ * blocks when the writer falls behind.
+ *
+ * If a batch fails, or the writer thread is interrupted, the current batch is
+ * rolled back and every later call to add(), flush() or close() throws the
+ * error; scores queued after the failure are discarded. {@link #abort()}
+ * stops the writer without writing what is still queued, e.g., when the run
+ * that produces the scores fails.
+ */
+public class TriageScoreBatchWriter {
+
+	private static Logger logger = Logger.getLogger(TriageScoreBatchWriter.class);
+
+	private static final String UPDATE_SQL = "UPDATE TriageScore "
+			+ "SET inScore = ?, scoredTimestamp = ? WHERE vpdmfId = ?";
+
+	private static class Entry {
+		long vpdmfId;
+		float inScore;
+		Timestamp timestamp;
+
+		Entry(long vpdmfId, float inScore, Timestamp timestamp) {
+			this.vpdmfId = vpdmfId;
+			this.inScore = inScore;
+			this.timestamp = timestamp;
+		}
+	}
+
+	private static final Entry FLUSH = new Entry(-1, 0, null);
+
+	private static final Entry STOP = new Entry(-1, 0, null);
+
+	private JdbcConnectionFactory connectionFactory;
+
+	private int batchSize;
+
+	private long flushIntervalMs;
+
+	private BlockingQueue<Entry> queue;
+
+	private Thread writerThread;
+
+	private final Object lock = new Object();
+
+	// guarded by lock
+	private long submitted = 0;
+
+	private long written = 0;
+
+	private Exception failure;
+
+	private boolean aborted = false;
+
+	public TriageScoreBatchWriter(JdbcConnectionFactory connectionFactory,
+			int batchSize, long flushIntervalMs, int queueCapacity) {
+
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batchSize must be positive");
+		if (flushIntervalMs <= 0)
+			throw new IllegalArgumentException("flushIntervalMs must be positive");
+
+		this.connectionFactory = connectionFactory;
+		this.batchSize = batchSize;
+		this.flushIntervalMs = flushIntervalMs;
+		this.queue = new ArrayBlockingQueue<Entry>(Math.max(queueCapacity,
+				batchSize));
+
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~
+	// Getters
+	// ~~~~~~~~~~~~~~~~~~~
+	public long getWritten() {
+		synchronized (lock) {
+			return written;
+		}
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	/**
+	 * Opens the writer's connection and starts the writer thread.
+	 */
+	public void start() throws SQLException {
+
+		final Connection conn = connectionFactory.openConnection();
+		conn.setAutoCommit(false);
+
+		this.writerThread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					writeLoop(conn);
+				} finally {
+					JdbcConnectionFactory.closeQuietly(null, null, conn);
+				}
+			}
+		}, "triage-score-writer");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+
+	}
+
+	/**
+	 * Queues a score, blocking while the queue is full.
+	 */
+	public void add(long vpdmfId, float inScore, Date timestamp)
+			throws Exception {
+
+		checkFailure();
+
+		synchronized (lock) {
+			submitted++;
+		}
+		put(new Entry(vpdmfId, inScore, new Timestamp(timestamp.getTime())));
+
+	}
+
+	/**
+	 * Writes every score queued so far and waits until they are committed.
+	 */
+	public void flush() throws Exception {
+
+		long target;
+		synchronized (lock) {
+			target = submitted;
+		}
+
+		put(FLUSH);
+
+		synchronized (lock) {
+			while (written < target && failure == null)
+				lock.wait();
+		}
+
+		checkFailure();
+
+	}
+
+	/**
+	 * Flushes the queue, stops the writer thread and closes its connection.
+	 */
+	public void close() throws Exception {
+
+		if (writerThread == null)
+			return;
+
+		try {
+			flush();
+		} finally {
+			put(STOP);
+			writerThread.join();
+			writerThread = null;
+		}
+
+	}
+
+	/**
+	 * Stops the writer thread without writing the scores that are still
+	 * queued or batched, and closes its connection. Does nothing if the
+	 * writer is already closed.
+	 */
+	public void abort() throws InterruptedException {
+
+		if (writerThread == null)
+			return;
+
+		synchronized (lock) {
+			aborted = true;
+		}
+		queue.clear();
+
+		put(STOP);
+		writerThread.join();
+		writerThread = null;
+
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	private boolean isAborted() {
+		synchronized (lock) {
+			return aborted;
+		}
+	}
+
+	/**
+	 * Queues an entry, unless the writer thread has stopped: nothing would
+	 * take it from a full queue then.
+	 */
+	private void put(Entry e) throws InterruptedException {
+		while (!queue.offer(e, 100, TimeUnit.MILLISECONDS)) {
+			if (writerThread != null && !writerThread.isAlive())
+				return;
+		}
+	}
+
+	private void checkFailure() throws Exception {
+		synchronized (lock) {
+			if (failure != null)
+				throw new Exception("Writing triage scores failed", failure);
+		}
+	}
+
+	private void writeLoop(Connection conn) {
+
+		List<Entry> batch = new ArrayList<Entry>(batchSize);
+		long deadline = 0;
+
+		try {
+
+			PreparedStatement stmt = conn.prepareStatement(UPDATE_SQL);
+
+			while (true) {
+
+				long wait = batch.isEmpty() ? flushIntervalMs : Math.max(0,
+						deadline - System.currentTimeMillis());
+				Entry e = queue.poll(wait, TimeUnit.MILLISECONDS);
+
+				if (isAborted()) {
+					conn.rollback();
+					break;
+				} else if (e == STOP) {
+					write(conn, stmt, batch);
+					break;
+				} else if (e == null || e == FLUSH) {
+					write(conn, stmt, batch);
+					continue;
+				}
+
+				if (batch.isEmpty())
+					deadline = System.currentTimeMillis() + flushIntervalMs;
+				batch.add(e);
+
+				if (batch.size() >= batchSize)
+					write(conn, stmt, batch);
+
+			}
+
+			stmt.close();
+
+		} catch (InterruptedException e) {
+
+			logger.error("Triage score writer interrupted");
+			try {
+				conn.rollback();
+			} catch (SQLException e2) {
+			}
+
+			synchronized (lock) {
+				failure = e;
+				lock.notifyAll();
+			}
+
+			Thread.currentThread().interrupt();
+
+		} catch (SQLException e) {
+
+			logger.error("Failed to write triage scores: " + e.getMessage());
+			try {
+				conn.rollback();
+			} catch (SQLException e2) {
+			}
+
+			synchronized (lock) {
+				failure = e;
+				lock.notifyAll();
+			}
+
+			// keep draining so that producers never block forever
+			drain();
+
+		}
+
+	}
+
+	private void write(Connection conn, PreparedStatement stmt,
+			List<Entry> batch) throws SQLException {
+
+		if (!batch.isEmpty()) {
+
+			for (Entry e : batch) {
+				stmt.setFloat(1, e.inScore);
+				stmt.setTimestamp(2, e.timestamp);
+				stmt.setLong(3, e.vpdmfId);
+				stmt.addBatch();
+			}
+			stmt.executeBatch();
+			conn.commit();
+
+		}
+
+		synchronized (lock) {
+			written += batch.size();
+			lock.notifyAll();
+		}
+
+		batch.clear();
+
+	}
+
+	private void drain() {
+		try {
+			while (queue.take() != STOP) {
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
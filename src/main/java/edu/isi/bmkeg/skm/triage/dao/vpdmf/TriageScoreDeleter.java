@@ -0,0 +1,174 @@
+package edu.isi.bmkeg.skm.triage.dao.vpdmf;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import edu.isi.bmkeg.vpdmf.controller.queryEngineTools.ChangeEngine;
+
+/**
+ * Deletes the TriageScore rows of a triage and/or target corpus, with their
+ * TriageFeature and ViewTable rows, in chunks of chunkSize scores taken in
+ * vpdmfId order. Each chunk is committed on its own, so the tables used by
+ * the curation service are only locked for a short time, and the deleter
+ * can optionally pause between chunks.
+ *
+ * The deleted rows are committed as it goes, so an interrupted deletion is
+ * resumed by running it again: it picks up the scores that are left. Any
+ * work left uncommitted on the ChangeEngine by the caller is committed with
+ * the first chunk.
+ *
+ * The ChangeEngine must be connected, with auto commit off.
+ */
+public class TriageScoreDeleter {
+
+	private static Logger logger = Logger.getLogger(TriageScoreDeleter.class);
+
+	public static final int DEFAULT_CHUNK_SIZE = 500;
+
+	private ChangeEngine ce;
+
+	private int chunkSize;
+
+	private long pauseMs = 0;
+
+	public TriageScoreDeleter(ChangeEngine ce, int chunkSize) {
+
+		if (chunkSize < 1)
+			throw new IllegalArgumentException("chunkSize must be positive");
+
+		this.ce = ce;
+		this.chunkSize = chunkSize;
+
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~
+	// Getters and Setters
+	// ~~~~~~~~~~~~~~~~~~~
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public long getPauseMs() {
+		return pauseMs;
+	}
+
+	/**
+	 * Time to sleep between two chunks, to leave the tables to other
+	 * clients.
+	 */
+	public void setPauseMs(long pauseMs) {
+		this.pauseMs = pauseMs;
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	/**
+	 * Returns the vpdmfId of the named corpus, or -1 if there is none.
+	 */
+	public long findCorpusId(String corpusName) throws Exception {
+
+		ResultSet rs = ce.executeRawSqlQuery("SELECT vpdmfId FROM Corpus "
+				+ "WHERE name = " + TriageDaoExImpl.sqlString(corpusName) + ";");
+		try {
+			return rs.next() ? rs.getLong(1) : -1;
+		} finally {
+			rs.close();
+		}
+
+	}
+
+	/**
+	 * Deletes the scores of a triage corpus and a target corpus. Either id
+	 * may be negative to delete the scores of the other corpus with any
+	 * corpus. Returns the number of rows deleted by table name.
+	 */
+	public Map<String, Integer> deleteScores(long triageCorpusId,
+			long targetCorpusId) throws Exception {
+
+		if (triageCorpusId < 0 && targetCorpusId < 0)
+			throw new IllegalArgumentException("No corpus to delete scores from");
+
+		String where = "";
+		if (triageCorpusId >= 0)
+			where += " AND triageCorpus_id = " + triageCorpusId;
+		if (targetCorpusId >= 0)
+			where += " AND targetCorpus_id = " + targetCorpusId;
+
+		Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+		counts.put("TriageFeature", 0);
+		counts.put("TriageScore", 0);
+		counts.put("ViewTable", 0);
+
+		long t = System.currentTimeMillis();
+		int total = this.queryCount("SELECT COUNT(*) FROM TriageScore "
+				+ "WHERE vpdmfId > 0" + where + ";");
+		logger.info(total + " scores to delete.");
+
+		long lastId = 0;
+		int deleted = 0;
+
+		while (true) {
+
+			List<Long> ids = new ArrayList<Long>(chunkSize);
+			ResultSet rs = ce.executeRawSqlQuery("SELECT vpdmfId "
+					+ "FROM TriageScore WHERE vpdmfId > " + lastId + where
+					+ " ORDER BY vpdmfId LIMIT " + chunkSize + ";");
+			try {
+				while (rs.next())
+					ids.add(rs.getLong(1));
+			} finally {
+				rs.close();
+			}
+
+			if (ids.isEmpty())
+				break;
+			lastId = ids.get(ids.size() - 1);
+
+			String in = " IN (" + TriageDaoExImpl.join(ids) + ");";
+			try {
+				TriageDaoExImpl.add(counts, "TriageFeature", ce.executeRawUpdateQuery(
+						"DELETE FROM TriageFeature WHERE score_id" + in));
+				TriageDaoExImpl.add(counts, "TriageScore", ce.executeRawUpdateQuery(
+						"DELETE FROM TriageScore WHERE vpdmfId" + in));
+				TriageDaoExImpl.add(counts, "ViewTable", ce.executeRawUpdateQuery(
+						"DELETE FROM ViewTable WHERE vpdmfId" + in));
+				ce.commitTransaction();
+			} catch (Exception e) {
+				ce.rollbackTransaction();
+				throw e;
+			}
+
+			deleted += ids.size();
+			logger.info("Deleted " + deleted + " / " + total + " scores in "
+					+ (System.currentTimeMillis() - t) / 1000.0 + " s");
+
+			if (pauseMs > 0)
+				Thread.sleep(pauseMs);
+
+		}
+
+		logger.info("Deleted " + counts + " in "
+				+ (System.currentTimeMillis() - t) / 1000.0 + " s");
+
+		return counts;
+
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	private int queryCount(String sql) throws Exception {
+		ResultSet rs = ce.executeRawSqlQuery(sql);
+		try {
+			rs.next();
+			return rs.getInt(1);
+		} finally {
+			rs.close();
+		}
+	}
+
+}
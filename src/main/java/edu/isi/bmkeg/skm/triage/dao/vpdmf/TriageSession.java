@@ -0,0 +1,101 @@
+package edu.isi.bmkeg.skm.triage.dao.vpdmf;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+
+/**
+ * A unit of work on one JDBC connection, for the raw SQL the triage pipeline
+ * runs outside of the VPDMf ChangeEngine (whose single connection can't be
+ * shared between threads).
+ *
+ * A session is confined to the thread (or annotator replica) that opened it.
+ * Sessions on pooled connections are in manual commit mode; closing them
+ * returns the connection to the pool, discarding uncommitted work.
+ */
+public class TriageSession {
+
+	private Connection conn;
+
+	private JdbcConnectionPool pool;
+
+	private PreparedStatement updateScoreStmt;
+
+	/**
+	 * Creates a session on a connection borrowed from the given pool, or on a
+	 * connection of its own (closed with the session) if pool is null.
+	 */
+	public TriageSession(Connection conn, JdbcConnectionPool pool) {
+		this.conn = conn;
+		this.pool = pool;
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~
+	// Getters
+	// ~~~~~~~~~~~~~~~~~~~
+	public Connection getConnection() {
+		return conn;
+	}
+
+	// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	/**
+	 * Writes the inScore and scoredTimestamp of a single TriageScore row,
+	 * returning false if there is no such row.
+	 */
+	public boolean updateInScore(long vpdmfId, float inScore, Date timestamp)
+			throws SQLException {
+
+		if (updateScoreStmt == null)
+			updateScoreStmt = conn.prepareStatement("UPDATE TriageScore "
+					+ "SET inScore = ?, scoredTimestamp = ? WHERE vpdmfId = ?");
+
+		updateScoreStmt.setFloat(1, inScore);
+		updateScoreStmt.setTimestamp(2, new Timestamp(timestamp.getTime()));
+		updateScoreStmt.setLong(3, vpdmfId);
+		return updateScoreStmt.executeUpdate() > 0;
+
+	}
+
+	/**
+	 * Creates a writer of explanation features on this session's connection.
+	 */
+	public TriageFeatureBatchWriter createFeatureWriter(int maxDocuments,
+			int rowsPerInsert) {
+		return new TriageFeatureBatchWriter(conn, maxDocuments, rowsPerInsert);
+	}
+
+	public void commit() throws SQLException {
+		conn.commit();
+	}
+
+	public void rollback() throws SQLException {
+		conn.rollback();
+	}
+
+	/**
+	 * Releases the session's connection. Uncommitted work is rolled back.
+	 */
+	public void close() {
+
+		JdbcConnectionFactory.closeQuietly(null, updateScoreStmt, null);
+		updateScoreStmt = null;
+
+		if (conn == null)
+			return;
+		if (pool != null) {
+			pool.release(conn);
+		} else {
+			try {
+				conn.rollback();
+			} catch (SQLException e) {
+			}
+			JdbcConnectionFactory.closeQuietly(null, null, conn);
+		}
+		conn = null;
+
+	}
+
+}
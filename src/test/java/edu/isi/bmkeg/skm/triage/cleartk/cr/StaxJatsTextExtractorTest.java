@@ -0,0 +1,106 @@
+package edu.isi.bmkeg.skm.triage.cleartk.cr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+
+public class StaxJatsTextExtractorTest {
+
+	File sample;
+
+	StaxJatsTextExtractor stax;
+
+	@Before
+	public void setUp() throws Exception {
+
+		sample = new ClassPathResource(
+				"edu/isi/bmkeg/skm/triage/pmc/sample.nxml").getFile();
+		stax = new StaxJatsTextExtractor();
+
+	}
+
+	@Test
+	public void testFormattingMarkers() throws Exception {
+
+		String text = stax.extractText(sample);
+
+		assertEquals("Introduction Mice carrying the __s_I__ Pax6Sey __e_I__ "
+				+ "allele were described before __s_A__ [1] __e_A__ . "
+				+ "Expression was reduced by __s_I__ 50 __e_I__ % in "
+				+ "Ca __s_SUP__ 2+ __e_SUP__ -free medium and "
+				+ "H __s_SUB__ 2 __e_SUB__ O & <buffer>. "
+				+ "See __s_A__ MGI database __e_A__ and "
+				+ "__s_A__ Figure 1 __e_A__ . Raw <text>. Empty formatting. "
+				+ "Methods Figure 1 Western blot.", text);
+
+	}
+
+	@Test
+	public void testBodyOnly() throws Exception {
+
+		String xml = "<article><front><article-title>Title</article-title></front>"
+				+ "<body><p>One<italic>two</italic></p><p>three</p></body>"
+				+ "<back><ref-list><ref>Ref</ref></ref-list></back>"
+				+ "<sub-article><body><p>Reply</p></body></sub-article></article>";
+
+		String text = stax.extractText(new ByteArrayInputStream(xml
+				.getBytes("UTF-8")));
+
+		assertEquals("One __s_I__ two __e_I__ three", text);
+
+	}
+
+	/**
+	 * The streaming extractor must produce exactly what the XSLT + Jsoup
+	 * pipeline produces.
+	 */
+	@Test
+	public void testParityWithXslt() throws Exception {
+
+		assertTrue(new ClassPathResource(XsltJatsTextExtractor.STYLESHEET)
+				.exists());
+
+		XsltJatsTextExtractor xslt = new XsltJatsTextExtractor();
+
+		assertEquals(xslt.extractText(sample), stax.extractText(sample));
+
+	}
+
+	/**
+	 * PMC files declare a DTD that isn't stored with them; neither extractor
+	 * may try to load it.
+	 */
+	@Test
+	public void testExternalDtdIgnored() throws Exception {
+
+		String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<!DOCTYPE article PUBLIC \"-//NLM//DTD Journal Archiving and "
+				+ "Interchange DTD v3.0 20080202//EN\" \"archivearticle3.dtd\">\n"
+				+ "<article><body><p>One<italic>two</italic></p></body></article>";
+
+		File file = File.createTempFile("dtd", ".nxml");
+		try {
+
+			OutputStream out = new FileOutputStream(file);
+			out.write(xml.getBytes("UTF-8"));
+			out.close();
+
+			assertEquals("One __s_I__ two __e_I__", stax.extractText(file));
+			assertEquals(stax.extractText(file),
+					new XsltJatsTextExtractor().extractText(file));
+
+		} finally {
+			file.delete();
+		}
+
+	}
+
+}
@@ -0,0 +1,90 @@
+package edu.isi.bmkeg.skm.triage.cleartk.cr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TriageTextCacheTest {
+
+	File dir, xml;
+	
+	@Before
+	public void setUp() throws Exception {
+		
+		dir = new File("target/textCacheTest");
+		deleteRecursively(dir);
+		dir.mkdirs();
+		
+		xml = new File(dir, "PMC123.nxml");
+		FileWriter w = new FileWriter(xml);
+		w.write("<article/>");
+		w.close();
+		
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		deleteRecursively(dir);
+	}
+	
+	@Test
+	public final void testHitMissAndInvalidation() throws Exception {
+
+		TriageTextCache cache = new TriageTextCache(new File(dir, "cache"), 1024 * 1024);
+		String fp = TriageTextCache.fingerprint(xml, "xslt", "Title", "Abstract");
+
+		assertNull(cache.get("PMC123.nxml", fp));
+		cache.put("PMC123.nxml", fp, "Title\nAbstract\nBody \u00e9");
+		assertEquals("Title\nAbstract\nBody \u00e9", cache.get("PMC123.nxml", fp));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		// a different title makes the entry stale
+		String fp2 = TriageTextCache.fingerprint(xml, "xslt", "New Title", "Abstract");
+		assertNull(cache.get("PMC123.nxml", fp2));
+
+		cache.put("PMC123.nxml", fp2, "text");
+		assertTrue(cache.invalidate("PMC123.nxml"));
+		assertNull(cache.get("PMC123.nxml", fp2));
+		assertEquals(0, cache.getTotalBytes());
+
+	}
+
+	@Test
+	public final void testEviction() throws Exception {
+
+		TriageTextCache cache = new TriageTextCache(new File(dir, "cache"), 2048);
+		String fp = TriageTextCache.fingerprint(xml);
+
+		// random text so that each entry stays roughly 1KB when compressed
+		StringBuilder sb = new StringBuilder();
+		Random r = new Random(0);
+		for (int i = 0; i < 1000; i++)
+			sb.append((char) ('a' + r.nextInt(26)));
+		
+		for (int i = 0; i < 10; i++)
+			cache.put("doc" + i, fp, sb.toString());
+
+		assertTrue(cache.getEvictions() > 0);
+		assertTrue(cache.getTotalBytes() <= 2048);
+		assertEquals(sb.toString(), cache.get("doc9", fp));
+
+	}
+	
+	private void deleteRecursively(File f) {
+		File[] children = f.listFiles();
+		if (children != null)
+			for (File c : children)
+				deleteRecursively(c);
+		f.delete();
+	}
+
+}
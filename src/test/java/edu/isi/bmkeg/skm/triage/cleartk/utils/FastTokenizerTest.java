@@ -0,0 +1,146 @@
+package edu.isi.bmkeg.skm.triage.cleartk.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.jcas.JCas;
+import org.cleartk.opennlp.tools.SentenceAnnotator;
+import org.cleartk.token.tokenizer.TokenAnnotator;
+import org.cleartk.token.type.Sentence;
+import org.cleartk.token.type.Token;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.uimafit.factory.AggregateBuilder;
+import org.uimafit.util.JCasUtil;
+
+import edu.isi.bmkeg.skm.triage.cleartk.cr.StaxJatsTextExtractor;
+
+public class FastTokenizerTest {
+
+	FastTokenizer tokenizer = new FastTokenizer();
+
+	private String tokens(String text) {
+		tokenizer.tokenize(text);
+		return this.toString(text);
+	}
+
+	private String toString(String text) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < tokenizer.size(); i++) {
+			if (i > 0)
+				sb.append("|");
+			sb.append(text, tokenizer.getBegin(i), tokenizer.getEnd(i));
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void testPunctuationAndClitics() throws Exception {
+
+		assertEquals("The|mouse|(|Mus|musculus|)|did|n't|bind|1,000|genes|,|"
+				+ "she|said|:|Smith|'s|dogs|'|bones|--|really|?",
+				tokens("The mouse (Mus musculus) didn't bind 1,000 genes, "
+						+ "she said: Smith's dogs' bones -- really?"));
+
+		assertEquals("They|can|not|wait|;|gon|na|try|'|tis|US$|5|&|A&B|at|"
+				+ "10:30|...",
+				tokens("They cannot wait; gonna try 'tis US$5 & A&B at 10:30..."));
+
+		assertEquals("It|'s|'|quoted|'|and|''|double|''|(|n|=|12|)|--|ok|.",
+				tokens("It's 'quoted' and ''double'' (n = 12) -- ok."));
+
+	}
+
+	@Test
+	public void testSentenceFinalPeriods() throws Exception {
+
+		// only the period ending the sentence is split
+		assertEquals("We|saw|it.|Dr.|Smith|saw|e.g.|Pax6|at|3:30|p.m.|"
+				+ "He|said|\"|stop|.|\"",
+				tokens("We saw it. Dr. Smith saw e.g. Pax6 at 3:30 p.m. "
+						+ "He said \"stop.\""));
+
+	}
+
+	@Test
+	public void testSentences() throws Exception {
+
+		String text = "We saw 3 mice. They cannot wait.";
+		tokenizer.clear();
+		tokenizer.tokenize(text, 0, 14);
+		tokenizer.tokenize(text, 15, text.length());
+
+		assertEquals("We|saw|3|mice|.|They|can|not|wait|.", this.toString(text));
+		assertEquals(15, tokenizer.getBegin(5));
+
+	}
+
+	@Test
+	public void testReuse() throws Exception {
+
+		tokens("one two three four");
+		assertEquals("five", tokens("five"));
+		assertEquals(1, tokenizer.size());
+
+	}
+
+	/**
+	 * Runs TokenAnnotator on the sample document and on a few texts with
+	 * unusual whitespace and punctuation, and checks that the FastTokenizer
+	 * finds the same tokens in the same sentences.
+	 */
+	@Test
+	public void testSameTokensAsTokenAnnotator() throws Exception {
+
+		File sample = new ClassPathResource(
+				"edu/isi/bmkeg/skm/triage/pmc/sample.nxml").getFile();
+
+		List<String> texts = new ArrayList<String>();
+		texts.add(new StaxJatsTextExtractor().extractText(sample));
+		texts.add("Cells were fixed (4% PFA) for 10 min. at 4\u00b0C.\n"
+				+ "Ratios of 1:2, 10:1 and 3.5 were `` tested '' -- "
+				+ "see ref. [12]... Wasn't it?\r\nWhaddya think, Dr. O'Brien?");
+		texts.add("Pax6 Sey mice\u0085 ''' lacked it .\t) Others "
+				+ "didn't. They'd gotta go & see 'tis 'twas 90's.");
+
+		AggregateBuilder builder = new AggregateBuilder();
+		builder.add(SentenceAnnotator.getDescription());
+		builder.add(TokenAnnotator.getDescription());
+		AnalysisEngine engine = builder.createAggregate();
+
+		for (String text : texts) {
+
+			JCas jCas = engine.newJCas();
+			jCas.setDocumentText(text);
+			engine.process(jCas);
+
+			StringBuilder expected = new StringBuilder();
+			for (Token token : JCasUtil.select(jCas, Token.class)) {
+				if (expected.length() > 0)
+					expected.append("|");
+				expected.append(token.getBegin() + ":" + token.getEnd());
+			}
+
+			tokenizer.clear();
+			for (Sentence sentence : JCasUtil.select(jCas, Sentence.class))
+				tokenizer.tokenize(text, sentence.getBegin(), sentence.getEnd());
+			StringBuilder actual = new StringBuilder();
+			for (int i = 0; i < tokenizer.size(); i++) {
+				if (i > 0)
+					actual.append("|");
+				actual.append(tokenizer.getBegin(i) + ":" + tokenizer.getEnd(i));
+			}
+
+			assertEquals(expected.toString(), actual.toString());
+
+		}
+
+		engine.destroy();
+
+	}
+
+}
@@ -0,0 +1,177 @@
+package edu.isi.bmkeg.skm.triage.cleartk.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.cleartk.ml.Feature;
+import org.cleartk.ml.encoder.features.FeatureVectorFeaturesEncoder;
+import org.cleartk.ml.encoder.features.NumberEncoder;
+import org.cleartk.ml.encoder.features.normalizer.NoOpNormalizer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.isi.bmkeg.skm.triage.cleartk.utils.LinearSvmScorer.Contribution;
+
+public class LinearSvmScorerTest {
+
+	File modelDir;
+
+	// two class linear model with three support vectors
+	static String MODEL = "svm_type c_svc\n"
+			+ "kernel_type linear\n"
+			+ "nr_class 2\n"
+			+ "total_sv 3\n"
+			+ "rho -0.25\n"
+			+ "label -1 1\n"
+			+ "nr_sv 2 1\n"
+			+ "SV\n"
+			+ "0.5 1:1 3:2 \n"
+			+ "-1 2:1 3:1 \n"
+			+ "0.5 1:2 5:0.5 \n";
+
+	@Before
+	public void setUp() throws Exception {
+
+		modelDir = File.createTempFile("linearSvm", "");
+		modelDir.delete();
+		modelDir.mkdirs();
+
+		// features a to e are encoded as indices 1 to 5
+		FeatureVectorFeaturesEncoder encoder = new FeatureVectorFeaturesEncoder(
+				0, new NoOpNormalizer());
+		encoder.addEncoder(new NumberEncoder());
+		for (String name : new String[] { "a", "b", "c", "d", "e" })
+			encoder.encodeAll(features(name, 1));
+		encoder.finalizeFeatureSet(modelDir);
+
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(
+				new File(modelDir, "model.jar")));
+		out.putNextEntry(new ZipEntry("encoders.ser"));
+		ObjectOutputStream os = new ObjectOutputStream(out);
+		os.writeObject(encoder);
+		os.flush();
+		out.closeEntry();
+		out.putNextEntry(new ZipEntry("model.libsvm"));
+		out.write(MODEL.getBytes("US-ASCII"));
+		out.closeEntry();
+		out.close();
+
+	}
+
+	private static List<Feature> features(Object... nameValues) {
+		List<Feature> features = new ArrayList<Feature>();
+		for (int i = 0; i < nameValues.length; i += 2)
+			features.add(new Feature((String) nameValues[i], nameValues[i + 1]));
+		return features;
+	}
+
+	private static String toString(List<Contribution> contributions) {
+		StringBuilder sb = new StringBuilder();
+		for (Contribution c : contributions) {
+			if (sb.length() > 0)
+				sb.append(" ");
+			sb.append(c.getName() + "=" + c.getContribution());
+		}
+		return sb.toString();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (File f : modelDir.listFiles())
+			f.delete();
+		modelDir.delete();
+	}
+
+	@Test
+	public void testCompile() throws Exception {
+
+		LinearSvmScorer.compile(modelDir);
+
+		LinearSvmScorer scorer = LinearSvmScorer.readCompiled(modelDir);
+		assertNotNull(scorer);
+
+		// w = 0.5 * sv1 - 1 * sv2 + 0.5 * sv3
+		assertEquals(1.5, scorer.getWeight(1), 1e-12);
+		assertEquals(-1.0, scorer.getWeight(2), 1e-12);
+		assertEquals(0.0, scorer.getWeight(3), 1e-12);
+		assertEquals(0.0, scorer.getWeight(4), 1e-12);
+		assertEquals(0.25, scorer.getWeight(5), 1e-12);
+		assertEquals(6, scorer.getDimension());
+		assertEquals(0.25, scorer.getBias(), 1e-12);
+
+		// the first label is -1 (false), so decision values are negated
+		assertFalse(scorer.isTrueFirstLabel());
+
+	}
+
+	@Test
+	public void testStaleCompiledModel() throws Exception {
+
+		LinearSvmScorer.compile(modelDir);
+
+		File jar = new File(modelDir, "model.jar");
+		assertTrue(jar.setLastModified(jar.lastModified() - 10000));
+
+		assertNull(LinearSvmScorer.readCompiled(modelDir));
+
+	}
+
+	@Test
+	public void testExplainContributions() throws Exception {
+
+		LinearSvmScorer scorer = LinearSvmScorer.load(modelDir);
+
+		// the first label is false, so weights count against the score:
+		// a = -1.5 * 2, b = +1.0 * 1, e = -0.25 * 4 and c weighs nothing
+		List<Contribution> contributions = scorer.explain(
+				features("a", 2, "b", 1, "c", 4, "e", 4), 10);
+		assertEquals("a=-3.0 b=1.0 e=-1.0", toString(contributions));
+		assertEquals(2.0, contributions.get(0).getValue(), 1e-12);
+
+		// the contributions and the bias add up to the score
+		double sum = 0;
+		for (Contribution c : contributions)
+			sum += c.getContribution();
+		assertEquals(scorer.score(features("a", 2, "b", 1, "c", 4, "e", 4)),
+				sum - scorer.getBias(), 1e-12);
+
+	}
+
+	@Test
+	public void testExplainTopK() throws Exception {
+
+		LinearSvmScorer scorer = LinearSvmScorer.load(modelDir);
+
+		assertEquals("e=-2.5 a=-1.5",
+				toString(scorer.explain(features("a", 1, "b", 0.5, "e", 10), 2)));
+		assertEquals("e=-2.5",
+				toString(scorer.explain(features("a", 1, "b", 0.5, "e", 10), 1)));
+
+	}
+
+	@Test
+	public void testExplainFewerFeaturesThanK() throws Exception {
+
+		LinearSvmScorer scorer = LinearSvmScorer.load(modelDir);
+
+		assertEquals("b=1.0", toString(scorer.explain(features("b", 1, "d", 3), 5)));
+		assertTrue(scorer.explain(features(), 5).isEmpty());
+
+		// features unknown to the model weigh nothing
+		assertTrue(scorer.explain(features("unseen", 1), 5).isEmpty());
+
+	}
+
+}
@@ -0,0 +1,67 @@
+package edu.isi.bmkeg.skm.triage.cleartk.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+public class MultiPatternMatcherTest {
+
+	private static MultiPatternMatcher read(String dictionary)
+			throws IOException {
+		return MultiPatternMatcher.read(new BufferedReader(new StringReader(
+				dictionary)), "test");
+	}
+
+	@Test
+	public void testOverlappingLiterals() throws Exception {
+
+		MultiPatternMatcher m = read("he\tliteral\the\n"
+				+ "she\tliteral\tshe\n"
+				+ "# comment\n\n"
+				+ "his\tliteral\this\n"
+				+ "hers\tliteral\thers\n");
+
+		assertEquals(4, m.size());
+		assertArrayEquals(new int[] { 2, 1, 0, 1 }, m.count("ushers, he said"));
+
+	}
+
+	@Test
+	public void testWordsIgnoringCase() throws Exception {
+
+		MultiPatternMatcher m = read("mouse\tword-i\tmouse\n"
+				+ "mouse\tword-i\tmice\n"
+				+ "murine\tliteral\tmurine\n");
+
+		assertArrayEquals(new int[] { 3, 1 }, m.count(
+				"Mouse and MICE, not mousetrap; mice. Murine murine"));
+
+	}
+
+	@Test
+	public void testCombinedRegexes() throws Exception {
+
+		MultiPatternMatcher m = read("genotype\tregex\t[+\\-]\\s?/\\s?[\\-+]\n"
+				+ "year\tregex\t(19|20)\\d\\d\n"
+				+ "Ko\tregex-i\tknock-?out\n"
+				+ "mouse\tliteral\tmice\n");
+
+		assertArrayEquals(new int[] { 2, 1, 2, 1 }, m.count(
+				"In 2004, +/- and -/ - mice, Knockout or knock-out."));
+		assertEquals("year", m.getName(1));
+		assertEquals(4, m.countFeatures("+/+ knockout mice 1999").size());
+		assertEquals(0, m.countFeatures("nothing here").size());
+
+	}
+
+	@Test(expected = IOException.class)
+	public void testMalformedLine() throws Exception {
+		read("name\tliteral\n");
+	}
+
+}
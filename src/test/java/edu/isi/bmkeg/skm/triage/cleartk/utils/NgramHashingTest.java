@@ -0,0 +1,58 @@
+package edu.isi.bmkeg.skm.triage.cleartk.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class NgramHashingTest {
+
+	@Test
+	public void testHashOfTextRange() throws Exception {
+
+		String text = "the mouse and the gene";
+
+		// the same token hashes identically wherever it occurs in the text
+		int h1 = NgramHashing.hash(text, 0, 3, NgramHashing.UNIGRAM_SEED);
+		int h2 = NgramHashing.hash(text, 14, 17, NgramHashing.UNIGRAM_SEED);
+		assertEquals(h1, h2);
+		assertEquals(h1, NgramHashing.hash("the", 0, 3, NgramHashing.UNIGRAM_SEED));
+
+		// tokens are case-sensitive
+		assertTrue(h1 != NgramHashing.hash("The", 0, 3, NgramHashing.UNIGRAM_SEED));
+
+	}
+
+	@Test
+	public void testBigramsAreOrdered() throws Exception {
+
+		int a = NgramHashing.hash("mouse", 0, 5, NgramHashing.UNIGRAM_SEED);
+		int b = NgramHashing.hash("gene", 0, 4, NgramHashing.UNIGRAM_SEED);
+
+		assertTrue(NgramHashing.combine(a, b, NgramHashing.BIGRAM_SEED) 
+				!= NgramHashing.combine(b, a, NgramHashing.BIGRAM_SEED));
+
+	}
+
+	@Test
+	public void testBucketAndSign() throws Exception {
+
+		int bits = 10;
+		int positive = 0, negative = 0;
+		for (int i = 0; i < 1000; i++) {
+			String s = "token" + i;
+			int h = NgramHashing.hash(s, 0, s.length(), NgramHashing.UNIGRAM_SEED);
+			int b = NgramHashing.bucket(h, bits);
+			assertTrue(b >= 0 && b < (1 << bits));
+			if (NgramHashing.sign(h) > 0)
+				positive++;
+			else
+				negative++;
+		}
+
+		// signs should be roughly balanced
+		assertTrue(positive > 400 && negative > 400);
+
+	}
+
+}
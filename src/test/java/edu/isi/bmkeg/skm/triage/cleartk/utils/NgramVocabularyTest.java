@@ -0,0 +1,91 @@
+package edu.isi.bmkeg.skm.triage.cleartk.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NgramVocabularyTest {
+
+	File vocabularyFile;
+
+	@Before
+	public void setUp() throws Exception {
+		vocabularyFile = File.createTempFile("vocabulary", ".bin");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		vocabularyFile.delete();
+		NgramVocabulary.getTermsFile(vocabularyFile).delete();
+	}
+
+	@Test
+	public void testWriteAndOpen() throws Exception {
+
+		String text = "the mouse gene and the human gene";
+		String[] tokens = text.split(" ");
+
+		NgramVocabulary.Builder builder = new NgramVocabulary.Builder();
+		int pos = 0;
+		long prev = 0;
+		for (int i = 0; i < tokens.length; i++) {
+			int begin = text.indexOf(tokens[i], pos);
+			int end = begin + tokens[i].length();
+			long f = NgramHashing.fingerprint(text, begin, end);
+			if (builder.getId(f) == -1)
+				builder.add(f, tokens[i]);
+			if (i > 0) {
+				long bf = NgramHashing.combineFingerprints(prev, f);
+				if (builder.getId(bf) == -1)
+					builder.add(bf, tokens[i - 1] + " " + tokens[i]);
+			}
+			prev = f;
+			pos = end;
+		}
+
+		// 5 distinct unigrams and 6 distinct bigrams
+		assertEquals(11, builder.size());
+
+		builder.write(vocabularyFile);
+
+		NgramVocabulary vocabulary = NgramVocabulary.open(vocabularyFile);
+		assertEquals(11, vocabulary.size());
+
+		List<String> terms = NgramVocabulary.readTerms(vocabularyFile);
+		for (int id = 0; id < terms.size(); id++) {
+			String[] words = terms.get(id).split(" ");
+			long f = NgramHashing.fingerprint(words[0], 0, words[0].length());
+			if (words.length == 2)
+				f = NgramHashing.combineFingerprints(f, 
+						NgramHashing.fingerprint(words[1], 0, words[1].length()));
+			assertEquals(id, vocabulary.getId(f));
+		}
+
+		assertEquals(-1, vocabulary.getId(NgramHashing.fingerprint("rat", 0, 3)));
+
+	}
+
+	@Test
+	public void testCounter() throws Exception {
+
+		IntIntCounter counter = new IntIntCounter(2);
+		for (int i = 0; i < 100; i++)
+			counter.increment(i % 37);
+
+		assertEquals(37, counter.size());
+		assertEquals(3, counter.get(0));
+		assertEquals(2, counter.get(36));
+		assertEquals(0, counter.keyAt(0));
+
+		counter.clear();
+		assertEquals(0, counter.size());
+		assertEquals(0, counter.get(0));
+
+	}
+
+}
@@ -0,0 +1,190 @@
+package edu.isi.bmkeg.skm.triage.cleartk.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.uima.UimaContext;
+import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.collection.CollectionException;
+import org.apache.uima.collection.CollectionReader;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.util.Progress;
+import org.apache.uima.util.ProgressImpl;
+import org.junit.Before;
+import org.junit.Test;
+import org.uimafit.component.JCasAnnotator_ImplBase;
+import org.uimafit.component.JCasCollectionReader_ImplBase;
+import org.uimafit.descriptor.ConfigurationParameter;
+import org.uimafit.factory.AnalysisEngineFactory;
+import org.uimafit.factory.CollectionReaderFactory;
+
+public class ParallelPipelineRunnerTest {
+
+	/**
+	 * Reads the documents "0" to "count - 1", recording the CASes it fills.
+	 */
+	public static class NumberReader extends JCasCollectionReader_ImplBase {
+
+		public static final String PARAM_COUNT = "count";
+		@ConfigurationParameter(name = PARAM_COUNT, mandatory = true)
+		private int count;
+
+		static Map<CAS, Boolean> cases = Collections
+				.synchronizedMap(new IdentityHashMap<CAS, Boolean>());
+
+		private int next = 0;
+
+		public boolean hasNext() throws IOException, CollectionException {
+			return next < count;
+		}
+
+		public void getNext(JCas jCas) throws IOException, CollectionException {
+			cases.put(jCas.getCas(), true);
+			jCas.setDocumentText(String.valueOf(next++));
+		}
+
+		public Progress[] getProgress() {
+			return new Progress[] { new ProgressImpl(next, count,
+					Progress.ENTITIES) };
+		}
+
+	}
+
+	/**
+	 * Takes a different time on each document, so that replicas finish them
+	 * out of order.
+	 */
+	public static class Delay extends JCasAnnotator_ImplBase {
+
+		static AtomicInteger instances = new AtomicInteger();
+
+		public void initialize(UimaContext context)
+				throws ResourceInitializationException {
+			super.initialize(context);
+			instances.incrementAndGet();
+		}
+
+		public void process(JCas jCas) throws AnalysisEngineProcessException {
+			try {
+				Thread.sleep(Integer.parseInt(jCas.getDocumentText()) * 7 % 13);
+			} catch (InterruptedException e) {
+				throw new AnalysisEngineProcessException(e);
+			}
+		}
+
+	}
+
+	/**
+	 * Records the documents it sees; not registered as replicable.
+	 */
+	public static class Recorder extends JCasAnnotator_ImplBase {
+
+		static AtomicInteger instances = new AtomicInteger();
+
+		static List<String> seen = Collections
+				.synchronizedList(new ArrayList<String>());
+
+		public void initialize(UimaContext context)
+				throws ResourceInitializationException {
+			super.initialize(context);
+			instances.incrementAndGet();
+		}
+
+		public void process(JCas jCas) throws AnalysisEngineProcessException {
+			seen.add(jCas.getDocumentText());
+		}
+
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		ParallelPipelineRunner.registerReplicable(Delay.class);
+		NumberReader.cases.clear();
+		Delay.instances.set(0);
+		Recorder.instances.set(0);
+		Recorder.seen.clear();
+	}
+
+	private ParallelPipelineRunner createPipeline(int documents, int threads)
+			throws Exception {
+		CollectionReader cr = CollectionReaderFactory.createCollectionReader(
+				NumberReader.class, NumberReader.PARAM_COUNT, documents);
+		return new ParallelPipelineRunner(cr, threads);
+	}
+
+	private static List<String> numbers(int n) {
+		List<String> l = new ArrayList<String>();
+		for (int i = 0; i < n; i++)
+			l.add(String.valueOf(i));
+		return l;
+	}
+
+	@Test(timeout = 60000)
+	public void testReaderOrder() throws Exception {
+
+		ParallelPipelineRunner pipeline = this.createPipeline(50, 4);
+		pipeline.add(AnalysisEngineFactory.createPrimitiveDescription(Delay.class));
+
+		List<String> out = new ArrayList<String>();
+		for (JCas jCas : pipeline)
+			out.add(jCas.getDocumentText());
+
+		assertEquals(numbers(50), out);
+		assertEquals(4, Delay.instances.get());
+
+	}
+
+	@Test(timeout = 60000)
+	public void testSerialStages() throws Exception {
+
+		ParallelPipelineRunner pipeline = this.createPipeline(50, 4);
+		pipeline.add(AnalysisEngineFactory.createPrimitiveDescription(Delay.class));
+		pipeline.add(AnalysisEngineFactory.createPrimitiveDescription(Recorder.class));
+		pipeline.add(AnalysisEngineFactory.createPrimitiveDescription(Delay.class));
+		pipeline.run();
+
+		// the stage after the recorder runs on a single instance too
+		assertEquals(1, Recorder.instances.get());
+		assertEquals(4 + 1, Delay.instances.get());
+		assertEquals(numbers(50), Recorder.seen);
+
+	}
+
+	@Test(timeout = 60000)
+	public void testCasPool() throws Exception {
+
+		ParallelPipelineRunner pipeline = this.createPipeline(50, 3);
+		pipeline.add(AnalysisEngineFactory.createPrimitiveDescription(Delay.class));
+		pipeline.add(AnalysisEngineFactory.createPrimitiveDescription(Recorder.class));
+		pipeline.run();
+
+		// 50 documents went through the 2 * threads CASes of the pool
+		assertEquals(50, Recorder.seen.size());
+		assertEquals(6, NumberReader.cases.size());
+
+	}
+
+	@Test(timeout = 60000)
+	public void testSingleThread() throws Exception {
+
+		ParallelPipelineRunner pipeline = this.createPipeline(10, 1);
+		pipeline.add(AnalysisEngineFactory.createPrimitiveDescription(Delay.class));
+		pipeline.add(AnalysisEngineFactory.createPrimitiveDescription(Recorder.class));
+		pipeline.run();
+
+		assertEquals(numbers(10), Recorder.seen);
+		assertEquals(1, Delay.instances.get());
+		assertEquals(1, NumberReader.cases.size());
+
+	}
+
+}
@@ -0,0 +1,50 @@
+package edu.isi.bmkeg.skm.triage.cleartk.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class StemCacheTest {
+
+	@Test
+	public void testHitRate() throws Exception {
+
+		StemCache cache = new StemCache(1000);
+
+		assertNull(cache.get("genes"));
+		cache.put("genes", "gene");
+		assertEquals("gene", cache.get("genes"));
+		assertEquals("gene", cache.get("genes"));
+
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(2.0 / 3, cache.getHitRate(), 1e-9);
+
+	}
+
+	@Test
+	public void testBounded() throws Exception {
+
+		StemCache cache = new StemCache(160);
+		for (int i = 0; i < 10000; i++)
+			cache.put("word" + i, "stem" + i);
+
+		assertTrue(cache.size() <= 160);
+
+		// the most recent words are still there
+		assertEquals("stem9999", cache.get("word9999"));
+
+	}
+
+	@Test
+	public void testShared() throws Exception {
+
+		assertSame(StemCache.getShared("test", 100),
+				StemCache.getShared("test", 100));
+
+	}
+
+}
@@ -0,0 +1,47 @@
+package edu.isi.bmkeg.skm.triage.cleartk.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.EnumSet;
+
+import org.junit.Test;
+
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.TfIdfCentroidAnnotator;
+import edu.isi.bmkeg.skm.triage.cleartk.annotators.Uni_and_BigramCountAnnotator;
+import edu.isi.bmkeg.skm.triage.cleartk.utils.TriagePipelines.Requirement;
+
+public class TriagePipelinesTest {
+
+	@Test
+	public void testNgramsDontNeedStems() throws Exception {
+
+		// tokens are found within sentences
+		assertEquals(EnumSet.of(Requirement.SENTENCES, Requirement.TOKENS),
+				TriagePipelines.getRequirements(Uni_and_BigramCountAnnotator.class));
+
+		assertEquals(EnumSet.of(Requirement.SENTENCES, Requirement.TOKENS),
+				TriagePipelines.getRequirements(
+						Uni_and_BigramCountAnnotator.class,
+						TfIdfCentroidAnnotator.class));
+
+	}
+
+	@Test
+	public void testFastTokenizerKeepsSentences() throws Exception {
+
+		// FastTokenizer tokenizes sentence by sentence, as TokenAnnotator
+		assertEquals(EnumSet.of(Requirement.SENTENCES),
+				TriagePipelines.getRequirements(true,
+						Uni_and_BigramCountAnnotator.class));
+
+	}
+
+	@Test
+	public void testUnregisteredAnnotator() throws Exception {
+
+		assertEquals(EnumSet.allOf(Requirement.class),
+				TriagePipelines.getRequirements(String.class));
+
+	}
+
+}
@@ -0,0 +1,113 @@
+package edu.isi.bmkeg.skm.triage.cleartk.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.isi.bmkeg.triage.model.TriageFeature;
+
+public class TriageScoreExplainerTest {
+
+	File modelJar;
+
+	CountingExplainer explainer;
+
+	/**
+	 * Counts the pipelines created and the explanations computed instead of
+	 * running UIMA.
+	 */
+	static class CountingExplainer extends TriageScoreExplainer {
+
+		int engines;
+
+		List<Long> computed = new ArrayList<Long>();
+
+		CountingExplainer(File modelJar, int cacheSize) {
+			super(null, null, null, modelJar, cacheSize);
+		}
+
+		protected void createEngine() throws Exception {
+			engines++;
+		}
+
+		protected List<TriageFeature> computeExplanation(long scoreId)
+				throws Exception {
+			computed.add(scoreId);
+			TriageFeature tf = new TriageFeature();
+			tf.setFeatName("score " + scoreId);
+			List<TriageFeature> features = new ArrayList<TriageFeature>();
+			features.add(tf);
+			return features;
+		}
+
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		modelJar = File.createTempFile("model", ".jar");
+		explainer = new CountingExplainer(modelJar, 2);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		explainer.destroy();
+		modelJar.delete();
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEviction() throws Exception {
+
+		List<TriageFeature> first = explainer.explain(1L);
+		explainer.explain(2L);
+		assertSame(first, explainer.explain(1L));
+
+		// 2 is the least recently used
+		explainer.explain(3L);
+		assertEquals(2, explainer.getCachedScores());
+		assertSame(first, explainer.explain(1L));
+		explainer.explain(2L);
+
+		assertEquals("[1, 2, 3, 2]", explainer.computed.toString());
+		assertEquals(1, explainer.engines);
+
+	}
+
+	@Test
+	public void testLongScoreIds() throws Exception {
+
+		long id = Integer.MAX_VALUE + 10L;
+		assertEquals("score " + id, explainer.explain(id).get(0).getFeatName());
+
+	}
+
+	@Test
+	public void testModelChange() throws Exception {
+
+		explainer.explain(1L);
+		explainer.explain(2L);
+		assertEquals(1, explainer.engines);
+
+		// the model is retrained
+		assertTrue(modelJar.setLastModified(modelJar.lastModified() - 10000));
+
+		explainer.explain(1L);
+		assertEquals(2, explainer.engines);
+		assertEquals(1, explainer.getCachedScores());
+		assertEquals("[1, 2, 1]", explainer.computed.toString());
+
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidScoreId() throws Exception {
+		explainer.explain(-1L);
+	}
+
+}
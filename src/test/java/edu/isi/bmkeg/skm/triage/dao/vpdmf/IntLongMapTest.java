@@ -0,0 +1,44 @@
+package edu.isi.bmkeg.skm.triage.dao.vpdmf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class IntLongMapTest {
+
+	@Test
+	public void testPutAndGet() throws Exception {
+
+		IntLongMap map = new IntLongMap(4);
+		for (int i = 0; i < 1000; i++)
+			assertEquals(i, map.put(20000000 + i * 7, 5000000000L + i));
+
+		assertEquals(1000, map.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i, map.indexOf(20000000 + i * 7));
+			assertEquals(20000000 + i * 7, map.keyAt(i));
+			assertEquals(5000000000L + i, map.get(20000000 + i * 7, -1));
+		}
+
+		assertFalse(map.containsKey(20000001));
+		assertEquals(-1, map.indexOf(20000001));
+		assertEquals(-1L, map.get(20000001, -1));
+
+	}
+
+	@Test
+	public void testOverwrite() throws Exception {
+
+		IntLongMap map = new IntLongMap(16);
+		map.put(12345, 1L);
+		assertEquals(0, map.put(12345, 2L));
+
+		assertEquals(1, map.size());
+		assertTrue(map.containsKey(12345));
+		assertEquals(2L, map.valueAt(0));
+
+	}
+
+}
@@ -0,0 +1,91 @@
+package edu.isi.bmkeg.skm.triage.dao.vpdmf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class JdbcConnectionPoolTest {
+
+	/**
+	 * Hands out connections that do nothing, without a database.
+	 */
+	private static class FakeConnectionFactory extends JdbcConnectionFactory {
+
+		int opened = 0;
+
+		FakeConnectionFactory() {
+			super("user", "", "test");
+		}
+
+		public Connection openConnection() throws SQLException {
+			opened++;
+			return (Connection) Proxy.newProxyInstance(
+					Connection.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, new InvocationHandler() {
+						public Object invoke(Object proxy, Method m, Object[] args) {
+							if (m.getName().equals("isValid"))
+								return true;
+							if (m.getName().equals("equals"))
+								return proxy == args[0];
+							if (m.getName().equals("hashCode"))
+								return System.identityHashCode(proxy);
+							return null;
+						}
+					});
+		}
+
+	}
+
+	@Test
+	public void testReuse() throws Exception {
+
+		FakeConnectionFactory cf = new FakeConnectionFactory();
+		JdbcConnectionPool pool = new JdbcConnectionPool(cf, 2);
+
+		Connection c1 = pool.borrow();
+		pool.release(c1);
+		assertSame(c1, pool.borrow());
+
+		pool.borrow();
+		assertEquals(2, cf.opened);
+		assertEquals(2, pool.getOpened());
+
+	}
+
+	@Test
+	public void testWaitsWhenExhausted() throws Exception {
+
+		final JdbcConnectionPool pool = new JdbcConnectionPool(
+				new FakeConnectionFactory(), 1);
+
+		Connection c1 = pool.borrow();
+
+		final AtomicReference<Connection> c2 = new AtomicReference<Connection>();
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					c2.set(pool.borrow());
+				} catch (SQLException e) {
+				}
+			}
+		};
+		t.start();
+		t.join(200);
+		assertTrue(t.isAlive());
+
+		pool.release(c1);
+		t.join(5000);
+		assertSame(c1, c2.get());
+
+	}
+
+}
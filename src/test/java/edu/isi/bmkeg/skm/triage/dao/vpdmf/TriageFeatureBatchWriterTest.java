@@ -0,0 +1,106 @@
+package edu.isi.bmkeg.skm.triage.dao.vpdmf;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.isi.bmkeg.triage.model.TriageFeature;
+
+public class TriageFeatureBatchWriterTest {
+
+	/**
+	 * Statements executed on the fake connection, as their SQL followed by
+	 * their parameters.
+	 */
+	private List<String> executed = new ArrayList<String>();
+
+	private Connection createConnection() {
+		return (Connection) Proxy.newProxyInstance(
+				Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method m, Object[] args) {
+						if (m.getName().equals("prepareStatement"))
+							return createStatement((String) args[0]);
+						return null;
+					}
+				});
+	}
+
+	private PreparedStatement createStatement(final String sql) {
+		final List<Object> params = new ArrayList<Object>();
+		return (PreparedStatement) Proxy.newProxyInstance(
+				PreparedStatement.class.getClassLoader(),
+				new Class<?>[] { PreparedStatement.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method m, Object[] args) {
+						if (m.getName().startsWith("set")) {
+							params.add(args[1]);
+						} else if (m.getName().equals("executeUpdate")) {
+							executed.add(sql + " " + params);
+							params.clear();
+							return 0;
+						}
+						return null;
+					}
+				});
+	}
+
+	private static TriageFeature feature(String name, String value) {
+		TriageFeature tf = new TriageFeature();
+		tf.setFeatName(name);
+		tf.setFeatValue(value);
+		return tf;
+	}
+
+	@Test
+	public void testBuffersDocuments() throws Exception {
+
+		TriageFeatureBatchWriter writer = new TriageFeatureBatchWriter(
+				this.createConnection(), 2, 2);
+
+		writer.replaceFeatures(1, Arrays.asList(feature("a", "1"),
+				feature("b", "2"), feature("c", "3")));
+		assertEquals(0, executed.size());
+
+		writer.replaceFeatures(2, Arrays.asList(feature("d", "4")));
+		assertEquals(Arrays.asList(
+				"DELETE FROM TriageFeature WHERE score_id IN (?,?) [1, 2]",
+				"INSERT INTO TriageFeature (featName, featValue, score_id) "
+						+ "VALUES (?,?,?),(?,?,?) [a, 1, 1, b, 2, 1]",
+				"INSERT INTO TriageFeature (featName, featValue, score_id) "
+						+ "VALUES (?,?,?),(?,?,?) [c, 3, 1, d, 4, 2]"),
+				executed);
+		assertEquals(4, writer.getWritten());
+
+	}
+
+	@Test
+	public void testFlushRemainder() throws Exception {
+
+		TriageFeatureBatchWriter writer = new TriageFeatureBatchWriter(
+				this.createConnection(), 10, 10);
+
+		writer.replaceFeatures(7, Collections.<TriageFeature> emptyList());
+		writer.replaceFeatures(8, Arrays.asList(feature("x", "1")));
+		assertEquals(2, writer.getPendingDocuments());
+
+		writer.flush();
+		assertEquals(Arrays.asList(
+				"DELETE FROM TriageFeature WHERE score_id IN (?,?) [7, 8]",
+				"INSERT INTO TriageFeature (featName, featValue, score_id) "
+						+ "VALUES (?,?,?) [x, 1, 8]"), executed);
+		assertEquals(0, writer.getPendingDocuments());
+
+	}
+
+}
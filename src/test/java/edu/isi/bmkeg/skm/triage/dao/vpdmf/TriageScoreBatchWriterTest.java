@@ -0,0 +1,258 @@
+package edu.isi.bmkeg.skm.triage.dao.vpdmf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TriageScoreBatchWriterTest {
+
+	/**
+	 * Records the score ids of each executed batch, without a database.
+	 * Commits wait for commitGate, and batches fail while failing is set.
+	 */
+	private static class FakeConnectionFactory extends JdbcConnectionFactory {
+
+		List<List<Long>> batches = Collections
+				.synchronizedList(new ArrayList<List<Long>>());
+
+		AtomicInteger commits = new AtomicInteger();
+
+		AtomicInteger rollbacks = new AtomicInteger();
+
+		volatile boolean failing = false;
+
+		volatile CountDownLatch commitGate = new CountDownLatch(0);
+
+		FakeConnectionFactory() {
+			super("user", "", "test");
+		}
+
+		public Connection openConnection() throws SQLException {
+			return (Connection) Proxy.newProxyInstance(
+					Connection.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, new InvocationHandler() {
+						public Object invoke(Object proxy, Method m, Object[] args)
+								throws Exception {
+							if (m.getName().equals("prepareStatement")) {
+								return createStatement();
+							} else if (m.getName().equals("commit")) {
+								commitGate.await();
+								commits.incrementAndGet();
+							} else if (m.getName().equals("rollback")) {
+								rollbacks.incrementAndGet();
+							}
+							return null;
+						}
+					});
+		}
+
+		private PreparedStatement createStatement() {
+			final List<Long> ids = new ArrayList<Long>();
+			return (PreparedStatement) Proxy.newProxyInstance(
+					PreparedStatement.class.getClassLoader(),
+					new Class<?>[] { PreparedStatement.class },
+					new InvocationHandler() {
+						public Object invoke(Object proxy, Method m, Object[] args)
+								throws Exception {
+							if (m.getName().equals("setLong")) {
+								ids.add((Long) args[1]);
+							} else if (m.getName().equals("executeBatch")) {
+								if (failing)
+									throw new SQLException("Lock wait timeout");
+								batches.add(new ArrayList<Long>(ids));
+								ids.clear();
+								return new int[0];
+							}
+							return null;
+						}
+					});
+		}
+
+		void awaitBatches(int n) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + 5000;
+			while (batches.size() < n && System.currentTimeMillis() < deadline)
+				Thread.sleep(10);
+			assertEquals(n, batches.size());
+		}
+
+	}
+
+	private FakeConnectionFactory cf = new FakeConnectionFactory();
+
+	private Date now = new Date();
+
+	@Test(timeout = 10000)
+	public void testBatchSize() throws Exception {
+
+		TriageScoreBatchWriter writer = new TriageScoreBatchWriter(cf, 2,
+				60000, 10);
+		writer.start();
+
+		for (long id = 1; id <= 5; id++)
+			writer.add(id, 0.5f, now);
+
+		cf.awaitBatches(2);
+		assertEquals(Arrays.asList(Arrays.asList(1L, 2L), Arrays.asList(3L, 4L)),
+				cf.batches);
+
+		writer.close();
+		assertEquals(Arrays.asList(5L), cf.batches.get(2));
+		assertEquals(5, writer.getWritten());
+		assertEquals(3, cf.commits.get());
+
+	}
+
+	@Test(timeout = 10000)
+	public void testFlushInterval() throws Exception {
+
+		TriageScoreBatchWriter writer = new TriageScoreBatchWriter(cf, 100,
+				50, 100);
+		writer.start();
+
+		writer.add(7, 0.5f, now);
+		cf.awaitBatches(1);
+		assertEquals(Arrays.asList(7L), cf.batches.get(0));
+
+		writer.close();
+
+	}
+
+	@Test(timeout = 10000)
+	public void testFlushWaitsForCommit() throws Exception {
+
+		cf.commitGate = new CountDownLatch(1);
+
+		final TriageScoreBatchWriter writer = new TriageScoreBatchWriter(cf,
+				100, 60000, 100);
+		writer.start();
+		writer.add(1, 0.5f, now);
+		writer.add(2, 0.5f, now);
+
+		final CountDownLatch flushed = new CountDownLatch(1);
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				try {
+					writer.flush();
+					flushed.countDown();
+				} catch (Exception e) {
+				}
+			}
+		});
+		t.start();
+
+		cf.awaitBatches(1);
+		Thread.sleep(200);
+		assertEquals(1, flushed.getCount());
+		assertEquals(0, writer.getWritten());
+
+		cf.commitGate.countDown();
+		t.join();
+		assertEquals(0, flushed.getCount());
+		assertEquals(2, writer.getWritten());
+
+		writer.close();
+
+	}
+
+	@Test(timeout = 10000)
+	public void testFailure() throws Exception {
+
+		cf.failing = true;
+
+		TriageScoreBatchWriter writer = new TriageScoreBatchWriter(cf, 1,
+				60000, 1);
+		writer.start();
+		writer.add(1, 0.5f, now);
+
+		try {
+			writer.flush();
+			fail("flush() should rethrow the batch failure");
+		} catch (Exception e) {
+			assertTrue(e.getCause() instanceof SQLException);
+		}
+		assertEquals(1, cf.rollbacks.get());
+
+		try {
+			writer.add(2, 0.5f, now);
+			fail("add() should rethrow the batch failure");
+		} catch (Exception e) {
+			assertTrue(e.getCause() instanceof SQLException);
+		}
+
+		// close() must not hang on the stopped writer
+		try {
+			writer.close();
+			fail("close() should rethrow the batch failure");
+		} catch (Exception e) {
+			assertTrue(e.getCause() instanceof SQLException);
+		}
+		assertEquals(0, writer.getWritten());
+
+	}
+
+	@Test(timeout = 10000)
+	public void testCloseAfterFailureWithFullQueue() throws Exception {
+
+		cf.failing = true;
+
+		TriageScoreBatchWriter writer = new TriageScoreBatchWriter(cf, 1,
+				60000, 1);
+		writer.start();
+
+		// the first batch fails while the producer keeps the queue full
+		for (long id = 1; id <= 20; id++) {
+			try {
+				writer.add(id, 0.5f, now);
+			} catch (Exception e) {
+				break;
+			}
+		}
+
+		try {
+			writer.close();
+			fail("close() should rethrow the batch failure");
+		} catch (Exception e) {
+			assertTrue(e.getCause() instanceof SQLException);
+		}
+
+	}
+
+	@Test(timeout = 10000)
+	public void testAbort() throws Exception {
+
+		TriageScoreBatchWriter writer = new TriageScoreBatchWriter(cf, 10,
+				60000, 10);
+		writer.start();
+
+		writer.add(1, 0.5f, now);
+		writer.add(2, 0.5f, now);
+		writer.abort();
+
+		assertTrue(cf.batches.isEmpty());
+		assertEquals(0, cf.commits.get());
+		assertFalse(cf.rollbacks.get() == 0);
+
+		// closing an aborted writer does nothing
+		writer.close();
+		assertEquals(0, writer.getWritten());
+
+	}
+
+}